@@ -100,6 +100,21 @@ public interface NMSHandler {
      */
     void updateEntityNameTagVisibilityForPlayer(Player player, Entity entity, boolean customNameVisible);
 
+    /**
+     * Starts collecting the nametag and hologram packets sent on the current thread, so each player receives them
+     * together when {@link #flushPacketBatch()} is called. Versions without bundle packets send every packet right away.
+     */
+    default void beginPacketBatch() {
+
+    }
+
+    /**
+     * Sends the packets collected since {@link #beginPacketBatch()} was called on the current thread
+     */
+    default void flushPacketBatch() {
+
+    }
+
     /**
      * Unignites a creeper
      *
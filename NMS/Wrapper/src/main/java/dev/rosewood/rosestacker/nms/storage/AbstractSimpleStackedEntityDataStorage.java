@@ -13,7 +13,8 @@ import org.bukkit.entity.LivingEntity;
 
 public abstract class AbstractSimpleStackedEntityDataStorage extends StackedEntityDataStorage {
 
-    protected int size;
+    // Written while holding the owning stack's lock, read from any thread without it
+    protected volatile int size;
 
     public AbstractSimpleStackedEntityDataStorage(LivingEntity livingEntity) {
         super(StackedEntityDataStorageType.SIMPLE, livingEntity);
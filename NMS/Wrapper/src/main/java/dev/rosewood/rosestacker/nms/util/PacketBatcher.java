@@ -0,0 +1,92 @@
+package dev.rosewood.rosestacker.nms.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bukkit.entity.Player;
+
+/**
+ * Collects the packets sent to each player on a thread while a batch is open, and sends each player's packets together
+ * once the batch is flushed. Batches are per thread and may be nested, only the outermost flush sends the packets.
+ * Packets sent on a thread without an open batch are sent right away.
+ *
+ * @param <P> The packet type
+ */
+public abstract class PacketBatcher<P> {
+
+    private final ThreadLocal<Batch<P>> batches;
+
+    public PacketBatcher() {
+        this.batches = ThreadLocal.withInitial(Batch::new);
+    }
+
+    /**
+     * Opens a batch on the current thread
+     */
+    public void begin() {
+        this.batches.get().depth++;
+    }
+
+    /**
+     * Closes the batch opened on the current thread and sends the packets collected for each player
+     */
+    public void flush() {
+        Batch<P> batch = this.batches.get();
+        if (batch.depth == 0 || --batch.depth > 0)
+            return;
+
+        for (Map.Entry<Player, List<P>> entry : batch.packets.entrySet()) {
+            try {
+                List<P> packets = entry.getValue();
+                if (packets.size() == 1) {
+                    this.sendPacket(entry.getKey(), packets.get(0));
+                } else {
+                    this.sendPackets(entry.getKey(), packets);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        batch.packets.clear();
+    }
+
+    /**
+     * Sends a packet to a player, or adds it to the batch open on the current thread
+     *
+     * @param player The player to send the packet to
+     * @param packet The packet to send
+     */
+    public void send(Player player, P packet) {
+        Batch<P> batch = this.batches.get();
+        if (batch.depth == 0) {
+            this.sendPacket(player, packet);
+        } else {
+            batch.packets.computeIfAbsent(player, key -> new ArrayList<>()).add(packet);
+        }
+    }
+
+    /**
+     * Sends a single packet to a player
+     *
+     * @param player The player to send the packet to
+     * @param packet The packet to send
+     */
+    protected abstract void sendPacket(Player player, P packet);
+
+    /**
+     * Sends multiple packets to a player at once
+     *
+     * @param player The player to send the packets to
+     * @param packets The packets to send, in order
+     */
+    protected abstract void sendPackets(Player player, List<P> packets);
+
+    private static class Batch<P> {
+
+        private final Map<Player, List<P>> packets = new LinkedHashMap<>();
+        private int depth;
+
+    }
+
+}
@@ -117,6 +117,8 @@ public class NMSHandlerImpl implements NMSHandler {
 
     private static Field field_Entity_spawnedViaMobSpawner; // Field to get the spawnedViaMobSpawner of an Entity, added by Paper, normally public
 
+    private final PacketBatcherImpl packetBatcher = new PacketBatcherImpl(); // Bundles the nametag and hologram packets sent during a pass
+
     static {
         try {
             Field field_Creeper_DATA_IS_IGNITED = ReflectionUtils.getFieldByPositionAndType(net.minecraft.world.entity.monster.Creeper.class, 2, EntityDataAccessor.class);
@@ -253,7 +255,7 @@ public class NMSHandlerImpl implements NMSHandler {
             dataValues.add(SynchedEntityData.DataValue.create(EntityDataSerializers.BOOLEAN.createAccessor(3), customNameVisible));
 
             ClientboundSetEntityDataPacket entityDataPacket = new ClientboundSetEntityDataPacket(entity.getEntityId(), dataValues);
-            ((CraftPlayer) player).getHandle().connection.send(entityDataPacket);
+            this.packetBatcher.send(player, entityDataPacket);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -264,12 +266,22 @@ public class NMSHandlerImpl implements NMSHandler {
         try {
             List<SynchedEntityData.DataValue<?>> dataValues = Lists.newArrayList(SynchedEntityData.DataValue.create(EntityDataSerializers.BOOLEAN.createAccessor(3), customNameVisible));
             ClientboundSetEntityDataPacket entityDataPacket = new ClientboundSetEntityDataPacket(entity.getEntityId(), dataValues);
-            ((CraftPlayer) player).getHandle().connection.send(entityDataPacket);
+            this.packetBatcher.send(player, entityDataPacket);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    @Override
+    public void beginPacketBatch() {
+        this.packetBatcher.begin();
+    }
+
+    @Override
+    public void flushPacketBatch() {
+        this.packetBatcher.flush();
+    }
+
     @Override
     public void unigniteCreeper(Creeper creeper) {
         net.minecraft.world.entity.monster.Creeper nmsCreeper = ((CraftCreeper) creeper).getHandle();
@@ -426,7 +438,7 @@ public class NMSHandlerImpl implements NMSHandler {
 
     @Override
     public Hologram createHologram(Location location, List<String> text) {
-        return new HologramImpl(text, location, entityCounter::incrementAndGet);
+        return new HologramImpl(text, location, entityCounter::incrementAndGet, this.packetBatcher);
     }
 
     @Override
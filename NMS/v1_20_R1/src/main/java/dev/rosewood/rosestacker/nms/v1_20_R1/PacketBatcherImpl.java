@@ -0,0 +1,26 @@
+package dev.rosewood.rosestacker.nms.v1_20_R1;
+
+import dev.rosewood.rosestacker.nms.util.PacketBatcher;
+import java.util.List;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import org.bukkit.craftbukkit.v1_20_R1.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+
+public class PacketBatcherImpl extends PacketBatcher<Packet<ClientGamePacketListener>> {
+
+    private static final int MAX_BUNDLE_SIZE = 4096; // The client disconnects if a bundle contains more packets than this
+
+    @Override
+    protected void sendPacket(Player player, Packet<ClientGamePacketListener> packet) {
+        ((CraftPlayer) player).getHandle().connection.send(packet);
+    }
+
+    @Override
+    protected void sendPackets(Player player, List<Packet<ClientGamePacketListener>> packets) {
+        for (int i = 0; i < packets.size(); i += MAX_BUNDLE_SIZE)
+            ((CraftPlayer) player).getHandle().connection.send(new ClientboundBundlePacket(packets.subList(i, Math.min(i + MAX_BUNDLE_SIZE, packets.size()))));
+    }
+
+}
@@ -2,6 +2,7 @@ package dev.rosewood.rosestacker.nms.v1_20_R1.hologram;
 
 import dev.rosewood.rosestacker.nms.hologram.Hologram;
 import dev.rosewood.rosestacker.nms.hologram.HologramLine;
+import dev.rosewood.rosestacker.nms.v1_20_R1.PacketBatcherImpl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -16,7 +17,6 @@ import net.minecraft.network.syncher.SynchedEntityData;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.phys.Vec3;
 import org.bukkit.Location;
-import org.bukkit.craftbukkit.v1_20_R1.entity.CraftPlayer;
 import org.bukkit.craftbukkit.v1_20_R1.util.CraftChatMessage;
 import org.bukkit.entity.Player;
 
@@ -27,8 +27,11 @@ public class HologramImpl extends Hologram {
             SynchedEntityData.DataValue.create(EntityDataSerializers.FLOAT.createAccessor(16), 1.0F)     // Visibility, always visible since these are hidden behind walls
     );
 
-    public HologramImpl(List<String> text, Location location, Supplier<Integer> entityIdSupplier) {
+    private final PacketBatcherImpl packetBatcher;
+
+    public HologramImpl(List<String> text, Location location, Supplier<Integer> entityIdSupplier, PacketBatcherImpl packetBatcher) {
         super(text, location, entityIdSupplier);
+        this.packetBatcher = packetBatcher;
     }
 
     @Override
@@ -48,7 +51,7 @@ public class HologramImpl extends Hologram {
                     0
             );
 
-            ((CraftPlayer) player).getHandle().connection.send(packet);
+            this.packetBatcher.send(player, packet);
         }
     }
 
@@ -67,7 +70,7 @@ public class HologramImpl extends Hologram {
                 if (visible == null)
                     return;
 
-                ((CraftPlayer) player).getHandle().connection.send(new ClientboundSetEntityDataPacket(line.getEntityId(), dataValues));
+                this.packetBatcher.send(player, new ClientboundSetEntityDataPacket(line.getEntityId(), dataValues));
             }
         }
     }
@@ -76,7 +79,7 @@ public class HologramImpl extends Hologram {
     protected void delete(Player player) {
         ClientboundRemoveEntitiesPacket packet = new ClientboundRemoveEntitiesPacket(this.hologramLines.stream().mapToInt(HologramLine::getEntityId).toArray());
 
-        ((CraftPlayer) player).getHandle().connection.send(packet);
+        this.packetBatcher.send(player, packet);
     }
 
 }
@@ -0,0 +1,188 @@
+package dev.rosewood.rosestacker.manager;
+
+import dev.rosewood.rosestacker.cache.ChunkEntities;
+import dev.rosewood.rosestacker.cache.ChunkMap;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import org.bukkit.Location;
+import org.bukkit.entity.Cow;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Pig;
+import org.bukkit.util.BoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the visitor used by {@link EntityCacheManager#forEachNearby} against the collect and stream query it replaced.
+ * The manager needs a running server, so both queries run over the same {@link ChunkMap} of {@link ChunkEntities} it
+ * keeps, filled with unstacked entities, which is the path where the entity's own location is read.
+ * The old query truncated its chunk bounds, so near negative coordinates it can visit fewer chunks than the visitor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityCacheQueryBenchmark {
+
+    private static final int AREA = 256;
+    private static final int QUERIES = 1024;
+
+    @Param({"1000", "10000"})
+    private int entities;
+
+    @Param({"5", "16"})
+    private double radius;
+
+    private ChunkMap<ChunkEntities> chunks;
+    private double[] centers;
+    private Location location;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        this.chunks = new ChunkMap<>();
+        for (int i = 0; i < this.entities; i++) {
+            // Every other entity is a different type so the typed buckets have something to skip
+            Class<? extends Entity> type = i % 2 == 0 ? Cow.class : Pig.class;
+            Entity entity = createEntity(type, i % 2 == 0 ? EntityType.COW : EntityType.PIG,
+                    random.nextDouble() * AREA - AREA / 2.0, 64 + random.nextDouble() * 8, random.nextDouble() * AREA - AREA / 2.0);
+            Location location = entity.getLocation();
+            this.chunks.computeIfAbsent(ChunkMap.key(location.getBlockX() >> 4, location.getBlockZ() >> 4), key -> new ChunkEntities())
+                    .add(entity, location.getBlockY() >> 4, 1);
+        }
+
+        this.centers = new double[QUERIES * 3];
+        for (int i = 0; i < this.centers.length; i += 3) {
+            this.centers[i] = random.nextDouble() * AREA - AREA / 2.0;
+            this.centers[i + 1] = 64 + random.nextDouble() * 8;
+            this.centers[i + 2] = random.nextDouble() * AREA - AREA / 2.0;
+        }
+
+        this.location = new Location(null, 0, 0, 0);
+    }
+
+    @Benchmark
+    public Collection<Entity> collectAndStream() {
+        int index = this.nextCenter();
+        return this.collectNearbyEntities(this.centers[index], this.centers[index + 1], this.centers[index + 2], this.radius,
+                (chunkEntities, entities) -> entities.addAll(chunkEntities.get(EntityType.COW)), entity -> true);
+    }
+
+    @Benchmark
+    public void visitor(Blackhole blackhole) {
+        int index = this.nextCenter();
+        this.visitNearby(this.centers[index], this.centers[index + 1], this.centers[index + 2], this.radius,
+                (chunkEntities, visitor) -> chunkEntities.get(EntityType.COW).forEach(visitor), blackhole::consume);
+    }
+
+    private int nextCenter() {
+        int index = this.next;
+        this.next = (this.next + 3) % this.centers.length;
+        return index;
+    }
+
+    /**
+     * The query before the visitor, copying every entity in range of the chunks into a list and filtering it with a stream
+     */
+    private Collection<Entity> collectNearbyEntities(double x, double y, double z, double radius, BiConsumer<ChunkEntities, List<Entity>> collector, Predicate<Entity> predicate) {
+        List<Entity> nearbyEntities = new ArrayList<>();
+        BoundingBox boundingBox = new BoundingBox(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius);
+
+        int minX = (int) boundingBox.getMinX() >> 4;
+        int maxX = (int) boundingBox.getMaxX() >> 4;
+        int minZ = (int) boundingBox.getMinZ() >> 4;
+        int maxZ = (int) boundingBox.getMaxZ() >> 4;
+
+        for (int chunkX = minX; chunkX <= maxX; chunkX++) {
+            for (int chunkZ = minZ; chunkZ <= maxZ; chunkZ++) {
+                ChunkEntities chunkEntities = this.chunks.get(ChunkMap.key(chunkX, chunkZ));
+                if (chunkEntities != null)
+                    collector.accept(chunkEntities, nearbyEntities);
+            }
+        }
+
+        return nearbyEntities.stream()
+                .filter(Entity::isValid)
+                .filter(entity -> boundingBox.contains(entity.getLocation().toVector()))
+                .filter(predicate)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * The visitor from {@link EntityCacheManager}, for entities that aren't part of a captured stack
+     */
+    private void visitNearby(double x, double y, double z, double radius, BiConsumer<ChunkEntities, Consumer<Entity>> bucketVisitor, Consumer<Entity> consumer) {
+        double minX = x - radius, minY = y - radius, minZ = z - radius;
+        double maxX = x + radius, maxY = y + radius, maxZ = z + radius;
+
+        Location location = this.location;
+        Consumer<Entity> visitor = entity -> {
+            if (!entity.isValid())
+                return;
+
+            entity.getLocation(location);
+            double entityX = location.getX(), entityY = location.getY(), entityZ = location.getZ();
+            if (entityX >= minX && entityX < maxX && entityY >= minY && entityY < maxY && entityZ >= minZ && entityZ < maxZ)
+                consumer.accept(entity);
+        };
+
+        int minChunkX = Location.locToBlock(minX) >> 4;
+        int maxChunkX = Location.locToBlock(maxX) >> 4;
+        int minChunkZ = Location.locToBlock(minZ) >> 4;
+        int maxChunkZ = Location.locToBlock(maxZ) >> 4;
+
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                ChunkEntities chunkEntities = this.chunks.get(ChunkMap.key(chunkX, chunkZ));
+                if (chunkEntities != null)
+                    bucketVisitor.accept(chunkEntities, visitor);
+            }
+        }
+    }
+
+    /**
+     * Creates an entity that only answers what the queries read, with identity equality like the server's entities
+     */
+    private static Entity createEntity(Class<? extends Entity> type, EntityType entityType, double x, double y, double z) {
+        return (Entity) Proxy.newProxyInstance(EntityCacheQueryBenchmark.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> switch (method.getName()) {
+            case "getType" -> entityType;
+            case "isValid" -> true;
+            case "getLocation" -> {
+                if (args == null)
+                    yield new Location(null, x, y, z);
+
+                Location location = (Location) args[0];
+                location.setX(x);
+                location.setY(y);
+                location.setZ(z);
+                yield location;
+            }
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+}
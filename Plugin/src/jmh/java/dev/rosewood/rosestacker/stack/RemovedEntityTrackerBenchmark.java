@@ -0,0 +1,115 @@
+package dev.rosewood.rosestacker.stack;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link RemovedEntityTracker} against the Guava cache with a 5 second expiry it replaced.
+ * Each group has several threads checking entities, like the stacking passes do, and one thread recording removals.
+ * Half of the checked entities were removed, the rest never were.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemovedEntityTrackerBenchmark {
+
+    private static final int READERS = 3;
+    private static final int ENTITIES = 1 << 14;
+
+    @Param({"1000", "10000"})
+    private int removed;
+
+    private RemovedEntityTracker tracker;
+    private Cache<UUID, Boolean> cache;
+    private UUID[] lookups;
+    private UUID[] additions;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        this.tracker = new RemovedEntityTracker(TimeUnit.SECONDS.toNanos(5));
+        this.cache = CacheBuilder.newBuilder().expireAfterWrite(5, TimeUnit.SECONDS).build();
+
+        this.lookups = new UUID[ENTITIES];
+        for (int i = 0; i < ENTITIES; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            this.lookups[i] = uuid;
+            if (i % 2 == 0 && i / 2 < this.removed) {
+                this.tracker.add(uuid);
+                this.cache.put(uuid, true);
+            }
+        }
+
+        this.additions = new UUID[ENTITIES];
+        for (int i = 0; i < ENTITIES; i++)
+            this.additions[i] = new UUID(random.nextLong(), random.nextLong());
+    }
+
+    @Benchmark
+    @Group("tracker")
+    @GroupThreads(READERS)
+    public boolean trackerContains(Cursor cursor) {
+        return this.tracker.contains(this.lookups[cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("tracker")
+    @GroupThreads(1)
+    public void trackerAdd(Cursor cursor) {
+        this.tracker.add(this.additions[cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("cache")
+    @GroupThreads(READERS)
+    public boolean cacheContains(Cursor cursor) {
+        return this.cache.getIfPresent(this.lookups[cursor.next()]) != null;
+    }
+
+    @Benchmark
+    @Group("cache")
+    @GroupThreads(1)
+    public void cacheAdd(Cursor cursor) {
+        this.cache.put(this.additions[cursor.next()], true);
+    }
+
+    /**
+     * Walks each thread through the entities from its own starting point
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        @Setup
+        public void setup() {
+            this.index = new Random().nextInt(ENTITIES);
+        }
+
+        public int next() {
+            this.index = (this.index + 1) & (ENTITIES - 1);
+            return this.index;
+        }
+
+    }
+
+}
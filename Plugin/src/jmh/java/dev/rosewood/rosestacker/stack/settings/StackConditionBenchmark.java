@@ -0,0 +1,132 @@
+package dev.rosewood.rosestacker.stack.settings;
+
+import dev.rosewood.rosestacker.stack.EntityStackComparisonResult;
+import dev.rosewood.rosestacker.stack.settings.conditions.entity.StackConditions.ConfigProperties;
+import dev.rosewood.rosestacker.stack.settings.conditions.entity.StackConditions.StackCondition;
+import dev.rosewood.rosestacker.stack.settings.conditions.entity.StackConditions.StackValidationFunction;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.entity.Cow;
+import org.bukkit.entity.Entity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the compiled condition chain used by {@link EntityStackSettings#canStackWith} against the loop it replaced,
+ * which walked every eligible condition, skipped the disabled ones and checked the entity classes for each one.
+ * Both entities can always stack, so every enabled condition is evaluated, and the conditions don't call the entities
+ * so only the cost of the evaluation itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StackConditionBenchmark {
+
+    @Param({"10", "40"})
+    private int conditions;
+
+    @Param({"0.25", "0.75"})
+    private double disabledFraction;
+
+    private List<ConditionEntry<?>> entries;
+    private StackValidationFunction<Entity>[] compiled;
+    private Entity entity1, entity2;
+
+    @Setup
+    public void setup() {
+        this.entries = new ArrayList<>(this.conditions);
+        int disabled = (int) (this.conditions * this.disabledFraction);
+        for (int i = 0; i < this.conditions; i++) {
+            StackCondition<Entity> condition = new StackCondition<>(new ConfigProperties("dont-stack-if-condition-" + i, true), createFunction(i), null);
+
+            // Spread the disabled conditions between the enabled ones like a config with a few options turned off
+            this.entries.add(new ConditionEntry<>(condition, i * disabled / this.conditions == (i + 1) * disabled / this.conditions));
+        }
+
+        this.compiled = EntityStackSettings.compileConditions(this.entries.stream()
+                .filter(ConditionEntry::enabled)
+                .<StackCondition<?>>map(ConditionEntry::condition)
+                .toList());
+
+        this.entity1 = createEntity();
+        this.entity2 = createEntity();
+    }
+
+    @Benchmark
+    public EntityStackComparisonResult conditionLoop() {
+        for (ConditionEntry<?> entry : this.entries) {
+            EntityStackComparisonResult result = entry.apply(this.entity1, this.entity2, false, false);
+            if (result != EntityStackComparisonResult.CAN_STACK)
+                return result;
+        }
+
+        return EntityStackComparisonResult.CAN_STACK;
+    }
+
+    @Benchmark
+    public EntityStackComparisonResult compiledConditions() {
+        return EntityStackSettings.evaluateConditions(this.compiled, null, null, null, this.entity1, this.entity2, false, false);
+    }
+
+    /**
+     * Creates a condition that always passes, the real conditions are separate lambdas so calls to them aren't monomorphic either
+     */
+    private static StackValidationFunction<Entity> createFunction(int index) {
+        EntityStackComparisonResult failure = EntityStackComparisonResult.values()[1 + index % (EntityStackComparisonResult.values().length - 1)];
+        return switch (index % 4) {
+            case 0 -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> comparingForUnstack ? failure : EntityStackComparisonResult.CAN_STACK;
+            case 1 -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> ignorePositions ? failure : EntityStackComparisonResult.CAN_STACK;
+            case 2 -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> entity1 == null ? failure : EntityStackComparisonResult.CAN_STACK;
+            default -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> entity2 == null ? failure : EntityStackComparisonResult.CAN_STACK;
+        };
+    }
+
+    private static Entity createEntity() {
+        return (Entity) Proxy.newProxyInstance(StackConditionBenchmark.class.getClassLoader(), new Class<?>[] { Cow.class }, (proxy, method, args) -> switch (method.getName()) {
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    /**
+     * A condition as it was evaluated before compiling, checking if it's enabled and the entity classes every time
+     */
+    private record ConditionEntry<T>(StackCondition<T> condition, boolean enabled) {
+
+        @SuppressWarnings("unchecked")
+        public EntityStackComparisonResult apply(Entity entity1, Entity entity2, boolean comparingForUnstack, boolean ignorePositions) {
+            if (!this.enabled)
+                return EntityStackComparisonResult.CAN_STACK;
+
+            if (entity1.getClass() != entity2.getClass())
+                return EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES;
+
+            try {
+                return this.condition.function().apply(null, null, null, (T) entity1, (T) entity2, comparingForUnstack, ignorePositions);
+            } catch (ClassCastException e) {
+                return EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES;
+            }
+        }
+
+    }
+
+}
@@ -22,7 +22,9 @@ import dev.rosewood.rosestacker.manager.CommandManager;
 import dev.rosewood.rosestacker.manager.ConfigurationManager;
 import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.HologramManager;
+import dev.rosewood.rosestacker.manager.LineOfSightCacheManager;
 import dev.rosewood.rosestacker.manager.LocaleManager;
+import dev.rosewood.rosestacker.manager.NametagManager;
 import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
@@ -112,20 +114,24 @@ public class RoseStacker extends RosePlugin {
     public void reload() {
         super.reload();
         StackerUtils.clearCache();
+        ThreadUtils.startAsyncExecutor();
     }
 
     @Override
     public void disable() {
-        Bukkit.getScheduler().cancelTasks(this);
+        ThreadUtils.getScheduler().cancelAll();
+        ThreadUtils.stopAsyncExecutor();
     }
 
     @Override
     protected List<Class<? extends Manager>> getManagerLoadPriority() {
         return List.of(
+                LineOfSightCacheManager.class,
                 HologramManager.class,
                 StackSettingManager.class,
                 CommandManager.class,
                 EntityCacheManager.class,
+                NametagManager.class,
                 StackManager.class
         );
     }
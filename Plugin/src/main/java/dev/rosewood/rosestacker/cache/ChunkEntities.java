@@ -0,0 +1,185 @@
+package dev.rosewood.rosestacker.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+
+/**
+ * The entities cached in a single chunk, split into one bucket per {@link EntityType}.
+ * Buckets are created on first use and indexed by the type's ordinal.
+ * Running counts and totals of stack sizes are kept per type for each chunk section (16 block slice of Y) that has
+ * entities, where an unstacked entity counts as 1.
+ * Writes are expected to be serialized by the owner, reads are safe from any thread.
+ */
+public class ChunkEntities {
+
+    private static final EntityType[] ENTITY_TYPES = EntityType.values();
+
+    private final Set<Entity>[] buckets;
+    private final Map<Integer, AtomicIntegerArray> sectionTotals;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public ChunkEntities() {
+        this.buckets = new Set[ENTITY_TYPES.length];
+        this.sectionTotals = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds an entity to the bucket for its type
+     *
+     * @param entity The entity to add
+     * @param section The chunk section the entity is in
+     * @param stackSize The stack size the entity counts towards its type's total
+     * @return true if the entity was not already present
+     */
+    public boolean add(Entity entity, int section, int stackSize) {
+        int ordinal = entity.getType().ordinal();
+        Set<Entity> bucket = this.buckets[ordinal];
+        if (bucket == null) {
+            bucket = ConcurrentHashMap.newKeySet();
+            this.buckets[ordinal] = bucket;
+        }
+
+        if (!bucket.add(entity))
+            return false;
+
+        this.addToSection(section, ordinal, 1, stackSize);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Removes an entity from the bucket for its type
+     *
+     * @param entity The entity to remove
+     * @param section The chunk section the entity was counted in
+     * @param stackSize The stack size the entity was counting towards its type's total
+     * @return true if the entity was present
+     */
+    public boolean remove(Entity entity, int section, int stackSize) {
+        int ordinal = entity.getType().ordinal();
+        Set<Entity> bucket = this.buckets[ordinal];
+        if (bucket == null || !bucket.remove(entity))
+            return false;
+
+        this.addToSection(section, ordinal, -1, -stackSize);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Adjusts the stacked total of an entity's type after its stack size changed
+     *
+     * @param entity The entity whose stack size changed
+     * @param section The chunk section the entity is counted in
+     * @param delta The change in stack size
+     */
+    public void adjustStackSize(Entity entity, int section, int delta) {
+        this.addToSection(section, entity.getType().ordinal(), 0, delta);
+    }
+
+    /**
+     * Moves an entity's contribution to the totals from one chunk section to another within this chunk
+     *
+     * @param entity The entity that moved
+     * @param from The chunk section the entity was counted in
+     * @param to The chunk section the entity is now in
+     * @param stackSize The stack size the entity counts towards its type's total
+     */
+    public void moveSection(Entity entity, int from, int to, int stackSize) {
+        int ordinal = entity.getType().ordinal();
+        if (!this.get(entity.getType()).contains(entity))
+            return;
+
+        this.addToSection(from, ordinal, -1, -stackSize);
+        this.addToSection(to, ordinal, 1, stackSize);
+    }
+
+    /**
+     * @return true if there are no entities left in any bucket
+     */
+    public boolean isEmpty() {
+        return this.size <= 0;
+    }
+
+    /**
+     * Gets the entities of a single type in this chunk
+     *
+     * @param entityType The type of entity
+     * @return a live view of the entities of the given type, never null
+     */
+    public Collection<Entity> get(EntityType entityType) {
+        Set<Entity> bucket = this.buckets[entityType.ordinal()];
+        return bucket == null ? Collections.emptySet() : bucket;
+    }
+
+    /**
+     * Gets the number of entities of a type within a range of chunk sections in this chunk, each stack counts as one
+     *
+     * @param entityType The type of entity
+     * @param minSection The lowest chunk section to count, inclusive
+     * @param maxSection The highest chunk section to count, inclusive
+     * @return the number of entities of the given type in the sections
+     */
+    public int count(EntityType entityType, int minSection, int maxSection) {
+        return this.sumSections(entityType.ordinal(), minSection, maxSection);
+    }
+
+    /**
+     * Gets the total stack size of all entities of a type within a range of chunk sections in this chunk
+     *
+     * @param entityType The type of entity
+     * @param minSection The lowest chunk section to count, inclusive
+     * @param maxSection The highest chunk section to count, inclusive
+     * @return the total stack size of the entities of the given type in the sections
+     */
+    public int countStacked(EntityType entityType, int minSection, int maxSection) {
+        return this.sumSections(ENTITY_TYPES.length + entityType.ordinal(), minSection, maxSection);
+    }
+
+    private void addToSection(int section, int ordinal, int count, int stackSize) {
+        // Each section holds the counts of every type followed by the stacked totals of every type
+        AtomicIntegerArray totals = this.sectionTotals.computeIfAbsent(section, x -> new AtomicIntegerArray(ENTITY_TYPES.length * 2));
+        if (count != 0)
+            totals.addAndGet(ordinal, count);
+        if (stackSize != 0)
+            totals.addAndGet(ENTITY_TYPES.length + ordinal, stackSize);
+    }
+
+    private int sumSections(int index, int minSection, int maxSection) {
+        int total = 0;
+        if (maxSection - minSection + 1 <= this.sectionTotals.size()) {
+            for (int section = minSection; section <= maxSection; section++) {
+                AtomicIntegerArray totals = this.sectionTotals.get(section);
+                if (totals != null)
+                    total += totals.get(index);
+            }
+        } else {
+            for (Map.Entry<Integer, AtomicIntegerArray> entry : this.sectionTotals.entrySet()) {
+                int section = entry.getKey();
+                if (section >= minSection && section <= maxSection)
+                    total += entry.getValue().get(index);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Calls the consumer with every entity in this chunk, regardless of type
+     *
+     * @param consumer The consumer to call for each entity
+     */
+    public void forEach(Consumer<Entity> consumer) {
+        for (Set<Entity> bucket : this.buckets)
+            if (bucket != null)
+                bucket.forEach(consumer);
+    }
+
+}
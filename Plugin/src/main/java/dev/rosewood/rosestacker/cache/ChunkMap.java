@@ -0,0 +1,206 @@
+package dev.rosewood.rosestacker.cache;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * An open-addressing hash map keyed by packed chunk coordinates.
+ * Writes are serialized on the map, reads are lock-free and never allocate.
+ * A reader racing a writer may miss an entry that is being added, but will never see an entry under the wrong key.
+ *
+ * @param <V> The value type
+ */
+public class ChunkMap<V> {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private volatile Table table;
+    private int size;
+    private int used;
+
+    public ChunkMap() {
+        this.table = new Table(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Packs chunk coordinates into a single key
+     *
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     * @return the packed key
+     */
+    public static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key The packed key
+     * @return the chunk x coordinate of a packed key
+     */
+    public static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * @param key The packed key
+     * @return the chunk z coordinate of a packed key
+     */
+    public static int keyZ(long key) {
+        return (int) key;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table table = this.table;
+        long[] keys = table.keys;
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+        while (true) {
+            long current = keys[index];
+            if (current == key)
+                return (V) table.values[index];
+            if (current == EMPTY)
+                return null;
+            index = (index + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized V computeIfAbsent(long key, LongFunction<V> mappingFunction) {
+        Table table = this.table;
+        int index = table.indexOf(key);
+        if (index >= 0) {
+            V value = (V) table.values[index];
+            if (value == null) {
+                value = mappingFunction.apply(key);
+                table.values[index] = value;
+                this.size++;
+            }
+            return value;
+        }
+
+        if (this.used + 1 > table.keys.length * LOAD_FACTOR) {
+            this.resize();
+            table = this.table;
+        }
+
+        V value = mappingFunction.apply(key);
+        table.insert(key, value);
+        this.used++;
+        this.size++;
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key) {
+        Table table = this.table;
+        int index = table.indexOf(key);
+        if (index < 0)
+            return null;
+
+        // The key is left in place so lock-free readers never observe a slot changing keys
+        V value = (V) table.values[index];
+        if (value != null) {
+            table.values[index] = null;
+            this.size--;
+        }
+        return value;
+    }
+
+    public synchronized void clear() {
+        this.table = new Table(DEFAULT_CAPACITY);
+        this.size = 0;
+        this.used = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Iterates over every entry in the map.
+     * Entries added or removed during iteration may or may not be visited.
+     *
+     * @param consumer The consumer to call for each entry
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<V> consumer) {
+        Table table = this.table;
+        for (int i = 0; i < table.keys.length; i++) {
+            long key = table.keys[i];
+            if (key == EMPTY)
+                continue;
+
+            V value = (V) table.values[i];
+            if (value != null)
+                consumer.accept(key, value);
+        }
+    }
+
+    private void resize() {
+        Table oldTable = this.table;
+        int capacity = DEFAULT_CAPACITY;
+        while ((this.size + 1) > capacity * LOAD_FACTOR / 2)
+            capacity <<= 1;
+
+        Table newTable = new Table(capacity);
+        for (int i = 0; i < oldTable.keys.length; i++) {
+            Object value = oldTable.values[i];
+            if (value != null)
+                newTable.insert(oldTable.keys[i], value);
+        }
+
+        this.used = this.size;
+        this.table = newTable;
+    }
+
+    private static int mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static class Table {
+
+        private final long[] keys;
+        private final Object[] values;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            Arrays.fill(this.keys, EMPTY);
+        }
+
+        private int indexOf(long key) {
+            int mask = this.keys.length - 1;
+            int index = mix(key) & mask;
+            while (true) {
+                long current = this.keys[index];
+                if (current == key)
+                    return index;
+                if (current == EMPTY)
+                    return -1;
+                index = (index + 1) & mask;
+            }
+        }
+
+        private void insert(long key, Object value) {
+            int mask = this.keys.length - 1;
+            int index = mix(key) & mask;
+            while (this.keys[index] != EMPTY)
+                index = (index + 1) & mask;
+
+            // A reader that sees the key before the value treats the slot as absent, which is safe
+            this.values[index] = value;
+            this.keys[index] = key;
+        }
+
+    }
+
+}
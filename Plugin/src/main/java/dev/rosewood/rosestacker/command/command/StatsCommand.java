@@ -6,9 +6,17 @@ import dev.rosewood.rosegarden.command.framework.RoseCommand;
 import dev.rosewood.rosegarden.command.framework.RoseCommandWrapper;
 import dev.rosewood.rosegarden.command.framework.annotation.RoseExecutable;
 import dev.rosewood.rosegarden.utils.StringPlaceholders;
+import dev.rosewood.rosestacker.manager.LineOfSightCacheManager;
 import dev.rosewood.rosestacker.manager.LocaleManager;
+import dev.rosewood.rosestacker.manager.NametagManager;
 import dev.rosewood.rosestacker.manager.StackManager;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskExecutor;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskExecutor.KindMetrics;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
+import dev.rosewood.rosestacker.stack.PerformanceController;
 import dev.rosewood.rosestacker.stack.Stack;
+import dev.rosewood.rosestacker.stack.StackingThread;
+import dev.rosewood.rosestacker.stack.SyncCommandBuffer;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
 
@@ -35,6 +43,16 @@ public class StatsCommand extends RoseCommand {
         int blockAmount = stackManager.getStackedBlocks().values().stream().mapToInt(Stack::getStackSize).sum();
         int spawnerAmount = stackManager.getStackedSpawners().values().stream().mapToInt(Stack::getStackSize).sum();
 
+        long appliedCommands = 0, pendingCommands = 0, drains = 0, totalDrainTime = 0, lastDrainTime = 0;
+        for (StackingThread stackingThread : stackManager.getStackingThreads().values()) {
+            SyncCommandBuffer syncCommands = stackingThread.getSyncCommands();
+            appliedCommands += syncCommands.getAppliedCommands();
+            pendingCommands += syncCommands.getPendingCommands();
+            drains += syncCommands.getDrains();
+            totalDrainTime += syncCommands.getTotalDrainTime();
+            lastDrainTime = Math.max(lastDrainTime, syncCommands.getLastDrainTime());
+        }
+
         localeManager.sendMessage(context.getSender(), "command-stats-header");
         localeManager.sendSimpleMessage(context.getSender(), "command-stats-threads", StringPlaceholders.of("amount", StackerUtils.formatNumber(threadAmount)));
         localeManager.sendSimpleMessage(context.getSender(), "command-stats-stacked-entities", StringPlaceholders.builder("stackAmount", entityStackAmount).add("total", StackerUtils.formatNumber(entityAmount)).build());
@@ -42,6 +60,54 @@ public class StatsCommand extends RoseCommand {
         localeManager.sendSimpleMessage(context.getSender(), "command-stats-stacked-blocks", StringPlaceholders.builder("stackAmount", blockStackAmount).add("total", StackerUtils.formatNumber(blockAmount)).build());
         localeManager.sendSimpleMessage(context.getSender(), "command-stats-stacked-spawners", StringPlaceholders.builder("stackAmount", spawnerStackAmount).add("total", StackerUtils.formatNumber(spawnerAmount)).build());
         localeManager.sendSimpleMessage(context.getSender(), "command-stats-active-tasks", StringPlaceholders.of("amount", StackerUtils.formatNumber(ThreadUtils.getActiveThreads())));
+        localeManager.sendSimpleMessage(context.getSender(), "command-stats-commit-phase", StringPlaceholders.builder("applied", StackerUtils.formatNumber(appliedCommands))
+                .add("pending", StackerUtils.formatNumber(pendingCommands))
+                .add("last", String.format("%.2f", lastDrainTime / 1_000_000D))
+                .add("average", String.format("%.2f", drains == 0 ? 0 : totalDrainTime / 1_000_000D / drains)).build());
+
+        NametagManager nametagManager = this.rosePlugin.getManager(NametagManager.class);
+        localeManager.sendSimpleMessage(context.getSender(), "command-stats-nametag-packets", StringPlaceholders.builder("sent", StackerUtils.formatNumber(nametagManager.getSentPackets()))
+                .add("suppressed", StackerUtils.formatNumber(nametagManager.getSuppressedPackets())).build());
+
+        LineOfSightCacheManager lineOfSightCacheManager = this.rosePlugin.getManager(LineOfSightCacheManager.class);
+        long lineOfSightHits = lineOfSightCacheManager.getHits(), lineOfSightMisses = lineOfSightCacheManager.getMisses();
+        if (lineOfSightHits + lineOfSightMisses > 0)
+            localeManager.sendSimpleMessage(context.getSender(), "command-stats-line-of-sight-cache", StringPlaceholders.builder("hits", StackerUtils.formatNumber(lineOfSightHits))
+                    .add("misses", StackerUtils.formatNumber(lineOfSightMisses))
+                    .add("rate", String.format("%.1f", lineOfSightHits * 100D / (lineOfSightHits + lineOfSightMisses))).build());
+
+        PerformanceController performanceController = stackManager.getPerformanceController();
+        if (performanceController != null && performanceController.isEnabled()) {
+            int maxStacksPerPass = performanceController.getMaxStacksPerPass(-1);
+            localeManager.sendSimpleMessage(context.getSender(), "command-stats-performance-controller", StringPlaceholders.builder("mspt", String.format("%.1f", performanceController.getMspt()))
+                    .add("pressure", String.format("%.2f", performanceController.getPressure()))
+                    .add("stack", String.format("%.2f", performanceController.getStackIntervalMultiplier()))
+                    .add("tag", String.format("%.2f", performanceController.getTagIntervalMultiplier()))
+                    .add("radius", String.format("%.2f", performanceController.getMergeRadiusMultiplier()))
+                    .add("stacks", maxStacksPerPass > 0 ? StackerUtils.formatNumber(maxStacksPerPass) : "-").build());
+        }
+
+        AsyncTaskExecutor asyncExecutor = ThreadUtils.getAsyncExecutor();
+        if (asyncExecutor != null) {
+            localeManager.sendSimpleMessage(context.getSender(), "command-stats-async-executor", StringPlaceholders.builder("active", asyncExecutor.getActiveThreads())
+                    .add("threads", asyncExecutor.getThreads())
+                    .add("queued", StackerUtils.formatNumber(asyncExecutor.getQueueDepth())).build());
+
+            for (AsyncTaskKind kind : AsyncTaskKind.values()) {
+                KindMetrics metrics = asyncExecutor.getMetrics(kind);
+                if (metrics.getSubmitted() == 0)
+                    continue;
+
+                localeManager.sendSimpleMessage(context.getSender(), "command-stats-async-kind", StringPlaceholders.builder("kind", kind.name().toLowerCase())
+                        .add("queued", StackerUtils.formatNumber(metrics.getQueued()))
+                        .add("completed", StackerUtils.formatNumber(metrics.getCompleted()))
+                        .add("dropped", StackerUtils.formatNumber(metrics.getDropped() + metrics.getCoalesced()))
+                        .add("caller", StackerUtils.formatNumber(metrics.getOverflowed()))
+                        .add("wait", String.format("%.2f", metrics.getAverageWaitTime() / 1_000_000D))
+                        .add("max", String.format("%.2f", metrics.getMaxWaitTime() / 1_000_000D))
+                        .add("run", String.format("%.2f", metrics.getAverageRunTime() / 1_000_000D)).build());
+            }
+        }
     }
 
     @Override
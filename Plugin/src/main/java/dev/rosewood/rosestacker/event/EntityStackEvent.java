@@ -6,7 +6,11 @@ import org.bukkit.event.HandlerList;
 import org.jetbrains.annotations.NotNull;
 
 /**
- * Called when the size of a StackedEntity increases
+ * Called when the size of a StackedEntity increases.
+ * <p>
+ * This event is usually called off the main thread, and stacks in different areas of a world may be merged in
+ * parallel. RoseStacker never calls listeners for two of these events at once, but other events and the main thread
+ * may run at the same time, so listeners must not touch the world or entities in ways that aren't thread safe.
  */
 public class EntityStackEvent extends StackEvent<StackedEntity> {
 
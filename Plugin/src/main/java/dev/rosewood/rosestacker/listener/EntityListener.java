@@ -10,6 +10,7 @@ import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
 import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
 import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.StackedItem;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
@@ -134,7 +135,7 @@ public class EntityListener implements Listener {
 
         // Delay stacking by 1 tick for spawn eggs due to an egg duplication issue
         if (event.getSpawnReason() == CreatureSpawnEvent.SpawnReason.SPAWNER_EGG) {
-            ThreadUtils.runSync(task);
+            ThreadUtils.runEntity(entity, task);
         } else {
             task.run();
         }
@@ -245,6 +246,12 @@ public class EntityListener implements Listener {
         if (this.stackManager.isWorldDisabled(entity.getWorld()))
             return;
 
+        // The entity was merged into another stack and is only waiting to be removed, killing it would duplicate its loot
+        if (this.stackManager.isPendingRemoval(entity)) {
+            event.setCancelled(true);
+            return;
+        }
+
         if (!this.stackManager.isEntityStackingEnabled())
             return;
 
@@ -257,14 +264,15 @@ public class EntityListener implements Listener {
 
         double damage = event.getFinalDamage();
 
-        List<LivingEntity> killedEntities = stackedEntity.getDataStorage().removeIf(internal -> {
+        List<LivingEntity> killedEntities = new ArrayList<>();
+        stackedEntity.runLocked(() -> killedEntities.addAll(stackedEntity.getDataStorage().removeIf(internal -> {
             if (internal.getHealth() - damage <= 0) {
                 return true; // Don't set the health below 0, as that will trigger the death event which we want to avoid
             } else {
                 internal.setHealth(internal.getHealth() - damage);
                 return false;
             }
-        });
+        })));
 
         // Only try dropping loot if something actually died
         if (!killedEntities.isEmpty()) {
@@ -305,6 +313,13 @@ public class EntityListener implements Listener {
         if (this.stackManager.isWorldDisabled(entity.getWorld()))
             return;
 
+        // Anything that still kills a merged entity before it is removed must not drop its loot a second time
+        if (event != null && this.stackManager.isPendingRemoval(entity)) {
+            event.getDrops().clear();
+            event.setDroppedExp(0);
+            return;
+        }
+
         if (!this.stackManager.isEntityStackingEnabled())
             return;
 
@@ -364,7 +379,7 @@ public class EntityListener implements Listener {
         };
 
         if (Setting.ENTITY_KILL_DELAY_NEXT_SPAWN.getBoolean()) {
-            ThreadUtils.runSync(task);
+            ThreadUtils.runRegion(entity.getLocation(), task);
         } else {
             task.run();
         }
@@ -428,7 +443,7 @@ public class EntityListener implements Listener {
 
             boolean aiDisabled = PersistentDataUtils.isAiDisabled((LivingEntity) event.getEntity());
             event.getEntity().remove();
-            ThreadUtils.runSync(() -> {
+            ThreadUtils.runRegion(transformedEntity.getLocation(), () -> {
                 this.stackManager.setEntityStackingTemporarilyDisabled(true);
                 LivingEntity newEntity = serialized.createEntity(transformedEntity.getLocation(), true, transformedEntity.getType());
                 if (aiDisabled)
@@ -451,9 +466,9 @@ public class EntityListener implements Listener {
                 PersistentDataUtils.removeEntityAi((LivingEntity) event.getTransformedEntity());
 
             if (event.getTransformReason() == TransformReason.LIGHTNING) { // Wait for lightning to disappear
-                ThreadUtils.runSyncDelayed(stackedEntity::decreaseStackSize, 20);
+                ThreadUtils.runRegionDelayed(event.getEntity().getLocation(), stackedEntity::decreaseStackSize, 20);
             } else {
-                ThreadUtils.runSync(stackedEntity::decreaseStackSize);
+                ThreadUtils.runRegion(event.getEntity().getLocation(), stackedEntity::decreaseStackSize);
             }
         }
     }
@@ -518,9 +533,9 @@ public class EntityListener implements Listener {
 
         List<ItemStack> drops = new ArrayList<>();
         stackManager.setEntityUnstackingTemporarilyDisabled(true);
-        ThreadUtils.runAsync(() -> {
+        ThreadUtils.runAsync(AsyncTaskKind.ENTITY_DATA, () -> {
             try {
-                stackedEntity.getDataStorage().forEachTransforming(internal -> {
+                stackedEntity.runLocked(() -> stackedEntity.getDataStorage().forEachTransforming(internal -> {
                     Sheep sheep = (Sheep) internal;
                     if (!sheep.isSheared() || stackManager.getEntityDataStorageType(sheep.getType()) == StackedEntityDataStorageType.SIMPLE) {
                         sheep.setSheared(true);
@@ -528,7 +543,7 @@ public class EntityListener implements Listener {
                         return true;
                     }
                     return false;
-                });
+                }));
 
                 Location location = sheepEntity.getLocation();
                 location.add(0, sheepEntity.getEyeHeight(), 0);
@@ -571,14 +586,14 @@ public class EntityListener implements Listener {
             return;
 
         AtomicInteger regrowRemaining = new AtomicInteger(regrowAmount);
-        ThreadUtils.runAsync(() -> stackedEntity.getDataStorage().forEachTransforming(internal -> {
+        ThreadUtils.runAsync(AsyncTaskKind.ENTITY_DATA, () -> stackedEntity.runLocked(() -> stackedEntity.getDataStorage().forEachTransforming(internal -> {
             Sheep sheep = (Sheep) internal;
             if (sheep.isSheared() && regrowRemaining.getAndDecrement() > 0) {
                 sheep.setSheared(false);
                 return true;
             }
             return false;
-        }));
+        })));
     }
 
 }
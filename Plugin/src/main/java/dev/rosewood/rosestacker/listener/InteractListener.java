@@ -132,13 +132,13 @@ public class InteractListener implements Listener {
         Player player = event.getPlayer();
         ItemStack itemStack = event.getHand() == EquipmentSlot.HAND ? player.getInventory().getItemInMainHand() : player.getInventory().getItemInOffHand();
         if (itemStack.getType() == Material.NAME_TAG) {
-            ThreadUtils.runSync(stackedEntity::updateDisplay);
+            ThreadUtils.runEntity(entity, stackedEntity::updateDisplay);
             return;
         } else if (itemStack.getType() == Material.WATER_BUCKET) {
             switch (entity.getType()) {
                 case COD, SALMON, PUFFERFISH, TROPICAL_FISH, AXOLOTL, TADPOLE -> {
                     if (stackedEntity.getStackSize() != 1)
-                        ThreadUtils.runSync(stackedEntity::decreaseStackSize);
+                        ThreadUtils.runEntity(entity, stackedEntity::decreaseStackSize);
                 }
             }
             return;
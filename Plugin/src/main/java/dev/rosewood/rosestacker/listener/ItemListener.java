@@ -67,6 +67,12 @@ public class ItemListener implements Listener {
         if (this.stackManager.isWorldDisabled(event.getEntity().getWorld()))
             return;
 
+        // The item was merged into another stack and is only waiting to be removed, picking it up would duplicate it
+        if (this.stackManager.isPendingRemoval(event.getItem())) {
+            event.setCancelled(true);
+            return;
+        }
+
         if (!this.stackManager.isItemStackingEnabled())
             return;
 
@@ -125,6 +131,11 @@ public class ItemListener implements Listener {
         if (this.stackManager.isWorldDisabled(event.getItem().getWorld()))
             return;
 
+        if (this.stackManager.isPendingRemoval(event.getItem())) {
+            event.setCancelled(true);
+            return;
+        }
+
         if (!this.stackManager.isItemStackingEnabled())
             return;
 
@@ -3,6 +3,7 @@ package dev.rosewood.rosestacker.listener;
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosegarden.utils.NMSUtil;
 import dev.rosewood.rosestacker.manager.StackManager;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
 import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
 import java.util.Arrays;
@@ -88,7 +89,7 @@ public class WorldListener implements Listener {
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        ThreadUtils.runAsync(this.stackManager::processNametags);
+        ThreadUtils.runAsync(AsyncTaskKind.NAMETAG, this.stackManager, this.stackManager::processNametags);
     }
 
 }
@@ -0,0 +1,22 @@
+package dev.rosewood.rosestacker.listener.paper;
+
+import dev.rosewood.rosestacker.manager.NametagManager;
+import io.papermc.paper.event.player.PlayerUntrackEntityEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+public class PaperEntityUntrackListener implements Listener {
+
+    private final NametagManager nametagManager;
+
+    public PaperEntityUntrackListener(NametagManager nametagManager) {
+        this.nametagManager = nametagManager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerUntrackEntity(PlayerUntrackEntityEvent event) {
+        this.nametagManager.untrack(event.getPlayer(), event.getEntity().getEntityId());
+    }
+
+}
@@ -4,16 +4,17 @@ import com.destroystokyo.paper.event.entity.PreCreatureSpawnEvent;
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosestacker.manager.ConfigurationManager;
 import dev.rosewood.rosestacker.manager.EntityCacheManager;
-import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
-import dev.rosewood.rosestacker.stack.StackedEntity;
+import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import org.bukkit.entity.Entity;
-import org.bukkit.entity.LivingEntity;
+import org.bukkit.Location;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.SpawnCategory;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -24,14 +25,14 @@ public class PaperPreCreatureSpawnListener implements Listener {
 
     private static final Map<String, SpawnCategory> SPAWN_CATEGORY_LOOKUP = Arrays.stream(SpawnCategory.values()).collect(Collectors.toMap(SpawnCategory::name, Function.identity()));
 
-    private final StackManager stackManager;
     private final EntityCacheManager entityCacheManager;
     private final StackSettingManager stackSettingManager;
+    private final Map<String, Set<EntityType>> spawnCategoryTypes;
 
     public PaperPreCreatureSpawnListener(RosePlugin rosePlugin) {
-        this.stackManager = rosePlugin.getManager(StackManager.class);
         this.entityCacheManager = rosePlugin.getManager(EntityCacheManager.class);
         this.stackSettingManager = rosePlugin.getManager(StackSettingManager.class);
+        this.spawnCategoryTypes = new ConcurrentHashMap<>();
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
@@ -43,22 +44,28 @@ public class PaperPreCreatureSpawnListener implements Listener {
         SpawnCategory spawnCategory = SPAWN_CATEGORY_LOOKUP.get(category);
         int limit = event.getSpawnLocation().getWorld().getSpawnLimit(spawnCategory);
 
-        int total = 0;
-        Collection<Entity> entities = this.entityCacheManager.getNearbyEntities(event.getSpawnLocation(), 16, x -> x.getSpawnCategory() == spawnCategory);
-        for (Entity entity : entities) {
-            LivingEntity livingEntity = (LivingEntity) entity;
-            StackedEntity stackedEntity = this.stackManager.getStackedEntity(livingEntity);
-            if (stackedEntity == null) {
-                total++;
-            } else {
-                total += stackedEntity.getStackSize();
-            }
+        Location location = event.getSpawnLocation();
+        int total = this.entityCacheManager.countNearby(location.getWorld(), location.getX(), location.getY(), location.getZ(), 16, this.getSpawnCategoryTypes(category), true);
+        if (total >= limit)
+            event.setCancelled(true);
+    }
 
-            if (total >= limit) {
-                event.setCancelled(true);
-                return;
+    /**
+     * Gets all entity types that belong to a spawn category so only their cached totals need to be read
+     *
+     * @param category The name of the spawn category
+     * @return the entity types in the spawn category
+     */
+    private Set<EntityType> getSpawnCategoryTypes(String category) {
+        return this.spawnCategoryTypes.computeIfAbsent(category, key -> {
+            Set<EntityType> entityTypes = EnumSet.noneOf(EntityType.class);
+            for (EntityType entityType : EntityType.values()) {
+                EntityStackSettings stackSettings = this.stackSettingManager.getEntityStackSettings(entityType);
+                if (stackSettings != null && key.equals(stackSettings.getEntityTypeData().spawnCategory()))
+                    entityTypes.add(entityType);
             }
-        }
+            return entityTypes;
+        });
     }
 
 }
@@ -22,7 +22,18 @@ public class ConfigurationManager extends AbstractConfigurationManager {
         NAMETAG_UPDATE_FREQUENCY("nametag-update-frequency", 30, "How often should we update stacked entity nametags?", "Values are in ticks, do not set lower than 1"),
         HOLOGRAM_UPDATE_FREQUENCY("hologram-update-frequency", 20, "How often should we update stacked block/spawner holograms?"),
         AUTOSAVE_FREQUENCY("autosave-frequency", 15, "How often should we autosave all loaded stack data?", "Value is measured in minutes, set to -1 to disable"),
-        ENTITY_RESCAN_FREQUENCY("entity-rescan-frequency", 1000, "How often should we scan the world for missed entities?", "Sometimes entities can spawn and be missed by the plugin for unknown reasons, this fixes that", "Values are in ticks, set to -1 to disable"),
+        ENTITY_RESCAN_FREQUENCY("entity-rescan-frequency", 1000, "How often should we scan the world for missed entities?", "Sometimes entities can spawn and be missed by the plugin for unknown reasons, this fixes that", "Each scan is spread evenly over this many ticks", "Values are in ticks, set to -1 to disable"),
+        ENTITY_RESCAN_MAX_CHUNKS_PER_TICK("entity-rescan-max-chunks-per-tick", -1, "How many chunks can be scanned for missed entities in a single tick?", "A scan held back by this limit takes longer than entity-rescan-frequency to finish", "Set to -1 to disable"),
+        ENTITY_CACHE_SAMPLE_FREQUENCY("entity-cache-sample-frequency", 20, "How often should the positions of cached entities be resampled?", "Every cached entity is checked once per this many ticks, spread evenly across each tick", "Lower values keep nearby entity lookups more accurate at the cost of performance", "Values are in ticks, do not set lower than 1"),
+        STACKING_WORKER_THREADS("stacking-worker-threads", -1, "How many threads should be used to stack entities?", "Each world is split into regions of 8x8 chunks that are stacked in parallel", "Set to -1 to use one less than the number of available processors, or 1 to stack each world on a single thread"),
+        STACK_PASS_TIME_BUDGET("stack-pass-time-budget", -1D, "How much time can a single entity or item stacking pass use before it stops?", "The next pass resumes where the last one stopped, so every stack is still checked in turn", "Values are in milliseconds, set to -1 to disable"),
+        STACK_PASS_MAX_STACKS("stack-pass-max-stacks", -1, "How many stacks can a single entity or item stacking pass check before it stops?", "The next pass resumes where the last one stopped, so every stack is still checked in turn", "Set to -1 to disable"),
+        STACK_DIRTY_ONLY("stack-dirty-only", false, "Should entity stacking passes only check stacks that have changed?", "A stack is checked when it is new, has moved, or has changed size, all other stacks are swept slowly in the background", "New stacks check for the stacks around them, so idle stacks still merge with anything that spawns nearby"),
+        STACK_DIRTY_MOVE_THRESHOLD("stack-dirty-move-threshold", 1D, "How far does a stack need to move before it is checked again?", "Only used if stack-dirty-only is enabled"),
+        STACK_DIRTY_SWEEP_PASSES("stack-dirty-sweep-passes", 20, "Over how many stacking passes should unchanged stacks be swept?", "Only used if stack-dirty-only is enabled"),
+        STACK_COMMIT_TIME_BUDGET("stack-commit-time-budget", 2D, "How much time can applying the results of a stacking pass use on the main thread each tick?", "Entity removals left over are applied on the next tick", "Values are in milliseconds, set to -1 to disable"),
+        ASYNC_WORKER_THREADS("async-worker-threads", -1, "How many threads should be used for async tasks such as loot calculation and spawner spawning?", "Set to -1 to use half of the available processors"),
+        ASYNC_QUEUE_SIZE("async-queue-size", 1024, "How many async tasks can wait to run at once?", "When full, spawner spawns and nametag updates are skipped and all other tasks run on the thread that started them"),
 
         GLOBAL_ENTITY_SETTINGS("global-entity-settings", null, "Global entity settings", "Changed values in entity_settings.yml will override these values"),
         ENTITY_STACKING_ENABLED("global-entity-settings.stacking-enabled", true, "Should entity stacking be enabled at all?"),
@@ -188,6 +199,8 @@ public class ConfigurationManager extends AbstractConfigurationManager {
         ENTITY_DYNAMIC_TAG_VIEW_RANGE_WALL_DETECTION_ENABLED("dynamic-tag-settings.entity-dynamic-tag-view-range-wall-detection-enabled", true, "Should entity tags be hidden if they are out of view?"),
         ITEM_DYNAMIC_TAG_VIEW_RANGE_WALL_DETECTION_ENABLED("dynamic-tag-settings.item-dynamic-tag-view-range-wall-detection-enabled", true, "Should item tags be hidden if they are out of view?"),
         BLOCK_DYNAMIC_TAG_VIEW_RANGE_WALL_DETECTION_ENABLED("dynamic-tag-settings.block-dynamic-tag-view-range-wall-detection-enabled", true, "Should block/spawner tags be hidden if they are out of view?"),
+        DYNAMIC_TAG_WALL_DETECTION_CACHE_DURATION("dynamic-tag-settings.wall-detection-cache-duration", 1000, "How long should wall detection results be reused for?", "A result is recalculated sooner if the player or the stack moves, or if a block changes between them", "Values are in milliseconds, set to 0 to disable the cache"),
+        DYNAMIC_TAG_WALL_DETECTION_CACHE_MOVE_THRESHOLD("dynamic-tag-settings.wall-detection-cache-move-threshold", 0.25, "How far can the player or the stack move before a cached wall detection result is recalculated?"),
 
         STACK_TOOL_SETTINGS("stack-tool-settings", null, "Settings that apply to the item given from '/rs stacktool'"),
         STACK_TOOL_MATERIAL("stack-tool-settings.material", Material.STICK.name(), "The material of the stacking tool"),
@@ -224,6 +237,14 @@ public class ConfigurationManager extends AbstractConfigurationManager {
         PERFORMANCE_TPS_TOGGLE("performance-settings.tps-toggle.enabled", false, "Should stacking be automatically disabled or enabled based on server TPS?", "Stacks created during periods of low TPS will remain stacked"),
         PERFORMANCE_TPS_ENABLE_BELOW("performance-settings.tps-toggle.enable-below", 16D, "When should we enable the stacking?", "Should be lower than re-enable-above. Stacking will remain enabled until disable-above is reached"),
         PERFORMANCE_TPS_DISABLE_ABOVE("performance-settings.tps-toggle.disable-above", 18D, "When should we disable the stacking?"),
+        PERFORMANCE_MSPT_CONTROLLER("performance-settings.mspt-controller.enabled", false, "Should stacking be scaled back gradually as the server's tick times rise?", "The values below are reached at full load, and scaled between no change and them as the load rises"),
+        PERFORMANCE_MSPT_CONTROLLER_LOW_MSPT("performance-settings.mspt-controller.low-mspt", 35D, "At what MSPT should the controller start scaling back?"),
+        PERFORMANCE_MSPT_CONTROLLER_HIGH_MSPT("performance-settings.mspt-controller.high-mspt", 50D, "At what MSPT is the server at full load?"),
+        PERFORMANCE_MSPT_CONTROLLER_SMOOTHING("performance-settings.mspt-controller.smoothing", 0.25D, "How quickly should the controller react to changes in MSPT?", "Values are between 0 and 1, lower values react slower but ignore short spikes"),
+        PERFORMANCE_MSPT_CONTROLLER_MAX_STACK_INTERVAL_MULTIPLIER("performance-settings.mspt-controller.max-stack-interval-multiplier", 2D, "How many times longer should the wait between stacking passes be at full load?"),
+        PERFORMANCE_MSPT_CONTROLLER_MAX_TAG_INTERVAL_MULTIPLIER("performance-settings.mspt-controller.max-tag-interval-multiplier", 4D, "How many times longer should the wait between nametag and hologram updates be at full load?"),
+        PERFORMANCE_MSPT_CONTROLLER_MAX_MERGE_RADIUS_MULTIPLIER("performance-settings.mspt-controller.max-merge-radius-multiplier", 1.5D, "How much should merge radiuses be multiplied by at full load?", "Larger radiuses stack more entities together, leaving fewer entities for the server to tick"),
+        PERFORMANCE_MSPT_CONTROLLER_MIN_STACKS_PER_PASS("performance-settings.mspt-controller.min-stacks-per-pass", 250, "How many stacks can a single stacking pass check at full load?", "Stacks not checked are picked up by the next pass", "Set to -1 to disable"),
         ;
 
         private final String key;
@@ -268,10 +289,80 @@ public class ConfigurationManager extends AbstractConfigurationManager {
         }
     }
 
+    private static volatile SettingsSnapshot snapshot;
+
     public ConfigurationManager(RosePlugin rosePlugin) {
         super(rosePlugin, Setting.class);
     }
 
+    @Override
+    public void reload() {
+        super.reload();
+
+        // Swap in the new values all at once so hot paths never see a mix of old and new settings
+        snapshot = SettingsSnapshot.load();
+    }
+
+    /**
+     * @return the settings read by hot paths, as of the last reload
+     */
+    public static SettingsSnapshot getSnapshot() {
+        SettingsSnapshot settings = snapshot;
+        if (settings == null)
+            snapshot = settings = SettingsSnapshot.load();
+        return settings;
+    }
+
+    /**
+     * An immutable copy of the settings read in hot paths such as stacking passes and spawner ticks.
+     * These would otherwise go through a {@link Setting} lookup every time they are read.
+     */
+    public record SettingsSnapshot(boolean entityMergeEntireChunk,
+                                   boolean entityMinStackCountOnlyIndividuals,
+                                   boolean entityRequireLineOfSight,
+                                   boolean entityOnlyStackOnGround,
+                                   boolean entityDontStackIfInWater,
+                                   boolean entityDontStackIfLeashed,
+                                   boolean entityDontStackIfInvulnerable,
+                                   boolean entityDontStackCustomNamed,
+                                   boolean entityDontStackIfHasEquipment,
+                                   boolean entityDontStackIfActiveRaider,
+                                   boolean entityStackFlyingDownwards,
+                                   double itemMergeRadius,
+                                   boolean itemResetDespawnTimerOnMerge,
+                                   long stackPassTimeBudget,
+                                   int stackPassMaxStacks,
+                                   boolean spawnerDeactivateWhenPowered,
+                                   int spawnerPoweredCheckFrequency,
+                                   int spawnerPlayerCheckFrequency,
+                                   boolean spawnerUseVerticalSpawnRange) {
+
+        private static SettingsSnapshot load() {
+            return new SettingsSnapshot(
+                    Setting.ENTITY_MERGE_ENTIRE_CHUNK.getBoolean(),
+                    Setting.ENTITY_MIN_STACK_COUNT_ONLY_INDIVIDUALS.getBoolean(),
+                    Setting.ENTITY_REQUIRE_LINE_OF_SIGHT.getBoolean(),
+                    Setting.ENTITY_ONLY_STACK_ON_GROUND.getBoolean(),
+                    Setting.ENTITY_DONT_STACK_IF_IN_WATER.getBoolean(),
+                    Setting.ENTITY_DONT_STACK_IF_LEASHED.getBoolean(),
+                    Setting.ENTITY_DONT_STACK_IF_INVULNERABLE.getBoolean(),
+                    Setting.ENTITY_DONT_STACK_CUSTOM_NAMED.getBoolean(),
+                    Setting.ENTITY_DONT_STACK_IF_HAS_EQUIPMENT.getBoolean(),
+                    Setting.ENTITY_DONT_STACK_IF_ACTIVE_RAIDER.getBoolean(),
+                    Setting.ENTITY_STACK_FLYING_DOWNWARDS.getBoolean(),
+                    Setting.ITEM_MERGE_RADIUS.getDouble(),
+                    Setting.ITEM_RESET_DESPAWN_TIMER_ON_MERGE.getBoolean(),
+                    (long) (Setting.STACK_PASS_TIME_BUDGET.getDouble() * 1_000_000),
+                    Setting.STACK_PASS_MAX_STACKS.getInt(),
+                    Setting.SPAWNER_DEACTIVATE_WHEN_POWERED.getBoolean(),
+                    Math.max(1, Setting.SPAWNER_POWERED_CHECK_FREQUENCY.getInt()),
+                    Math.max(1, Setting.SPAWNER_PLAYER_CHECK_FREQUENCY.getInt()),
+                    Setting.SPAWNER_USE_VERTICAL_SPAWN_RANGE.getBoolean()
+            );
+        }
+
+    }
+
     @Override
     protected String[] getHeader() {
         return new String[]{
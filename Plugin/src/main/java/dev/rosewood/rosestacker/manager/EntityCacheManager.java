@@ -2,48 +2,103 @@ package dev.rosewood.rosestacker.manager;
 
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosegarden.manager.Manager;
+import dev.rosewood.rosestacker.cache.ChunkEntities;
+import dev.rosewood.rosestacker.cache.ChunkMap;
+import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
+import dev.rosewood.rosestacker.scheduler.StackerTask;
+import dev.rosewood.rosestacker.stack.Stack;
+import dev.rosewood.rosestacker.stack.StackSnapshot;
+import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.StackingThread;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
-import org.bukkit.scheduler.BukkitTask;
-import org.bukkit.util.BoundingBox;
+import org.bukkit.entity.Item;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntitySpawnEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 
-public class EntityCacheManager extends Manager {
+/**
+ * Keeps an incrementally updated index of entities by chunk.
+ * Entities are added when they spawn or their chunk loads, removed when they die or their chunk unloads,
+ * and a small slice of the tracked entities is resampled every tick to follow entities that move between chunks.
+ */
+public class EntityCacheManager extends Manager implements Listener {
 
-    private final Map<ChunkLocation, Collection<Entity>> entityCache;
-    private BukkitTask refreshTask;
+    private final Map<UUID, ChunkMap<ChunkEntities>> entityCache;
+    private final Map<Entity, CacheEntry> entityLocations;
+    private final Location sampleLocation;
+    private final ThreadLocal<Location> queryLocation;
+    private Iterator<Map.Entry<Entity, CacheEntry>> sampleIterator;
+    private StackerTask sampleTask;
+    private long sampleFrequency;
 
     public EntityCacheManager(RosePlugin rosePlugin) {
         super(rosePlugin);
         this.entityCache = new ConcurrentHashMap<>();
+        this.entityLocations = new ConcurrentHashMap<>();
+        this.sampleLocation = new Location(null, 0, 0, 0);
+        this.queryLocation = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+        Bukkit.getPluginManager().registerEvents(this, this.rosePlugin);
     }
 
     @Override
     public void reload() {
-        this.refreshTask = Bukkit.getScheduler().runTaskTimer(this.rosePlugin, this::refresh, 5L, 60L);
+        this.sampleFrequency = Math.max(1, Setting.ENTITY_CACHE_SAMPLE_FREQUENCY.getLong());
+        this.sampleTask = ThreadUtils.getScheduler().runGlobalTimer(this::sampleEntities, 5L, 1L);
     }
 
     @Override
     public void disable() {
         this.entityCache.clear();
+        this.entityLocations.clear();
+        this.sampleIterator = null;
 
-        if (this.refreshTask != null) {
-            this.refreshTask.cancel();
-            this.refreshTask = null;
+        if (this.sampleTask != null) {
+            this.sampleTask.cancel();
+            this.sampleTask = null;
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntitySpawn(EntitySpawnEvent event) {
+        Entity entity = event.getEntity();
+        if (!this.rosePlugin.getManager(StackManager.class).isWorldDisabled(entity.getWorld()))
+            this.preCacheEntity(entity);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityDeath(EntityDeathEvent event) {
+        this.removeEntity(event.getEntity());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        ChunkMap<ChunkEntities> chunks = this.entityCache.remove(event.getWorld().getUID());
+        if (chunks != null)
+            chunks.forEach((key, entities) -> entities.forEach(this.entityLocations::remove));
+    }
+
     /**
      * Gets nearby entities from cache
      *
@@ -53,38 +108,94 @@ public class EntityCacheManager extends Manager {
      * @return A Set of nearby entities
      */
     public Collection<Entity> getNearbyEntities(Location center, double radius, Predicate<Entity> predicate) {
-        List<Entity> nearbyEntities = new ArrayList<>();
-        World world = center.getWorld();
-        if (world == null)
-            return nearbyEntities;
+        return this.getNearbyEntities(center, radius, ChunkEntities::forEach, predicate);
+    }
 
-        BoundingBox boundingBox = new BoundingBox(
-                center.getX() - radius,
-                center.getY() - radius,
-                center.getZ() - radius,
-                center.getX() + radius,
-                center.getY() + radius,
-                center.getZ() + radius
-        );
-
-        int minX = (int) boundingBox.getMinX() >> 4;
-        int maxX = (int) boundingBox.getMaxX() >> 4;
-        int minZ = (int) boundingBox.getMinZ() >> 4;
-        int maxZ = (int) boundingBox.getMaxZ() >> 4;
-
-        for (int x = minX; x <= maxX; x++) {
-            for (int z = minZ; z <= maxZ; z++) {
-                Collection<Entity> entities = this.entityCache.get(new ChunkLocation(world.getName(), x, z));
-                if (entities != null)
-                    nearbyEntities.addAll(entities);
-            }
-        }
+    /**
+     * Gets nearby entities of a single type from cache, only entities of that type are visited
+     *
+     * @param center The center of the area to check
+     * @param radius The radius to check around
+     * @param entityType The type of entity to get
+     * @param predicate Conditions to be met
+     * @return A Set of nearby entities
+     */
+    public Collection<Entity> getNearbyEntities(Location center, double radius, EntityType entityType, Predicate<Entity> predicate) {
+        return this.getNearbyEntities(center, radius, (chunkEntities, visitor) -> chunkEntities.get(entityType).forEach(visitor), predicate);
+    }
 
-        return nearbyEntities.stream()
-                .filter(Entity::isValid)
-                .filter(x -> boundingBox.contains(x.getLocation().toVector()))
-                .filter(predicate)
-                .collect(Collectors.toSet());
+    /**
+     * Gets nearby entities of any of the given types from cache, only entities of those types are visited
+     *
+     * @param center The center of the area to check
+     * @param radius The radius to check around
+     * @param entityTypes The types of entity to get
+     * @param predicate Conditions to be met
+     * @return A Set of nearby entities
+     */
+    public Collection<Entity> getNearbyEntities(Location center, double radius, Collection<EntityType> entityTypes, Predicate<Entity> predicate) {
+        return this.getNearbyEntities(center, radius, (chunkEntities, visitor) -> {
+            for (EntityType entityType : entityTypes)
+                chunkEntities.get(entityType).forEach(visitor);
+        }, predicate);
+    }
+
+    /**
+     * Gets nearby entities of a single type from cache into a reusable buffer.
+     * The buffer is cleared before any entities are added to it.
+     *
+     * @param world The world to check in
+     * @param x The x coordinate of the center of the area to check
+     * @param y The y coordinate of the center of the area to check
+     * @param z The z coordinate of the center of the area to check
+     * @param radius The radius to check around
+     * @param entityType The type of entity to get
+     * @param buffer The buffer to fill
+     * @return the buffer
+     */
+    public <T extends Collection<? super Entity>> T getNearbyEntities(World world, double x, double y, double z, double radius, EntityType entityType, T buffer) {
+        buffer.clear();
+        this.forEachNearby(world, x, y, z, radius, entityType, buffer::add);
+        return buffer;
+    }
+
+    /**
+     * Calls the consumer with every valid cached entity of a type within the radius of a point.
+     * No intermediate collections are created, so this is preferred for hot paths.
+     *
+     * @param world The world to check in
+     * @param x The x coordinate of the center of the area to check
+     * @param y The y coordinate of the center of the area to check
+     * @param z The z coordinate of the center of the area to check
+     * @param radius The radius to check around
+     * @param entityType The type of entity to visit
+     * @param consumer The consumer to call for each entity
+     */
+    public void forEachNearby(World world, double x, double y, double z, double radius, EntityType entityType, Consumer<Entity> consumer) {
+        this.visitNearby(world, x, y, z, radius, (chunkEntities, visitor) -> chunkEntities.get(entityType).forEach(visitor), consumer);
+    }
+
+    /**
+     * Calls the consumer with every valid cached entity of a type in a chunk
+     *
+     * @param world The world of the chunk
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     * @param entityType The type of entity to visit
+     * @param consumer The consumer to call for each entity
+     */
+    public void forEachInChunk(World world, int chunkX, int chunkZ, EntityType entityType, Consumer<Entity> consumer) {
+        ChunkMap<ChunkEntities> chunks = this.entityCache.get(world.getUID());
+        if (chunks == null)
+            return;
+
+        ChunkEntities chunkEntities = chunks.get(ChunkMap.key(chunkX, chunkZ));
+        if (chunkEntities == null)
+            return;
+
+        for (Entity entity : chunkEntities.get(entityType))
+            if (entity.isValid())
+                consumer.accept(entity);
     }
 
     /**
@@ -95,58 +206,352 @@ public class EntityCacheManager extends Manager {
      * @return A Set of entities in the chunk
      */
     public Collection<Entity> getEntitiesInChunk(Location location, Predicate<Entity> predicate) {
+        ChunkEntities chunkEntities = this.getChunkEntities(location);
+        if (chunkEntities == null)
+            return new ArrayList<>();
+
+        Set<Entity> entities = new HashSet<>();
+        chunkEntities.forEach(entity -> {
+            if (entity.isValid() && predicate.test(entity))
+                entities.add(entity);
+        });
+        return entities;
+    }
+
+    /**
+     * Gets entities of a single type in the Chunk of a Location, only entities of that type are visited
+     *
+     * @param location The Location of the Chunk
+     * @param entityType The type of entity to get
+     * @param predicate Conditions to be met
+     * @return A Set of entities in the chunk
+     */
+    public Collection<Entity> getEntitiesInChunk(Location location, EntityType entityType, Predicate<Entity> predicate) {
         World world = location.getWorld();
         if (world == null)
             return new ArrayList<>();
 
-        Collection<Entity> entities = this.entityCache.get(new ChunkLocation(world.getName(), location.getBlockX() >> 4, location.getBlockZ() >> 4));
-        if (entities == null)
-            return new ArrayList<>();
+        Set<Entity> entities = new HashSet<>();
+        this.forEachInChunk(world, location.getBlockX() >> 4, location.getBlockZ() >> 4, entityType, entity -> {
+            if (predicate.test(entity))
+                entities.add(entity);
+        });
+        return entities;
+    }
+
+    private Collection<Entity> getNearbyEntities(Location center, double radius, BiConsumer<ChunkEntities, Consumer<Entity>> bucketVisitor, Predicate<Entity> predicate) {
+        Set<Entity> nearbyEntities = new HashSet<>();
+        World world = center.getWorld();
+        if (world == null)
+            return nearbyEntities;
 
-        return entities.stream()
-                .filter(Entity::isValid)
-                .filter(predicate)
-                .collect(Collectors.toSet());
+        this.visitNearby(world, center.getX(), center.getY(), center.getZ(), radius, bucketVisitor, entity -> {
+            if (predicate.test(entity))
+                nearbyEntities.add(entity);
+        });
+        return nearbyEntities;
     }
 
     /**
-     * Forces an entry into the cache, used for newly spawned entities
+     * Visits every chunk overlapping the area around a point, passing valid entities within the area to the consumer
+     *
+     * @param world The world to check in
+     * @param x The x coordinate of the center of the area to check
+     * @param y The y coordinate of the center of the area to check
+     * @param z The z coordinate of the center of the area to check
+     * @param radius The radius to check around
+     * @param bucketVisitor Passes the entities of the relevant buckets in a chunk to the given visitor
+     * @param consumer The consumer to call for each entity in the area
+     */
+    private void visitNearby(World world, double x, double y, double z, double radius, BiConsumer<ChunkEntities, Consumer<Entity>> bucketVisitor, Consumer<Entity> consumer) {
+        ChunkMap<ChunkEntities> chunks = this.entityCache.get(world.getUID());
+        if (chunks == null)
+            return;
+
+        double minX = x - radius, minY = y - radius, minZ = z - radius;
+        double maxX = x + radius, maxY = y + radius, maxZ = z + radius;
+
+        // Stacked neighbours are read from the row of their latest snapshot so async passes don't touch live entities,
+        // only entities that aren't stacked or haven't been captured yet are read from the entity itself
+        StackingThread stackingThread = this.rosePlugin.getManager(StackManager.class).getStackingThread(world);
+
+        // Queries can come from any thread, so each thread gets its own location to read into
+        Location location = this.queryLocation.get();
+        Consumer<Entity> visitor = entity -> {
+            Stack<?> stack = stackingThread == null ? null : this.getStack(stackingThread, entity);
+            if (stack != null) {
+                if (!StackSnapshot.isValid(stack, entity))
+                    return;
+
+                StackSnapshot.getLocation(stack, entity, location);
+            } else {
+                if (!entity.isValid())
+                    return;
+
+                entity.getLocation(location);
+            }
+
+            double entityX = location.getX(), entityY = location.getY(), entityZ = location.getZ();
+            if (entityX >= minX && entityX < maxX && entityY >= minY && entityY < maxY && entityZ >= minZ && entityZ < maxZ)
+                consumer.accept(entity);
+        };
+
+        int minChunkX = Location.locToBlock(minX) >> 4;
+        int maxChunkX = Location.locToBlock(maxX) >> 4;
+        int minChunkZ = Location.locToBlock(minZ) >> 4;
+        int maxChunkZ = Location.locToBlock(maxZ) >> 4;
+
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                ChunkEntities chunkEntities = chunks.get(ChunkMap.key(chunkX, chunkZ));
+                if (chunkEntities != null)
+                    bucketVisitor.accept(chunkEntities, visitor);
+            }
+        }
+    }
+
+    private Stack<?> getStack(StackingThread stackingThread, Entity entity) {
+        if (entity instanceof Item item)
+            return stackingThread.getStackedItem(item);
+        if (entity instanceof LivingEntity livingEntity)
+            return stackingThread.getStackedEntity(livingEntity);
+        return null;
+    }
+
+    private ChunkEntities getChunkEntities(Location location) {
+        World world = location.getWorld();
+        if (world == null)
+            return null;
+
+        ChunkMap<ChunkEntities> chunks = this.entityCache.get(world.getUID());
+        if (chunks == null)
+            return null;
+
+        return chunks.get(ChunkMap.key(location.getBlockX() >> 4, location.getBlockZ() >> 4));
+    }
+
+    /**
+     * Counts the cached entities of the given types in every chunk section overlapping the area around a point.
+     * Only whole chunk sections are counted, so entities slightly outside of the radius may be included.
+     *
+     * @param world The world to check in
+     * @param x The x coordinate of the center of the area to check
+     * @param y The y coordinate of the center of the area to check
+     * @param z The z coordinate of the center of the area to check
+     * @param radius The radius to check around
+     * @param entityTypes The types of entity to count
+     * @param countStacks true to count the full size of each stack, false to count each stack as one
+     * @return the number of entities in the area
+     */
+    public int countNearby(World world, double x, double y, double z, double radius, Collection<EntityType> entityTypes, boolean countStacks) {
+        ChunkMap<ChunkEntities> chunks = this.entityCache.get(world.getUID());
+        if (chunks == null)
+            return 0;
+
+        int minChunkX = Location.locToBlock(x - radius) >> 4;
+        int maxChunkX = Location.locToBlock(x + radius) >> 4;
+        int minChunkZ = Location.locToBlock(z - radius) >> 4;
+        int maxChunkZ = Location.locToBlock(z + radius) >> 4;
+        int minSection = Location.locToBlock(y - radius) >> 4;
+        int maxSection = Location.locToBlock(y + radius) >> 4;
+
+        int total = 0;
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                ChunkEntities chunkEntities = chunks.get(ChunkMap.key(chunkX, chunkZ));
+                if (chunkEntities == null)
+                    continue;
+
+                for (EntityType entityType : entityTypes)
+                    total += countStacks ? chunkEntities.countStacked(entityType, minSection, maxSection) : chunkEntities.count(entityType, minSection, maxSection);
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Forces an entry into the cache, used for newly spawned entities.
+     * If the entity is already cached, its chunk will be updated instead.
      *
      * @param entity The entity to cache
      */
     public void preCacheEntity(Entity entity) {
-        Location location = entity.getLocation();
-        ChunkLocation chunkLocation = new ChunkLocation(entity.getWorld().getName(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
-        Collection<Entity> entities = this.entityCache.get(chunkLocation);
-        if (entities == null) {
-            entities = new LinkedBlockingDeque<>();
-            this.entityCache.put(chunkLocation, entities);
+        if (!isCacheable(entity))
+            return;
+
+        Location location = entity.getLocation(this.sampleLocation);
+        this.moveEntity(entity, entity.getWorld().getUID(), ChunkMap.key(location.getBlockX() >> 4, location.getBlockZ() >> 4), location.getBlockY() >> 4);
+    }
+
+    /**
+     * Removes an entity from the cache, used for entities that have died or been merged into a stack
+     *
+     * @param entity The entity to remove
+     */
+    public void removeEntity(Entity entity) {
+        this.entityLocations.computeIfPresent(entity, (key, cacheEntry) -> {
+            this.removeFromChunk(entity, cacheEntry);
+            return null;
+        });
+    }
+
+    /**
+     * Updates the stack size an entity counts towards the totals of its chunk.
+     * Does nothing if the entity is not cached.
+     *
+     * @param entity The entity whose stack size changed
+     * @param stackSize The new stack size
+     */
+    public void updateStackSize(Entity entity, int stackSize) {
+        this.entityLocations.computeIfPresent(entity, (key, cacheEntry) -> {
+            if (cacheEntry.stackSize() == stackSize)
+                return cacheEntry;
+
+            ChunkMap<ChunkEntities> chunks = this.entityCache.get(cacheEntry.world());
+            if (chunks != null) {
+                synchronized (chunks) {
+                    ChunkEntities chunkEntities = chunks.get(cacheEntry.chunkKey());
+                    if (chunkEntities != null)
+                        chunkEntities.adjustStackSize(entity, cacheEntry.section(), stackSize - cacheEntry.stackSize());
+                }
+            }
+
+            return new CacheEntry(cacheEntry.world(), cacheEntry.chunkKey(), cacheEntry.section(), stackSize);
+        });
+    }
+
+    /**
+     * Caches all entities that were loaded with a chunk
+     *
+     * @param chunk The chunk that was loaded
+     * @param entities The entities that were loaded with the chunk
+     */
+    public void loadChunkEntities(Chunk chunk, Collection<Entity> entities) {
+        for (Entity entity : entities)
+            this.preCacheEntity(entity);
+    }
+
+    /**
+     * Removes all entities that were unloaded with a chunk from the cache
+     *
+     * @param chunk The chunk that was unloaded
+     * @param entities The entities that were unloaded with the chunk
+     */
+    public void unloadChunkEntities(Chunk chunk, Collection<Entity> entities) {
+        for (Entity entity : entities)
+            this.removeEntity(entity);
+
+        ChunkMap<ChunkEntities> chunks = this.entityCache.get(chunk.getWorld().getUID());
+        if (chunks == null)
+            return;
+
+        ChunkEntities remaining;
+        synchronized (chunks) {
+            remaining = chunks.remove(ChunkMap.key(chunk.getX(), chunk.getZ()));
+        }
+
+        if (remaining != null)
+            remaining.forEach(this.entityLocations::remove);
+    }
+
+    /**
+     * Resamples a slice of the cached entities so that each one is checked once every sample-frequency ticks.
+     * Entities that are no longer valid are removed, entities that have changed chunks or chunk sections are moved,
+     * and stack sizes that changed without being reported are corrected.
+     */
+    private void sampleEntities() {
+        StackManager stackManager = this.rosePlugin.getManager(StackManager.class);
+        int budget = (int) Math.ceil(this.entityLocations.size() / (double) this.sampleFrequency);
+        while (budget-- > 0) {
+            if (this.sampleIterator == null || !this.sampleIterator.hasNext()) {
+                this.sampleIterator = this.entityLocations.entrySet().iterator();
+                if (!this.sampleIterator.hasNext())
+                    return;
+            }
+
+            Map.Entry<Entity, CacheEntry> entry = this.sampleIterator.next();
+            Entity entity = entry.getKey();
+            if (!entity.isValid()) {
+                this.removeEntity(entity);
+                continue;
+            }
+
+            Location location = entity.getLocation(this.sampleLocation);
+            CacheEntry previous = entry.getValue();
+            long chunkKey = ChunkMap.key(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+            int section = location.getBlockY() >> 4;
+            UUID worldUUID = entity.getWorld().getUID();
+            if (previous.chunkKey() != chunkKey || previous.section() != section || !previous.world().equals(worldUUID))
+                this.moveEntity(entity, worldUUID, chunkKey, section);
+
+            int stackSize = getStackSize(stackManager, entity);
+            if (previous.stackSize() != stackSize)
+                this.updateStackSize(entity, stackSize);
         }
-        entities.add(entity);
-    }
-
-    private void refresh() {
-        synchronized (this.entityCache) {
-            this.entityCache.clear();
-            for (StackingThread stackingThread : this.rosePlugin.getManager(StackManager.class).getStackingThreads().values()) {
-                World world = stackingThread.getTargetWorld();
-                for (Entity entity : world.getEntities()) {
-                    EntityType type = entity.getType();
-                    if (type != EntityType.DROPPED_ITEM && (!type.isAlive() || type == EntityType.PLAYER || type == EntityType.ARMOR_STAND))
-                        continue;
-
-                    ChunkLocation chunkLocation = new ChunkLocation(world.getName(), entity.getLocation().getBlockX() >> 4, entity.getLocation().getBlockZ() >> 4);
-                    Collection<Entity> entities = this.entityCache.get(chunkLocation);
-                    if (entities == null) {
-                        entities = new LinkedBlockingDeque<>();
-                        this.entityCache.put(chunkLocation, entities);
+    }
+
+    private void moveEntity(Entity entity, UUID world, long chunkKey, int section) {
+        this.entityLocations.compute(entity, (key, previous) -> {
+            int stackSize;
+            if (previous != null) {
+                if (previous.chunkKey() == chunkKey && previous.world().equals(world)) {
+                    if (previous.section() == section)
+                        return previous;
+
+                    // Still in the same chunk, only the section totals need to follow it
+                    ChunkMap<ChunkEntities> chunks = this.entityCache.get(world);
+                    if (chunks != null) {
+                        synchronized (chunks) {
+                            ChunkEntities chunkEntities = chunks.get(chunkKey);
+                            if (chunkEntities != null)
+                                chunkEntities.moveSection(entity, previous.section(), section, previous.stackSize());
+                        }
                     }
-                    entities.add(entity);
+                    return new CacheEntry(world, chunkKey, section, previous.stackSize());
                 }
+
+                this.removeFromChunk(entity, previous);
+                stackSize = previous.stackSize();
+            } else {
+                stackSize = getStackSize(this.rosePlugin.getManager(StackManager.class), entity);
+            }
+
+            ChunkMap<ChunkEntities> chunks = this.entityCache.computeIfAbsent(world, x -> new ChunkMap<>());
+            synchronized (chunks) {
+                chunks.computeIfAbsent(chunkKey, x -> new ChunkEntities()).add(entity, section, stackSize);
             }
+
+            return new CacheEntry(world, chunkKey, section, stackSize);
+        });
+    }
+
+    private void removeFromChunk(Entity entity, CacheEntry cacheEntry) {
+        ChunkMap<ChunkEntities> chunks = this.entityCache.get(cacheEntry.world());
+        if (chunks == null)
+            return;
+
+        // Cells are only added to and removed from while holding the lock, so an emptied cell can't be refilled while it's being dropped
+        synchronized (chunks) {
+            ChunkEntities chunkEntities = chunks.get(cacheEntry.chunkKey());
+            if (chunkEntities != null && chunkEntities.remove(entity, cacheEntry.section(), cacheEntry.stackSize()) && chunkEntities.isEmpty())
+                chunks.remove(cacheEntry.chunkKey());
         }
     }
 
-    private record ChunkLocation(String world, int x, int z) { }
+    private static int getStackSize(StackManager stackManager, Entity entity) {
+        if (!(entity instanceof LivingEntity livingEntity))
+            return 1;
+
+        StackedEntity stackedEntity = stackManager.getStackedEntity(livingEntity);
+        return stackedEntity == null ? 1 : stackedEntity.getStackSize();
+    }
+
+    private static boolean isCacheable(Entity entity) {
+        EntityType type = entity.getType();
+        return type == EntityType.DROPPED_ITEM || (type.isAlive() && type != EntityType.PLAYER && type != EntityType.ARMOR_STAND);
+    }
+
+    private record CacheEntry(UUID world, long chunkKey, int section, int stackSize) { }
 
 }
@@ -2,14 +2,21 @@ package dev.rosewood.rosestacker.manager;
 
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosegarden.manager.Manager;
+import dev.rosewood.rosestacker.cache.ChunkMap;
 import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.nms.hologram.Hologram;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
+import dev.rosewood.rosestacker.scheduler.StackerTask;
+import dev.rosewood.rosestacker.stack.PerformanceController;
+import dev.rosewood.rosestacker.stack.PerformanceController.Throttle;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -18,20 +25,30 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
-import org.bukkit.scheduler.BukkitTask;
 
+/**
+ * Manages the packet holograms displayed above stacks.
+ * Holograms are indexed by world and chunk, so each player only checks the holograms in chunks within render distance of them.
+ * The holograms a player is watching are remembered so they can be removed once the player leaves their range.
+ */
 public class HologramManager extends Manager implements Listener {
 
     private final Map<Location, Hologram> holograms;
+    private final Map<UUID, ChunkMap<Map<Location, Hologram>>> hologramChunks;
+    private final Map<UUID, Set<Hologram>> watchedHolograms;
     private final NMSHandler nmsHandler;
-    private BukkitTask watcherTask;
+    private LineOfSightCacheManager lineOfSightCacheManager;
+    private StackerTask watcherTask;
     private double renderDistanceSqrd;
+    private int renderChunkRadius;
     private boolean hideThroughWalls;
 
     public HologramManager(RosePlugin rosePlugin) {
         super(rosePlugin);
 
         this.holograms = new ConcurrentHashMap<>();
+        this.hologramChunks = new ConcurrentHashMap<>();
+        this.watchedHolograms = new ConcurrentHashMap<>();
         this.nmsHandler = NMSAdapter.getHandler();
 
         Bukkit.getPluginManager().registerEvents(this, this.rosePlugin);
@@ -39,8 +56,15 @@ public class HologramManager extends Manager implements Listener {
 
     @Override
     public void reload() {
-        this.watcherTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::updateWatchers, 0L, Setting.HOLOGRAM_UPDATE_FREQUENCY.getLong());
+        this.lineOfSightCacheManager = this.rosePlugin.getManager(LineOfSightCacheManager.class);
+        Throttle throttle = new Throttle();
+        this.watcherTask = ThreadUtils.getScheduler().runAsyncTimer(() -> {
+            PerformanceController controller = this.rosePlugin.getManager(StackManager.class).getPerformanceController();
+            if (controller == null || throttle.tryRun(controller.getTagIntervalMultiplier()))
+                this.updateWatchers();
+        }, 0L, Setting.HOLOGRAM_UPDATE_FREQUENCY.getLong());
         this.renderDistanceSqrd = Setting.BLOCK_DYNAMIC_TAG_VIEW_RANGE.getDouble() * Setting.BLOCK_DYNAMIC_TAG_VIEW_RANGE.getDouble();
+        this.renderChunkRadius = (int) Math.ceil(Setting.BLOCK_DYNAMIC_TAG_VIEW_RANGE.getDouble() / 16);
         this.hideThroughWalls = Setting.BLOCK_DYNAMIC_TAG_VIEW_RANGE_WALL_DETECTION_ENABLED.getBoolean();
     }
 
@@ -53,45 +77,84 @@ public class HologramManager extends Manager implements Listener {
 
         this.holograms.values().forEach(Hologram::delete);
         this.holograms.clear();
+        this.hologramChunks.clear();
+        this.watchedHolograms.clear();
     }
 
     private void updateWatchers() {
         Collection<? extends Player> players = Bukkit.getOnlinePlayers();
-        for (Player player : players)
-            for (Hologram hologram : this.holograms.values())
-                this.updateWatcher(player, hologram);
+        this.nmsHandler.beginPacketBatch();
+        try {
+            for (Player player : players)
+                this.updateWatchers(player);
+        } finally {
+            this.nmsHandler.flushPacketBatch();
+        }
     }
 
-    private void updateWatcher(Player player, Hologram hologram) {
-        if (this.isPlayerInRange(player, hologram.getLocation())) {
+    /**
+     * Updates the holograms a player is watching.
+     * Holograms the player was watching are removed if they went out of range or were deleted,
+     * then the holograms in chunks within render distance of the player are checked.
+     *
+     * @param player The player to update
+     */
+    private void updateWatchers(Player player) {
+        if (!player.isOnline())
+            return;
+
+        Location location = player.getLocation();
+        Set<Hologram> watched = this.watchedHolograms.computeIfAbsent(player.getUniqueId(), key -> ConcurrentHashMap.newKeySet());
+        watched.removeIf(hologram -> {
+            if (this.holograms.get(hologram.getLocation()) == hologram && this.isPlayerInRange(location, hologram.getLocation()))
+                return false;
+
+            hologram.removeWatcher(player);
+            return true;
+        });
+
+        ChunkMap<Map<Location, Hologram>> chunks = this.hologramChunks.get(location.getWorld().getUID());
+        if (chunks == null)
+            return;
+
+        int chunkX = location.getBlockX() >> 4;
+        int chunkZ = location.getBlockZ() >> 4;
+        for (int x = chunkX - this.renderChunkRadius; x <= chunkX + this.renderChunkRadius; x++) {
+            for (int z = chunkZ - this.renderChunkRadius; z <= chunkZ + this.renderChunkRadius; z++) {
+                Map<Location, Hologram> chunkHolograms = chunks.get(ChunkMap.key(x, z));
+                if (chunkHolograms != null)
+                    for (Hologram hologram : chunkHolograms.values())
+                        this.updateWatcher(player, location, hologram, watched);
+            }
+        }
+    }
+
+    private void updateWatcher(Player player, Location playerLocation, Hologram hologram, Set<Hologram> watched) {
+        if (this.isPlayerInRange(playerLocation, hologram.getLocation())) {
             hologram.addWatcher(player);
+            watched.add(hologram);
             if (this.hideThroughWalls)
-                hologram.setVisibility(player, this.nmsHandler.hasLineOfSight(player, hologram.getDisplayLocation()));
-        } else {
+                hologram.setVisibility(player, this.lineOfSightCacheManager.hasLineOfSight(player, hologram.getDisplayLocation()));
+        } else if (watched.remove(hologram)) {
             hologram.removeWatcher(player);
         }
     }
 
-    private boolean isPlayerInRange(Player player, Location location) {
-        return player.getWorld().equals(location.getWorld()) && player.getLocation().distanceSquared(location) <= this.renderDistanceSqrd;
+    private boolean isPlayerInRange(Location playerLocation, Location location) {
+        return playerLocation.getWorld().equals(location.getWorld()) && playerLocation.distanceSquared(location) <= this.renderDistanceSqrd;
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        ThreadUtils.runAsync(() -> {
-            Player player = event.getPlayer();
-            for (Hologram hologram : this.holograms.values())
-                this.updateWatcher(player, hologram);
-        });
+        ThreadUtils.runAsync(AsyncTaskKind.HOLOGRAM, event.getPlayer().getUniqueId(), () -> this.updateWatchers(event.getPlayer()));
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
-        ThreadUtils.runAsync(() -> {
-            Player player = event.getPlayer();
-            for (Hologram hologram : this.holograms.values())
-                hologram.removeWatcher(player);
-        });
+        Player player = event.getPlayer();
+        Set<Hologram> watched = this.watchedHolograms.remove(player.getUniqueId());
+        if (watched != null)
+            ThreadUtils.runAsync(AsyncTaskKind.HOLOGRAM, () -> watched.forEach(hologram -> hologram.removeWatcher(player)));
     }
 
     /**
@@ -105,8 +168,12 @@ public class HologramManager extends Manager implements Listener {
         if (hologram == null) {
             hologram = this.nmsHandler.createHologram(location, text);
             this.holograms.put(location, hologram);
-            for (Player player : Bukkit.getOnlinePlayers())
-                this.updateWatcher(player, hologram);
+            this.addChunkHologram(location, hologram);
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                Set<Hologram> watched = this.watchedHolograms.get(player.getUniqueId());
+                if (watched != null)
+                    this.updateWatcher(player, player.getLocation(), hologram, watched);
+            }
         } else {
             hologram.setText(text);
         }
@@ -122,6 +189,33 @@ public class HologramManager extends Manager implements Listener {
         if (hologram != null) {
             hologram.delete();
             this.holograms.remove(location);
+            this.removeChunkHologram(location);
+        }
+    }
+
+    private void addChunkHologram(Location location, Hologram hologram) {
+        ChunkMap<Map<Location, Hologram>> chunks = this.hologramChunks.computeIfAbsent(location.getWorld().getUID(), key -> new ChunkMap<>());
+        synchronized (chunks) {
+            chunks.computeIfAbsent(ChunkMap.key(location.getBlockX() >> 4, location.getBlockZ() >> 4), key -> new ConcurrentHashMap<>()).put(location, hologram);
+        }
+    }
+
+    private void removeChunkHologram(Location location) {
+        ChunkMap<Map<Location, Hologram>> chunks = this.hologramChunks.get(location.getWorld().getUID());
+        if (chunks == null)
+            return;
+
+        // Chunks are looked up and changed under the map lock so a hologram being added to a chunk that is being emptied is never lost,
+        // and only the emptied map itself is ever removed from its chunk
+        long key = ChunkMap.key(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        synchronized (chunks) {
+            Map<Location, Hologram> chunkHolograms = chunks.get(key);
+            if (chunkHolograms == null)
+                return;
+
+            chunkHolograms.remove(location);
+            if (chunkHolograms.isEmpty() && chunks.get(key) == chunkHolograms)
+                chunks.remove(key);
         }
     }
 
@@ -0,0 +1,344 @@
+package dev.rosewood.rosestacker.manager;
+
+import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosegarden.manager.Manager;
+import dev.rosewood.rosestacker.cache.ChunkMap;
+import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
+import dev.rosewood.rosestacker.nms.NMSAdapter;
+import dev.rosewood.rosestacker.scheduler.StackerTask;
+import dev.rosewood.rosestacker.utils.EntityUtils;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+/**
+ * Caches the results of the wall detection raycasts between players and the tags they can see.
+ * A result is reused until it expires, until the player or the target moves further than the move threshold,
+ * or until a block changes in any chunk the line between them passes through.
+ */
+public class LineOfSightCacheManager extends Manager implements Listener {
+
+    private final Map<UUID, Map<Object, CacheEntry>> playerEntries;
+    private final Map<UUID, ChunkMap<AtomicLong>> blockChanges;
+    private final ThreadLocal<Location> queryLocation;
+    private final AtomicLong hits, misses;
+    private StackerTask evictionTask;
+    private long duration;
+    private double moveThresholdSqrd;
+
+    public LineOfSightCacheManager(RosePlugin rosePlugin) {
+        super(rosePlugin);
+
+        this.playerEntries = new ConcurrentHashMap<>();
+        this.blockChanges = new ConcurrentHashMap<>();
+        this.queryLocation = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+
+        Bukkit.getPluginManager().registerEvents(this, this.rosePlugin);
+    }
+
+    @Override
+    public void reload() {
+        this.duration = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Setting.DYNAMIC_TAG_WALL_DETECTION_CACHE_DURATION.getLong()));
+        double moveThreshold = Setting.DYNAMIC_TAG_WALL_DETECTION_CACHE_MOVE_THRESHOLD.getDouble();
+        this.moveThresholdSqrd = moveThreshold * moveThreshold;
+
+        if (this.duration > 0)
+            this.evictionTask = ThreadUtils.getScheduler().runAsyncTimer(this::evictExpired, 100L, 100L);
+    }
+
+    @Override
+    public void disable() {
+        this.playerEntries.clear();
+        this.blockChanges.clear();
+
+        if (this.evictionTask != null) {
+            this.evictionTask.cancel();
+            this.evictionTask = null;
+        }
+    }
+
+    /**
+     * Checks if a player can see an entity, hiding it if there is an occluding block in the way
+     *
+     * @param player The player
+     * @param entity The entity
+     * @return true if the player can see the entity, otherwise false
+     */
+    public boolean hasLineOfSight(Player player, Entity entity) {
+        Location location = entity.getLocation(this.queryLocation.get());
+        double x = location.getX(), y = location.getY(), z = location.getZ();
+        return this.hasLineOfSight(player, player.getLocation(location), entity.getEntityId(), x, y, z,
+                () -> EntityUtils.hasLineOfSight(player, entity, 0.75, true));
+    }
+
+    /**
+     * Checks if a player can see an entity using positions the caller already has, such as from a stacking snapshot.
+     * Neither entity is read unless the cached result can't be reused and the raycast has to run.
+     *
+     * @param player The player
+     * @param world The world both positions are in
+     * @param playerX The x coordinate of the player
+     * @param playerY The y coordinate of the player
+     * @param playerZ The z coordinate of the player
+     * @param entity The entity
+     * @param x The x coordinate of the entity
+     * @param y The y coordinate of the entity
+     * @param z The z coordinate of the entity
+     * @return true if the player can see the entity, otherwise false
+     */
+    public boolean hasLineOfSight(Player player, World world, double playerX, double playerY, double playerZ,
+                                  Entity entity, double x, double y, double z) {
+        return this.hasLineOfSight(player, world, playerX, playerY, playerZ, entity.getEntityId(), x, y, z,
+                () -> EntityUtils.hasLineOfSight(player, entity, 0.75, true));
+    }
+
+    /**
+     * Checks if a player can see a location
+     *
+     * @param player The player
+     * @param location The location, must be in the same world as the player
+     * @return true if the player can see the location, otherwise false
+     */
+    public boolean hasLineOfSight(Player player, Location location) {
+        return this.hasLineOfSight(player, player.getLocation(this.queryLocation.get()), location, location.getX(), location.getY(), location.getZ(),
+                () -> NMSAdapter.getHandler().hasLineOfSight(player, location));
+    }
+
+    private boolean hasLineOfSight(Player player, Location playerLocation, Object target, double targetX, double targetY, double targetZ, BooleanSupplier raycast) {
+        return this.hasLineOfSight(player, playerLocation.getWorld(), playerLocation.getX(), playerLocation.getY(), playerLocation.getZ(),
+                target, targetX, targetY, targetZ, raycast);
+    }
+
+    private boolean hasLineOfSight(Player player, World world, double playerX, double playerY, double playerZ,
+                                   Object target, double targetX, double targetY, double targetZ, BooleanSupplier raycast) {
+        if (this.duration <= 0)
+            return raycast.getAsBoolean();
+
+        ChunkMap<AtomicLong> changes = this.blockChanges.get(world.getUID());
+
+        Map<Object, CacheEntry> entries = this.playerEntries.computeIfAbsent(player.getUniqueId(), key -> new ConcurrentHashMap<>());
+        CacheEntry entry = entries.get(target);
+        long now = System.nanoTime();
+        if (entry != null
+                && now - entry.time() < this.duration
+                && distanceSquared(playerX, playerY, playerZ, entry.playerX(), entry.playerY(), entry.playerZ()) <= this.moveThresholdSqrd
+                && distanceSquared(targetX, targetY, targetZ, entry.targetX(), entry.targetY(), entry.targetZ()) <= this.moveThresholdSqrd
+                && !this.changedAlong(changes, playerX, playerZ, targetX, targetZ, entry.time())) {
+            this.hits.incrementAndGet();
+            return entry.visible();
+        }
+
+        // The time is taken before the raycast, so blocks changing while it runs invalidate the result
+        boolean visible = raycast.getAsBoolean();
+        entries.put(target, new CacheEntry(playerX, playerY, playerZ, targetX, targetY, targetZ, now, visible));
+        this.misses.incrementAndGet();
+        return visible;
+    }
+
+    /**
+     * Checks if a block changed in any chunk crossed by a horizontal line, walking the chunks the line passes through in order
+     *
+     * @param changes The block change times of the world, nullable
+     * @param x1 The x coordinate of the start of the line
+     * @param z1 The z coordinate of the start of the line
+     * @param x2 The x coordinate of the end of the line
+     * @param z2 The z coordinate of the end of the line
+     * @param since The time to check for changes after
+     * @return true if a block changed in one of the chunks after the given time
+     */
+    private boolean changedAlong(ChunkMap<AtomicLong> changes, double x1, double z1, double x2, double z2, long since) {
+        if (changes == null || changes.size() == 0)
+            return false;
+
+        int chunkX = (int) Math.floor(x1) >> 4, chunkZ = (int) Math.floor(z1) >> 4;
+        int endChunkX = (int) Math.floor(x2) >> 4, endChunkZ = (int) Math.floor(z2) >> 4;
+        double dx = Math.abs(x2 - x1), dz = Math.abs(z2 - z1);
+        int stepX = x2 > x1 ? 1 : -1, stepZ = z2 > z1 ? 1 : -1;
+        double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : 16 / dx;
+        double deltaZ = dz == 0 ? Double.POSITIVE_INFINITY : 16 / dz;
+        double nextX = dx == 0 ? Double.POSITIVE_INFINITY : (stepX > 0 ? ((chunkX + 1) << 4) - x1 : x1 - (chunkX << 4)) / dx;
+        double nextZ = dz == 0 ? Double.POSITIVE_INFINITY : (stepZ > 0 ? ((chunkZ + 1) << 4) - z1 : z1 - (chunkZ << 4)) / dz;
+
+        int steps = Math.abs(endChunkX - chunkX) + Math.abs(endChunkZ - chunkZ);
+        for (int i = 0; i <= steps; i++) {
+            AtomicLong changed = changes.get(ChunkMap.key(chunkX, chunkZ));
+            if (changed != null && changed.get() - since >= 0)
+                return true;
+
+            if (nextX < nextZ) {
+                nextX += deltaX;
+                chunkX += stepX;
+            } else {
+                nextZ += deltaZ;
+                chunkZ += stepZ;
+            }
+        }
+
+        return false;
+    }
+
+    private void evictExpired() {
+        long now = System.nanoTime();
+        for (Map<Object, CacheEntry> entries : this.playerEntries.values())
+            entries.values().removeIf(entry -> now - entry.time() >= this.duration);
+
+        // Changes older than the cache duration can't invalidate any entry that hasn't expired already.
+        // The stamp is checked again under the map lock, which markChanged also holds, so a change recorded
+        // between the check and the removal is never lost with the removed stamp
+        for (ChunkMap<AtomicLong> changes : this.blockChanges.values())
+            changes.forEach((key, changed) -> {
+                if (now - changed.get() < this.duration)
+                    return;
+
+                synchronized (changes) {
+                    if (changes.get(key) == changed && now - changed.get() >= this.duration)
+                        changes.remove(key);
+                }
+            });
+    }
+
+    private void markChanged(Block block) {
+        long now = System.nanoTime();
+        ChunkMap<AtomicLong> changes = this.blockChanges.computeIfAbsent(block.getWorld().getUID(), key -> new ChunkMap<>());
+        synchronized (changes) {
+            changes.computeIfAbsent(ChunkMap.key(block.getX() >> 4, block.getZ() >> 4), key -> new AtomicLong()).set(now);
+        }
+    }
+
+    private void markChanged(List<Block> blocks) {
+        for (Block block : blocks)
+            this.markChanged(block);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        this.markChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        this.markChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        this.markChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        this.markChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        this.markChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecay(LeavesDecayEvent event) {
+        this.markChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        this.markChanged(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        this.markChanged(event.getBlock());
+        this.markChanged(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        this.markChanged(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        this.markChanged(event.getBlock());
+        for (Block block : event.getBlocks())
+            this.markChanged(block.getRelative(event.getDirection()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        this.markChanged(event.getBlock());
+        this.markChanged(event.getBlocks());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onStructureGrow(StructureGrowEvent event) {
+        for (BlockState blockState : event.getBlocks())
+            this.markChanged(blockState.getBlock());
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.playerEntries.remove(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        this.blockChanges.remove(event.getWorld().getUID());
+    }
+
+    /**
+     * @return the number of wall detection results reused since the plugin was enabled
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of wall detection results calculated since the plugin was enabled
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    private static double distanceSquared(double x1, double y1, double z1, double x2, double y2, double z2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        double dz = z1 - z2;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private record CacheEntry(double playerX, double playerY, double playerZ,
+                              double targetX, double targetY, double targetZ,
+                              long time, boolean visible) { }
+
+}
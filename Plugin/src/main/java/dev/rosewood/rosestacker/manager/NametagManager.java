@@ -0,0 +1,157 @@
+package dev.rosewood.rosestacker.manager;
+
+import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosegarden.manager.Manager;
+import dev.rosewood.rosestacker.listener.paper.PaperEntityUntrackListener;
+import dev.rosewood.rosestacker.nms.NMSAdapter;
+import dev.rosewood.rosestacker.nms.NMSHandler;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Sends per-player nametag packets, remembering the last name and visibility sent to each player for each entity
+ * so that a packet is only sent when one of them actually changes.
+ * The entity's real name and visibility are remembered alongside, since the server broadcasts them to every player
+ * whenever they change, replacing whatever was sent, so any change to them sends the packet again.
+ * A player's entry for an entity is forgotten once the entity stops being tracked for them, since the server resends
+ * the real name when it starts tracking the entity again. Without entity untrack events every packet is sent.
+ */
+public class NametagManager extends Manager implements Listener {
+
+    private final NMSHandler nmsHandler;
+    private final Map<UUID, Map<Integer, NametagState>> viewerStates;
+    private final AtomicLong sentPackets, suppressedPackets;
+    private final boolean trackingStates;
+
+    public NametagManager(RosePlugin rosePlugin) {
+        super(rosePlugin);
+
+        this.nmsHandler = NMSAdapter.getHandler();
+        this.viewerStates = new ConcurrentHashMap<>();
+        this.sentPackets = new AtomicLong();
+        this.suppressedPackets = new AtomicLong();
+
+        Bukkit.getPluginManager().registerEvents(this, this.rosePlugin);
+
+        boolean trackingStates;
+        try {
+            Class.forName("io.papermc.paper.event.player.PlayerUntrackEntityEvent");
+            Bukkit.getPluginManager().registerEvents(new PaperEntityUntrackListener(this), this.rosePlugin);
+            trackingStates = true;
+        } catch (ClassNotFoundException e) {
+            trackingStates = false;
+        }
+        this.trackingStates = trackingStates;
+    }
+
+    @Override
+    public void reload() { }
+
+    @Override
+    public void disable() {
+        // Everything is sent again after a reload in case the settings changed what is displayed
+        this.viewerStates.clear();
+    }
+
+    /**
+     * Updates the nametag of an entity for a player, if it differs from what the player was last sent
+     *
+     * @param player The player to send the nametag to
+     * @param entity The entity to update
+     * @param customName The name to display
+     * @param customNameVisible true if the name should be visible
+     */
+    public void updateNameTag(Player player, Entity entity, String customName, boolean customNameVisible) {
+        this.update(player, entity, NametagState.of(entity, customName, customNameVisible), () -> this.nmsHandler.updateEntityNameTagForPlayer(player, entity, customName, customNameVisible));
+    }
+
+    /**
+     * Updates the nametag visibility of an entity for a player, if it differs from what the player was last sent
+     *
+     * @param player The player to send the visibility to
+     * @param entity The entity to update
+     * @param customNameVisible true if the entity's name should be visible
+     */
+    public void updateNameTagVisibility(Player player, Entity entity, boolean customNameVisible) {
+        this.update(player, entity, NametagState.of(entity, entity.getCustomName(), customNameVisible), () -> this.nmsHandler.updateEntityNameTagVisibilityForPlayer(player, entity, customNameVisible));
+    }
+
+    private void update(Player player, Entity entity, NametagState state, Runnable send) {
+        if (!this.trackingStates) {
+            send.run();
+            this.sentPackets.incrementAndGet();
+            return;
+        }
+
+        Map<Integer, NametagState> states = this.viewerStates.computeIfAbsent(player.getUniqueId(), key -> new ConcurrentHashMap<>());
+        synchronized (states) {
+            if (state.equals(states.get(entity.getEntityId()))) {
+                this.suppressedPackets.incrementAndGet();
+                return;
+            }
+
+            send.run();
+            states.put(entity.getEntityId(), state);
+        }
+        this.sentPackets.incrementAndGet();
+    }
+
+    /**
+     * Forgets what a player was sent for an entity, must be called when the entity stops being tracked for the player
+     *
+     * @param player The player
+     * @param entityId The ID of the entity
+     */
+    public void untrack(Player player, int entityId) {
+        Map<Integer, NametagState> states = this.viewerStates.get(player.getUniqueId());
+        if (states == null)
+            return;
+
+        synchronized (states) {
+            states.remove(entityId);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.viewerStates.remove(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        this.viewerStates.remove(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * @return the number of nametag packets sent since the plugin was enabled
+     */
+    public long getSentPackets() {
+        return this.sentPackets.get();
+    }
+
+    /**
+     * @return the number of nametag packets skipped because the player already had the same nametag
+     */
+    public long getSuppressedPackets() {
+        return this.suppressedPackets.get();
+    }
+
+    private record NametagState(String customName, boolean customNameVisible, String realCustomName, boolean realCustomNameVisible) {
+
+        private static NametagState of(Entity entity, String customName, boolean customNameVisible) {
+            return new NametagState(customName, customNameVisible, entity.getCustomName(), entity.isCustomNameVisible());
+        }
+
+    }
+
+}
@@ -5,6 +5,8 @@ import dev.rosewood.rosegarden.manager.Manager;
 import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
 import dev.rosewood.rosestacker.nms.spawner.SpawnerType;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorageType;
+import dev.rosewood.rosestacker.scheduler.StackerTask;
+import dev.rosewood.rosestacker.stack.PerformanceController;
 import dev.rosewood.rosestacker.stack.StackedBlock;
 import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.StackedItem;
@@ -15,9 +17,12 @@ import dev.rosewood.rosestacker.stack.settings.BlockStackSettings;
 import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.stack.settings.SpawnerStackSettings;
 import dev.rosewood.rosestacker.utils.DataUtils;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
@@ -30,7 +35,6 @@ import org.bukkit.entity.Item;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitTask;
 
 /**
  * Manages {@link StackingThread} and chunk processing
@@ -39,7 +43,9 @@ public class StackManager extends Manager implements StackingLogic {
 
     private final Map<UUID, StackingThread> stackingThreads;
 
-    private BukkitTask autosaveTask;
+    private StackerTask autosaveTask, tpsToggleTask;
+    private ForkJoinPool stackingPool;
+    private PerformanceController performanceController;
 
     private boolean isEntityStackingTemporarilyDisabled;
     private boolean isEntityUnstackingTemporarilyDisabled;
@@ -62,6 +68,19 @@ public class StackManager extends Manager implements StackingLogic {
     public void reload() {
         this.entityDataStorageType = StackedEntityDataStorageType.fromName(Setting.ENTITY_DATA_STORAGE_TYPE.getString());
 
+        // Create the worker pool shared by the StackingThreads
+        int workerThreads = Setting.STACKING_WORKER_THREADS.getInt();
+        if (workerThreads < 1)
+            workerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.stackingPool = new ForkJoinPool(workerThreads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("RoseStacker Stacking Worker #" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+
+        this.performanceController = new PerformanceController();
+        this.performanceController.start();
+
         // Load a new StackingThread per world
         Bukkit.getWorlds().forEach(this::loadWorld);
 
@@ -69,31 +88,24 @@ public class StackManager extends Manager implements StackingLogic {
         long autosaveFrequency = Setting.AUTOSAVE_FREQUENCY.getLong();
         if (autosaveFrequency > 0) {
             long interval = autosaveFrequency * 20 * 60;
-            this.autosaveTask = Bukkit.getScheduler().runTaskTimer(this.rosePlugin, () -> this.saveAllData(false), interval, interval);
+            this.autosaveTask = ThreadUtils.getScheduler().runGlobalTimer(() -> this.saveAllData(false), interval, interval);
         }
 
         this.stackingBasedOnPerformance = ConfigurationManager.Setting.PERFORMANCE_TPS_TOGGLE.getBoolean();
         if(this.stackingBasedOnPerformance){
-            Bukkit.getServer().getScheduler().runTaskAsynchronously(rosePlugin, new Runnable() {
-                @Override
-                public void run() {
-                    if(ConfigurationManager.Setting.PERFORMANCE_TPS_TOGGLE.getBoolean()){
-                        Bukkit.getScheduler().runTaskTimerAsynchronously(rosePlugin, () -> {
-                            double[] tps = Bukkit.getServer().getTPS();
-                            if(tps.length == 0) return;
-                            double lastTPS = tps[0];
-                            // hysteresis
-                            if(isEntityStackingEnabledForPerformance && lastTPS >= Setting.PERFORMANCE_TPS_DISABLE_ABOVE.getDouble()){
-                                // stacking was enabled due to performance, the TPS increased, we can turn it off again
-                                isEntityStackingEnabledForPerformance=false;
-                            } else if(!isEntityStackingEnabledForPerformance && lastTPS <= Setting.PERFORMANCE_TPS_ENABLE_BELOW.getDouble()) {
-                                // stacking was disabled because the performance was above the low bound, but they have decreased past that
-                                isEntityStackingEnabledForPerformance=true;
-                            }
-                        }, 0L, 20L*30L);
-                    }
+            this.tpsToggleTask = ThreadUtils.getScheduler().runAsyncTimer(() -> {
+                double[] tps = Bukkit.getServer().getTPS();
+                if(tps.length == 0) return;
+                double lastTPS = tps[0];
+                // hysteresis
+                if(isEntityStackingEnabledForPerformance && lastTPS >= Setting.PERFORMANCE_TPS_DISABLE_ABOVE.getDouble()){
+                    // stacking was enabled due to performance, the TPS increased, we can turn it off again
+                    isEntityStackingEnabledForPerformance=false;
+                } else if(!isEntityStackingEnabledForPerformance && lastTPS <= Setting.PERFORMANCE_TPS_ENABLE_BELOW.getDouble()) {
+                    // stacking was disabled because the performance was above the low bound, but they have decreased past that
+                    isEntityStackingEnabledForPerformance=true;
                 }
-            });
+            }, 0L, 20L*30L);
         }
     }
 
@@ -104,12 +116,39 @@ public class StackManager extends Manager implements StackingLogic {
             this.autosaveTask = null;
         }
 
+        if (this.tpsToggleTask != null) {
+            this.tpsToggleTask.cancel();
+            this.tpsToggleTask = null;
+        }
+
+        if (this.performanceController != null)
+            this.performanceController.stop();
+
         // Save anything that's loaded
         this.saveAllData(true);
 
         // Close and clear StackingThreads
         this.stackingThreads.values().forEach(StackingThread::close);
         this.stackingThreads.clear();
+
+        if (this.stackingPool != null) {
+            this.stackingPool.shutdown();
+            this.stackingPool = null;
+        }
+    }
+
+    /**
+     * @return the controller that scales stacking based on server load, or null if the manager is not loaded
+     */
+    public PerformanceController getPerformanceController() {
+        return this.performanceController;
+    }
+
+    /**
+     * @return the worker pool used to stack regions of a world in parallel, or null if the manager is not loaded
+     */
+    public ForkJoinPool getStackingPool() {
+        return this.stackingPool;
     }
 
     @Override
@@ -196,6 +235,12 @@ public class StackManager extends Manager implements StackingLogic {
         return this.getStackedSpawner(block) != null;
     }
 
+    @Override
+    public boolean isPendingRemoval(Entity entity) {
+        StackingThread stackingThread = this.getStackingThread(entity.getWorld());
+        return stackingThread != null && stackingThread.isPendingRemoval(entity);
+    }
+
     @Override
     public void removeEntityStack(StackedEntity stackedEntity) {
         StackingThread stackingThread = this.getStackingThread(stackedEntity.getEntity().getWorld());
@@ -0,0 +1,258 @@
+package dev.rosewood.rosestacker.scheduler;
+
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind.OverflowPolicy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the plugin's async tasks on a fixed number of threads with a bounded queue.
+ * When the queue is full a task is either dropped or run by the thread that submitted it, depending on its kind.
+ * Tasks that can't be dropped are never run on a tick thread, instead they wait in a bounded overflow queue that the
+ * workers take from as they finish tasks, or are handed to the fallback executor if that is full as well.
+ * Tasks submitted with a key are coalesced, a task is ignored while another with the same key is still waiting to run.
+ */
+public class AsyncTaskExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final BlockingQueue<Runnable> overflow;
+    private final BooleanSupplier isTickThread;
+    private final Executor fallback;
+    private final Set<Object> pendingKeys;
+    private final Map<AsyncTaskKind, KindMetrics> metrics;
+
+    /**
+     * @param threads The number of threads to run tasks on
+     * @param queueSize The maximum number of tasks waiting to run, and the maximum number of overflowed tasks
+     * @param isTickThread Checks if the current thread is the main thread or a region thread
+     * @param fallback Runs tasks off of the tick threads when both queues are full
+     */
+    public AsyncTaskExecutor(int threads, int queueSize, BooleanSupplier isTickThread, Executor fallback) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "RoseStacker Async Worker #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        this.overflow = new ArrayBlockingQueue<>(queueSize);
+        this.isTickThread = isTickThread;
+        this.fallback = fallback;
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy()) {
+            @Override
+            protected void afterExecute(Runnable runnable, Throwable throwable) {
+                // Overflowed tasks run directly on the worker, so each finished task takes in at most one of them
+                Runnable overflowed = AsyncTaskExecutor.this.overflow.poll();
+                if (overflowed != null)
+                    overflowed.run();
+            }
+        };
+        this.executor.allowCoreThreadTimeOut(true);
+        this.pendingKeys = ConcurrentHashMap.newKeySet();
+        this.metrics = new EnumMap<>(AsyncTaskKind.class);
+        for (AsyncTaskKind kind : AsyncTaskKind.values())
+            this.metrics.put(kind, new KindMetrics());
+    }
+
+    /**
+     * Submits a task
+     *
+     * @param kind The kind of task
+     * @param key The key to coalesce the task by, or null to never coalesce it
+     * @param task The task to run
+     */
+    public void submit(AsyncTaskKind kind, Object key, Runnable task) {
+        KindMetrics metrics = this.metrics.get(kind);
+        metrics.submitted.incrementAndGet();
+
+        if (key != null && !this.pendingKeys.add(key)) {
+            metrics.coalesced.incrementAndGet();
+            return;
+        }
+
+        long queuedAt = System.nanoTime();
+        metrics.queued.incrementAndGet();
+        Runnable tracked = () -> {
+            metrics.queued.decrementAndGet();
+            if (key != null)
+                this.pendingKeys.remove(key);
+
+            long startedAt = System.nanoTime();
+            metrics.recordWait(startedAt - queuedAt);
+            try {
+                task.run();
+            } finally {
+                metrics.totalRunTime.addAndGet(System.nanoTime() - startedAt);
+                metrics.completed.incrementAndGet();
+            }
+        };
+
+        try {
+            this.executor.execute(tracked);
+        } catch (RejectedExecutionException e) {
+            if (kind.getOverflowPolicy() == OverflowPolicy.CALLER_RUNS && !this.executor.isShutdown()) {
+                metrics.overflowed.incrementAndGet();
+                if (!this.isTickThread.getAsBoolean()) {
+                    tracked.run();
+                } else if (this.overflow.offer(tracked)) {
+                    // The workers may have gone idle since the queue was full, wake one up to take the task in
+                    if (this.executor.getActiveCount() == 0) {
+                        try {
+                            this.executor.execute(() -> { });
+                        } catch (RejectedExecutionException ignored) { }
+                    }
+                } else {
+                    this.fallback.execute(tracked);
+                }
+            } else {
+                metrics.queued.decrementAndGet();
+                metrics.dropped.incrementAndGet();
+                if (key != null)
+                    this.pendingKeys.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting tasks, the tasks already submitted still run
+     *
+     * @param wait Whether to wait a few seconds for the submitted tasks to finish
+     */
+    public void shutdown(boolean wait) {
+        this.executor.shutdown();
+        if (!wait) {
+            // Nothing is left to take the overflowed tasks in, so they go to the fallback instead
+            Runnable overflowed;
+            while ((overflowed = this.overflow.poll()) != null)
+                this.fallback.execute(overflowed);
+            return;
+        }
+
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Runnable overflowed;
+        while ((overflowed = this.overflow.poll()) != null)
+            overflowed.run();
+    }
+
+    /**
+     * @return the number of threads tasks are run on
+     */
+    public int getThreads() {
+        return this.executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of threads currently running tasks
+     */
+    public int getActiveThreads() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of tasks waiting to run
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size() + this.overflow.size();
+    }
+
+    /**
+     * @param kind The kind of task
+     * @return the metrics for the kind of task
+     */
+    public KindMetrics getMetrics(AsyncTaskKind kind) {
+        return this.metrics.get(kind);
+    }
+
+    /**
+     * Counters for one kind of task, all times are in nanoseconds
+     */
+    public static class KindMetrics {
+
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong overflowed = new AtomicLong();
+        private final AtomicLong totalWaitTime = new AtomicLong();
+        private final AtomicLong maxWaitTime = new AtomicLong();
+        private final AtomicLong totalRunTime = new AtomicLong();
+
+        private void recordWait(long waitTime) {
+            this.totalWaitTime.addAndGet(waitTime);
+            this.maxWaitTime.accumulateAndGet(waitTime, Math::max);
+        }
+
+        /**
+         * @return the number of tasks of this kind waiting to run
+         */
+        public int getQueued() {
+            return this.queued.get();
+        }
+
+        public long getSubmitted() {
+            return this.submitted.get();
+        }
+
+        public long getCompleted() {
+            return this.completed.get();
+        }
+
+        public long getDropped() {
+            return this.dropped.get();
+        }
+
+        public long getCoalesced() {
+            return this.coalesced.get();
+        }
+
+        /**
+         * @return the number of tasks of this kind that didn't fit in the queue and were run by their caller, put in
+         * the overflow queue, or handed to the fallback
+         */
+        public long getOverflowed() {
+            return this.overflowed.get();
+        }
+
+        /**
+         * @return the average time a task of this kind waited before running
+         */
+        public long getAverageWaitTime() {
+            long completed = this.completed.get();
+            return completed == 0 ? 0 : this.totalWaitTime.get() / completed;
+        }
+
+        /**
+         * @return the longest time a task of this kind waited before running
+         */
+        public long getMaxWaitTime() {
+            return this.maxWaitTime.get();
+        }
+
+        /**
+         * @return the average time a task of this kind took to run
+         */
+        public long getAverageRunTime() {
+            long completed = this.completed.get();
+            return completed == 0 ? 0 : this.totalRunTime.get() / completed;
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+package dev.rosewood.rosestacker.scheduler;
+
+/**
+ * The kinds of tasks run by the {@link AsyncTaskExecutor}, each with its own metrics and overflow policy
+ */
+public enum AsyncTaskKind {
+
+    LOOT(OverflowPolicy.CALLER_RUNS),
+    SPAWNER(OverflowPolicy.DROP),
+    ENTITY_DATA(OverflowPolicy.CALLER_RUNS),
+    HOLOGRAM(OverflowPolicy.CALLER_RUNS),
+    NAMETAG(OverflowPolicy.DROP),
+    GENERAL(OverflowPolicy.CALLER_RUNS);
+
+    private final OverflowPolicy overflowPolicy;
+
+    AsyncTaskKind(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return what happens to a task of this kind when the executor queue is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * The task is thrown away, for tasks that are retried or repeated anyway
+         */
+        DROP,
+
+        /**
+         * The task runs on the thread that submitted it, for tasks whose results can't be lost.
+         * If that thread is the main thread or a region thread, the task waits in the overflow queue instead.
+         */
+        CALLER_RUNS
+    }
+
+}
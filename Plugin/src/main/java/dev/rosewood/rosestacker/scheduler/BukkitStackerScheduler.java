@@ -0,0 +1,102 @@
+package dev.rosewood.rosestacker.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Schedules tasks with the Bukkit scheduler, the main thread is the global, region and entity context all at once
+ */
+public class BukkitStackerScheduler implements StackerScheduler {
+
+    private final Plugin plugin;
+    private final BukkitScheduler scheduler;
+
+    public BukkitStackerScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = Bukkit.getScheduler();
+    }
+
+    @Override
+    public StackerTask runGlobal(Runnable runnable) {
+        return new Task(this.scheduler.runTask(this.plugin, runnable));
+    }
+
+    @Override
+    public StackerTask runGlobalDelayed(Runnable runnable, long delay) {
+        return new Task(this.scheduler.runTaskLater(this.plugin, runnable, delay));
+    }
+
+    @Override
+    public StackerTask runGlobalTimer(Runnable runnable, long delay, long period) {
+        return new Task(this.scheduler.runTaskTimer(this.plugin, runnable, delay, period));
+    }
+
+    @Override
+    public StackerTask runRegion(World world, int chunkX, int chunkZ, Runnable runnable) {
+        return this.runGlobal(runnable);
+    }
+
+    @Override
+    public StackerTask runRegionDelayed(World world, int chunkX, int chunkZ, Runnable runnable, long delay) {
+        return this.runGlobalDelayed(runnable, delay);
+    }
+
+    @Override
+    public StackerTask runEntityDelayed(Entity entity, Runnable runnable, long delay) {
+        return this.runGlobalDelayed(runnable, delay);
+    }
+
+    @Override
+    public StackerTask runAsync(Runnable runnable) {
+        return new Task(this.scheduler.runTaskAsynchronously(this.plugin, runnable));
+    }
+
+    @Override
+    public StackerTask runAsyncDelayed(Runnable runnable, long delay) {
+        return new Task(this.scheduler.runTaskLaterAsynchronously(this.plugin, runnable, delay));
+    }
+
+    @Override
+    public StackerTask runAsyncTimer(Runnable runnable, long delay, long period) {
+        return new Task(this.scheduler.runTaskTimerAsynchronously(this.plugin, runnable, delay, period));
+    }
+
+    @Override
+    public boolean isGlobalThread() {
+        return Bukkit.isPrimaryThread();
+    }
+
+    @Override
+    public boolean isOwnedByCurrentRegion(Entity entity) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    @Override
+    public boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    @Override
+    public void cancelAll() {
+        this.scheduler.cancelTasks(this.plugin);
+    }
+
+    private record Task(BukkitTask task) implements StackerTask {
+
+        @Override
+        public void cancel() {
+            this.task.cancel();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.task.isCancelled();
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+package dev.rosewood.rosestacker.scheduler;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Schedules tasks with the region schedulers of region threaded servers such as Folia.
+ * Region and entity tasks run on the thread ticking the region that owns them, async tasks are timed in wall clock time.
+ */
+public class RegionizedStackerScheduler implements StackerScheduler {
+
+    private static final long MILLIS_PER_TICK = 50;
+
+    private final Plugin plugin;
+
+    public RegionizedStackerScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * @return true if the server ticks its regions in parallel
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public StackerTask runGlobal(Runnable runnable) {
+        return new Task(Bukkit.getGlobalRegionScheduler().run(this.plugin, task -> runnable.run()));
+    }
+
+    @Override
+    public StackerTask runGlobalDelayed(Runnable runnable, long delay) {
+        return new Task(Bukkit.getGlobalRegionScheduler().runDelayed(this.plugin, task -> runnable.run(), Math.max(1, delay)));
+    }
+
+    @Override
+    public StackerTask runGlobalTimer(Runnable runnable, long delay, long period) {
+        return new Task(Bukkit.getGlobalRegionScheduler().runAtFixedRate(this.plugin, task -> runnable.run(), Math.max(1, delay), Math.max(1, period)));
+    }
+
+    @Override
+    public StackerTask runRegion(World world, int chunkX, int chunkZ, Runnable runnable) {
+        return new Task(Bukkit.getRegionScheduler().run(this.plugin, world, chunkX, chunkZ, task -> runnable.run()));
+    }
+
+    @Override
+    public StackerTask runRegionDelayed(World world, int chunkX, int chunkZ, Runnable runnable, long delay) {
+        return new Task(Bukkit.getRegionScheduler().runDelayed(this.plugin, world, chunkX, chunkZ, task -> runnable.run(), Math.max(1, delay)));
+    }
+
+    @Override
+    public StackerTask runEntityDelayed(Entity entity, Runnable runnable, long delay) {
+        ScheduledTask task = entity.getScheduler().runDelayed(this.plugin, x -> runnable.run(), null, Math.max(1, delay));
+        return task == null ? null : new Task(task);
+    }
+
+    @Override
+    public StackerTask runAsync(Runnable runnable) {
+        return new Task(Bukkit.getAsyncScheduler().runNow(this.plugin, task -> runnable.run()));
+    }
+
+    @Override
+    public StackerTask runAsyncDelayed(Runnable runnable, long delay) {
+        if (delay <= 0)
+            return this.runAsync(runnable);
+        return new Task(Bukkit.getAsyncScheduler().runDelayed(this.plugin, task -> runnable.run(), delay * MILLIS_PER_TICK, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public StackerTask runAsyncTimer(Runnable runnable, long delay, long period) {
+        return new Task(Bukkit.getAsyncScheduler().runAtFixedRate(this.plugin, task -> runnable.run(), Math.max(1, delay) * MILLIS_PER_TICK, Math.max(1, period) * MILLIS_PER_TICK, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public boolean isGlobalThread() {
+        return Bukkit.isGlobalTickThread();
+    }
+
+    @Override
+    public boolean isOwnedByCurrentRegion(Entity entity) {
+        return Bukkit.isOwnedByCurrentRegion(entity);
+    }
+
+    @Override
+    public boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ) {
+        return Bukkit.isOwnedByCurrentRegion(world, chunkX, chunkZ);
+    }
+
+    @Override
+    public void cancelAll() {
+        Bukkit.getGlobalRegionScheduler().cancelTasks(this.plugin);
+        Bukkit.getAsyncScheduler().cancelTasks(this.plugin);
+    }
+
+    private record Task(ScheduledTask task) implements StackerTask {
+
+        @Override
+        public void cancel() {
+            this.task.cancel();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.task.isCancelled();
+        }
+
+    }
+
+}
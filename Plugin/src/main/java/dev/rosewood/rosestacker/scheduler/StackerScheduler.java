@@ -0,0 +1,167 @@
+package dev.rosewood.rosestacker.scheduler;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+/**
+ * Schedules tasks onto the execution context that owns the state they touch.
+ * <ul>
+ *     <li>The global context owns server wide state such as worlds, commands and plugin tasks</li>
+ *     <li>A region context owns the chunks of one region and everything in them</li>
+ *     <li>An entity context follows a single entity as it moves between regions</li>
+ * </ul>
+ * Anything that changes a stack or its entity should run on the context owning that entity.
+ * On a server with a single main thread every context is the main thread.
+ * All delays and periods are in ticks.
+ */
+public interface StackerScheduler {
+
+    /**
+     * Runs a task on the global context on the next tick
+     *
+     * @param runnable The task to run
+     * @return the scheduled task
+     */
+    StackerTask runGlobal(Runnable runnable);
+
+    /**
+     * Runs a task on the global context after a delay
+     *
+     * @param runnable The task to run
+     * @param delay The delay before the task runs
+     * @return the scheduled task
+     */
+    StackerTask runGlobalDelayed(Runnable runnable, long delay);
+
+    /**
+     * Runs a task on the global context repeatedly
+     *
+     * @param runnable The task to run
+     * @param delay The delay before the first run
+     * @param period The delay between runs
+     * @return the scheduled task
+     */
+    StackerTask runGlobalTimer(Runnable runnable, long delay, long period);
+
+    /**
+     * Runs a task on the context of the region owning a chunk
+     *
+     * @param world The world of the chunk
+     * @param chunkX The x coordinate of the chunk
+     * @param chunkZ The z coordinate of the chunk
+     * @param runnable The task to run
+     * @return the scheduled task
+     */
+    StackerTask runRegion(World world, int chunkX, int chunkZ, Runnable runnable);
+
+    /**
+     * Runs a task on the context of the region owning a location
+     *
+     * @param location The location, must have a world
+     * @param runnable The task to run
+     * @return the scheduled task
+     */
+    default StackerTask runRegion(Location location, Runnable runnable) {
+        return this.runRegion(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, runnable);
+    }
+
+    /**
+     * Runs a task on the context of the region owning a chunk after a delay
+     *
+     * @param world The world of the chunk
+     * @param chunkX The x coordinate of the chunk
+     * @param chunkZ The z coordinate of the chunk
+     * @param runnable The task to run
+     * @param delay The delay before the task runs
+     * @return the scheduled task
+     */
+    StackerTask runRegionDelayed(World world, int chunkX, int chunkZ, Runnable runnable, long delay);
+
+    /**
+     * Runs a task on the context of the region owning a location after a delay
+     *
+     * @param location The location, must have a world
+     * @param runnable The task to run
+     * @param delay The delay before the task runs
+     * @return the scheduled task
+     */
+    default StackerTask runRegionDelayed(Location location, Runnable runnable, long delay) {
+        return this.runRegionDelayed(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, runnable, delay);
+    }
+
+    /**
+     * Runs a task on the context of an entity after a delay.
+     * On a region threaded server the task is dropped if the entity is removed before it runs.
+     *
+     * @param entity The entity owning the task
+     * @param runnable The task to run
+     * @param delay The delay before the task runs, at least 1
+     * @return the scheduled task, or null if the entity has already been removed
+     */
+    StackerTask runEntityDelayed(Entity entity, Runnable runnable, long delay);
+
+    /**
+     * Runs a task on the context of an entity on the next tick.
+     * On a region threaded server the task is dropped if the entity is removed before it runs.
+     *
+     * @param entity The entity owning the task
+     * @param runnable The task to run
+     * @return the scheduled task, or null if the entity has already been removed
+     */
+    default StackerTask runEntity(Entity entity, Runnable runnable) {
+        return this.runEntityDelayed(entity, runnable, 1);
+    }
+
+    /**
+     * Runs a task off of every tick context as soon as possible
+     *
+     * @param runnable The task to run
+     * @return the scheduled task
+     */
+    StackerTask runAsync(Runnable runnable);
+
+    /**
+     * Runs a task off of every tick context after a delay
+     *
+     * @param runnable The task to run
+     * @param delay The delay before the task runs
+     * @return the scheduled task
+     */
+    StackerTask runAsyncDelayed(Runnable runnable, long delay);
+
+    /**
+     * Runs a task off of every tick context repeatedly
+     *
+     * @param runnable The task to run
+     * @param delay The delay before the first run
+     * @param period The delay between runs
+     * @return the scheduled task
+     */
+    StackerTask runAsyncTimer(Runnable runnable, long delay, long period);
+
+    /**
+     * @return true if the current thread is running the global context
+     */
+    boolean isGlobalThread();
+
+    /**
+     * @param entity The entity to check
+     * @return true if the current thread is running the context owning the entity
+     */
+    boolean isOwnedByCurrentRegion(Entity entity);
+
+    /**
+     * @param world The world of the chunk
+     * @param chunkX The x coordinate of the chunk
+     * @param chunkZ The z coordinate of the chunk
+     * @return true if the current thread is running the context owning the chunk
+     */
+    boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ);
+
+    /**
+     * Cancels every task scheduled by the plugin
+     */
+    void cancelAll();
+
+}
@@ -0,0 +1,18 @@
+package dev.rosewood.rosestacker.scheduler;
+
+/**
+ * A task scheduled through a {@link StackerScheduler}
+ */
+public interface StackerTask {
+
+    /**
+     * Cancels this task, a task that is already running will finish its current run
+     */
+    void cancel();
+
+    /**
+     * @return true if this task has been cancelled
+     */
+    boolean isCancelled();
+
+}
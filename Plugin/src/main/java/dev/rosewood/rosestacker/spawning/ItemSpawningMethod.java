@@ -1,8 +1,10 @@
 package dev.rosewood.rosestacker.spawning;
 
 import dev.rosewood.guiframework.framework.util.GuiUtil;
+import dev.rosewood.rosestacker.manager.ConfigurationManager;
 import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
 import dev.rosewood.rosestacker.nms.spawner.StackedSpawnerTile;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import dev.rosewood.rosestacker.stack.settings.SpawnerStackSettings;
 import dev.rosewood.rosestacker.stack.settings.conditions.spawner.ConditionTag;
@@ -66,14 +68,14 @@ public class ItemSpawningMethod implements SpawningMethod {
             spawnAmount = spawnerTile.getSpawnCount();
         }
 
-        ThreadUtils.runAsync(() -> {
+        ThreadUtils.runAsync(AsyncTaskKind.SPAWNER, stackedSpawner, () -> {
             Set<Location> spawnLocations = new HashSet<>();
             int spawnRange = spawnerTile.getSpawnRange();
             for (int i = 0; i < spawnAmount; i++) {
                 int attempts = 0;
                 while (attempts < Setting.SPAWNER_MAX_FAILED_SPAWN_ATTEMPTS.getInt()) {
                     int xOffset = this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
-                    int yOffset = !Setting.SPAWNER_USE_VERTICAL_SPAWN_RANGE.getBoolean() ? this.random.nextInt(3) - 1 : this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
+                    int yOffset = !ConfigurationManager.getSnapshot().spawnerUseVerticalSpawnRange() ? this.random.nextInt(3) - 1 : this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
                     int zOffset = this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
 
                     Location spawnLocation = stackedSpawner.getLocation().clone().add(xOffset + 0.5, yOffset, zOffset + 0.5);
@@ -4,6 +4,7 @@ import dev.rosewood.rosestacker.RoseStacker;
 import dev.rosewood.rosestacker.event.PreStackedSpawnerSpawnEvent;
 import dev.rosewood.rosestacker.hook.SpawnerFlagPersistenceHook;
 import dev.rosewood.rosestacker.hook.WorldGuardHook;
+import dev.rosewood.rosestacker.manager.ConfigurationManager;
 import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
 import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.StackManager;
@@ -11,6 +12,7 @@ import dev.rosewood.rosestacker.manager.StackSettingManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.nms.spawner.StackedSpawnerTile;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
 import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.StackedSpawner;
 import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
@@ -22,13 +24,11 @@ import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import dev.rosewood.rosestacker.utils.StackerUtils;
 import dev.rosewood.rosestacker.utils.ThreadUtils;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -36,7 +36,6 @@ import org.bukkit.Material;
 import org.bukkit.Particle;
 import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.event.entity.CreatureSpawnEvent;
@@ -90,7 +89,7 @@ public class MobSpawningMethod implements SpawningMethod {
         EntityCacheManager entityCacheManager = RoseStacker.getInstance().getManager(EntityCacheManager.class);
         StackManager stackManager = RoseStacker.getInstance().getManager(StackManager.class);
 
-        ThreadUtils.runAsync(() -> {
+        ThreadUtils.runAsync(AsyncTaskKind.SPAWNER, stackedSpawner, () -> {
             // Make sure the chunk is still loaded
             if (!stackedSpawner.getWorld().isChunkLoaded(stackedSpawner.getLocation().getBlockX() >> 4, stackedSpawner.getLocation().getBlockZ() >> 4))
                 return;
@@ -106,7 +105,7 @@ public class MobSpawningMethod implements SpawningMethod {
 
             while (attempts <= maxFailedSpawnAttempts) {
                 int xOffset = this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
-                int yOffset = !Setting.SPAWNER_USE_VERTICAL_SPAWN_RANGE.getBoolean() ? this.random.nextInt(3) - 1 : this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
+                int yOffset = !ConfigurationManager.getSnapshot().spawnerUseVerticalSpawnRange() ? this.random.nextInt(3) - 1 : this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
                 int zOffset = this.random.nextInt(spawnRange * 2 + 1) - spawnRange;
 
                 Location spawnLocation = stackedSpawner.getLocation().clone().add(xOffset + 0.5, yOffset, zOffset + 0.5);
@@ -142,14 +141,13 @@ public class MobSpawningMethod implements SpawningMethod {
             }
 
             EntityType entityType = stackedSpawner.getSpawnerTile().getSpawnerType().getOrThrow();
-            Predicate<Entity> predicate = entity -> entity.getType() == entityType;
-            Collection<Entity> nearbyEntities = entityCacheManager.getNearbyEntities(stackedSpawner.getLocation(), stackSettings.getSpawnRange(), predicate);
+            Location spawnerLocation = stackedSpawner.getLocation();
             List<StackedEntity> nearbyStackedEntities = new ArrayList<>();
-            for (Entity entity : nearbyEntities) {
+            entityCacheManager.forEachNearby(stackedSpawner.getWorld(), spawnerLocation.getX(), spawnerLocation.getY(), spawnerLocation.getZ(), stackSettings.getSpawnRange(), entityType, entity -> {
                 StackedEntity stackedEntity = stackManager.getStackedEntity((LivingEntity) entity);
                 if (stackedEntity != null)
                     nearbyStackedEntities.add(stackedEntity);
-            }
+            });
 
             int successfulSpawns;
             if (!onlyCheckConditions) {
@@ -0,0 +1,86 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosestacker.cache.ChunkMap;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Groups snapshot rows by the chunk they were captured in, so rows near a position can be found without scanning all of them.
+ * Built once per pass by a single thread and only read afterwards.
+ */
+class ChunkRowIndex {
+
+    private final ChunkMap<Bucket> buckets;
+
+    ChunkRowIndex() {
+        this.buckets = new ChunkMap<>();
+    }
+
+    /**
+     * Adds a row to the index
+     *
+     * @param row The snapshot row
+     * @param x The x coordinate of the row
+     * @param z The z coordinate of the row
+     */
+    void add(int row, double x, double z) {
+        long key = ChunkMap.key((int) Math.floor(x) >> 4, (int) Math.floor(z) >> 4);
+        this.buckets.computeIfAbsent(key, k -> new Bucket()).add(row);
+    }
+
+    /**
+     * Calls the consumer with the rows of every chunk within a horizontal range of a position.
+     * Chunks entirely outside the range are skipped, but rows of the remaining chunks may still be further away,
+     * so the caller is expected to check exact distances.
+     *
+     * @param x The x coordinate to search around
+     * @param z The z coordinate to search around
+     * @param range The horizontal range to search within
+     * @param consumer The consumer to call for each row
+     */
+    void forEachInRange(double x, double z, double range, IntConsumer consumer) {
+        if (this.buckets.size() == 0)
+            return;
+
+        double rangeSqrd = range * range;
+        int minChunkX = (int) Math.floor(x - range) >> 4, maxChunkX = (int) Math.floor(x + range) >> 4;
+        int minChunkZ = (int) Math.floor(z - range) >> 4, maxChunkZ = (int) Math.floor(z + range) >> 4;
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            double dx = distanceToChunk(x, chunkX);
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                double dz = distanceToChunk(z, chunkZ);
+                if (dx * dx + dz * dz > rangeSqrd)
+                    continue;
+
+                Bucket bucket = this.buckets.get(ChunkMap.key(chunkX, chunkZ));
+                if (bucket == null)
+                    continue;
+
+                for (int i = 0; i < bucket.size; i++)
+                    consumer.accept(bucket.rows[i]);
+            }
+        }
+    }
+
+    private static double distanceToChunk(double coordinate, int chunk) {
+        double min = chunk << 4;
+        if (coordinate < min)
+            return min - coordinate;
+        double max = min + 16;
+        return coordinate > max ? coordinate - max : 0;
+    }
+
+    private static class Bucket {
+
+        private int[] rows = new int[4];
+        private int size;
+
+        private void add(int row) {
+            if (this.size == this.rows.length)
+                this.rows = Arrays.copyOf(this.rows, this.size << 1);
+            this.rows[this.size++] = row;
+        }
+
+    }
+
+}
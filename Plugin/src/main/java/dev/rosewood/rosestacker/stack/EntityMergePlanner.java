@@ -0,0 +1,316 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosestacker.hook.WorldGuardHook;
+import dev.rosewood.rosestacker.manager.ConfigurationManager;
+import dev.rosewood.rosestacker.manager.ConfigurationManager.SettingsSnapshot;
+import dev.rosewood.rosestacker.manager.EntityCacheManager;
+import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
+import dev.rosewood.rosestacker.utils.EntityUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+
+/**
+ * Plans the merges for a batch of entity stacks in one sweep.
+ * Every stackable pair within merge range is tested once and joined with union-find into clusters,
+ * then each cluster is split into merges that respect the minimum and maximum stack sizes.
+ * Only stacks that were directly paired are ever merged together, so a merge never reaches further than the merge radius.
+ * The split is greedy first-fit, it does not search for the plan with the fewest stacks left over.
+ */
+class EntityMergePlanner {
+
+    private static final byte REGION_UNKNOWN = 0, REGION_ALLOWED = 1, REGION_DENIED = 2;
+
+    private final EntityCacheManager entityCacheManager;
+    private final Map<UUID, StackedEntity> stackedEntities;
+    private final Predicate<StackedEntity> removedFilter;
+    private final double radiusMultiplier;
+
+    private final List<StackedEntity> nodes;
+    private final Map<StackedEntity, Integer> indices;
+    private int[] parents, sizes;
+    private byte[] regionStates;
+    private long[] edges;
+    private int edgeCount;
+
+    /**
+     * @param entityCacheManager The cache to find nearby entities with
+     * @param stackedEntities The stacks of the world, by entity UUID
+     * @param removedFilter Tests if a stack has been removed and should be ignored
+     * @param radiusMultiplier The multiplier to apply to merge radiuses
+     */
+    EntityMergePlanner(EntityCacheManager entityCacheManager, Map<UUID, StackedEntity> stackedEntities, Predicate<StackedEntity> removedFilter, double radiusMultiplier) {
+        this.entityCacheManager = entityCacheManager;
+        this.stackedEntities = stackedEntities;
+        this.removedFilter = removedFilter;
+        this.radiusMultiplier = radiusMultiplier;
+
+        this.nodes = new ArrayList<>();
+        this.indices = new IdentityHashMap<>();
+        this.parents = new int[16];
+        this.sizes = new int[16];
+        this.regionStates = new byte[16];
+        this.edges = new long[16];
+    }
+
+    /**
+     * Plans the merges for the given stacks and any stacks within merge range of them
+     *
+     * @param stacks The stacks to plan merges for
+     * @return the merges to apply, no stack appears in more than one merge
+     */
+    List<Merge> plan(Collection<StackedEntity> stacks) {
+        for (StackedEntity stackedEntity : stacks)
+            if (stackedEntity.getStackSettings() != null && !this.removedFilter.test(stackedEntity))
+                this.indexOf(stackedEntity);
+
+        // Only the given stacks look for neighbours, any neighbours they find are pulled into the graph as well
+        int queried = this.nodes.size();
+        SettingsSnapshot settings = ConfigurationManager.getSnapshot();
+        boolean mergeEntireChunk = settings.entityMergeEntireChunk();
+        boolean requireLineOfSight = settings.entityRequireLineOfSight();
+        Location location = new Location(null, 0, 0, 0);
+        Location otherLocation = new Location(null, 0, 0, 0);
+        for (int i = 0; i < queried; i++) {
+            int index = i;
+            StackedEntity stackedEntity = this.nodes.get(index);
+            EntityStackSettings stackSettings = stackedEntity.getStackSettings();
+            LivingEntity entity = stackedEntity.getEntity();
+            int signature = stackedEntity.getSignature();
+            if (!this.testRegion(index, location))
+                continue;
+
+            Consumer<Entity> collector = otherEntity -> {
+                if (entity == otherEntity)
+                    return;
+
+                // Stacks with different signatures can't stack, so only the stacks sharing a signature bucket are compared
+                StackedEntity other = this.stackedEntities.get(otherEntity.getUniqueId());
+                if (other == null || this.removedFilter.test(other) || other.getStackSettings() == null || other.getSignature() != signature)
+                    return;
+
+                // A pair of given stacks is tested by whichever of the two looked for neighbours first
+                Integer otherIndex = this.indices.get(other);
+                if (otherIndex != null && otherIndex < index)
+                    return;
+
+                if (!stackSettings.testCanStackWith(stackedEntity, other, false)
+                        || (requireLineOfSight && !EntityUtils.hasLineOfSight(entity, otherEntity, 0.75, false)))
+                    return;
+
+                int target = otherIndex != null ? otherIndex : this.indexOf(other);
+                if (!this.testRegion(target, otherLocation))
+                    return;
+
+                this.addEdge(index, target);
+            };
+
+            StackSnapshot.getLocation(stackedEntity, entity, location);
+            if (!mergeEntireChunk) {
+                this.entityCacheManager.forEachNearby(entity.getWorld(), location.getX(), location.getY(), location.getZ(), stackSettings.getMergeRadius() * this.radiusMultiplier, entity.getType(), collector);
+            } else {
+                this.entityCacheManager.forEachInChunk(entity.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, entity.getType(), collector);
+            }
+        }
+
+        return this.buildMerges();
+    }
+
+    /**
+     * Splits every cluster into merges, greedily.
+     * The best stack of a cluster that is left becomes the head of a merge, and takes in each of its own neighbours
+     * that still fits, largest first. This repeats until every stack in the cluster has either been a head or been merged.
+     * Stack sizes and ages are copied once before sorting, so stacks changing on other threads can't break the sort
+     * and every size check in the plan agrees with the order it was built in.
+     *
+     * @return the merges to apply
+     */
+    private List<Merge> buildMerges() {
+        int nodeCount = this.nodes.size();
+        if (this.edgeCount == 0)
+            return List.of();
+
+        // Group nodes by cluster and build a compact adjacency list of the tested pairs
+        int[] degrees = new int[nodeCount + 1];
+        for (int i = 0; i < this.edgeCount; i++) {
+            degrees[(int) (this.edges[i] >>> 32) + 1]++;
+            degrees[(int) this.edges[i] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++)
+            degrees[i + 1] += degrees[i];
+
+        int[] adjacency = new int[this.edgeCount * 2];
+        int[] fill = Arrays.copyOf(degrees, nodeCount);
+        for (int i = 0; i < this.edgeCount; i++) {
+            int first = (int) (this.edges[i] >>> 32);
+            int second = (int) this.edges[i];
+            adjacency[fill[first]++] = second;
+            adjacency[fill[second]++] = first;
+        }
+
+        Map<Integer, List<Integer>> clusters = new HashMap<>();
+        for (int i = 0; i < nodeCount; i++) {
+            int root = this.find(i);
+            if (this.sizes[root] > 1)
+                clusters.computeIfAbsent(root, key -> new ArrayList<>(this.sizes[key])).add(i);
+        }
+
+        int[] stackSizes = new int[nodeCount];
+        for (List<Integer> cluster : clusters.values())
+            for (int index : cluster)
+                stackSizes[index] = this.nodes.get(index).getStackSize();
+
+        boolean countOnlyIndividuals = ConfigurationManager.getSnapshot().entityMinStackCountOnlyIndividuals();
+        boolean[] assigned = new boolean[nodeCount];
+        List<Merge> merges = new ArrayList<>();
+        for (List<Integer> cluster : clusters.values()) {
+            cluster.sort(this.headOrder(cluster, stackSizes));
+            for (int head : cluster) {
+                if (assigned[head])
+                    continue;
+
+                assigned[head] = true;
+                StackedEntity increased = this.nodes.get(head);
+                EntityStackSettings stackSettings = increased.getStackSettings();
+
+                List<Integer> candidates = new ArrayList<>(degrees[head + 1] - degrees[head]);
+                for (int i = degrees[head]; i < degrees[head + 1]; i++)
+                    if (!assigned[adjacency[i]])
+                        candidates.add(adjacency[i]);
+                if (candidates.isEmpty())
+                    continue;
+
+                candidates.sort(Comparator.comparingInt((Integer index) -> stackSizes[index]).reversed());
+                int totalSize = countOnlyIndividuals ? 1 : stackSizes[head];
+                int totalStackSize = stackSizes[head];
+                List<Integer> removable = new ArrayList<>(candidates.size());
+                for (int candidate : candidates) {
+                    if (totalStackSize + stackSizes[candidate] <= stackSettings.getMaxStackSize()) {
+                        totalSize += countOnlyIndividuals ? 1 : stackSizes[candidate];
+                        totalStackSize += stackSizes[candidate];
+                        removable.add(candidate);
+                    }
+                }
+
+                if (removable.isEmpty() || totalSize < stackSettings.getMinStackSize())
+                    continue;
+
+                List<StackedEntity> removableStacks = new ArrayList<>(removable.size());
+                for (int index : removable) {
+                    assigned[index] = true;
+                    removableStacks.add(this.nodes.get(index));
+                }
+                merges.add(new Merge(increased, removableStacks));
+            }
+        }
+
+        return merges;
+    }
+
+    /**
+     * Gets the order heads are picked in for a cluster, matching {@link StackedEntity#compareTo(StackedEntity)}.
+     * Every key is copied into an array before sorting, so the comparator never reads anything that can change.
+     *
+     * @param cluster The nodes of the cluster, all nodes of a cluster share the same entity type
+     * @param stackSizes The stack sizes of the nodes, copied before planning
+     * @return a comparator that puts the best heads first
+     */
+    private Comparator<Integer> headOrder(List<Integer> cluster, int[] stackSizes) {
+        StackedEntity sampleStack = this.nodes.get(cluster.get(0));
+        if (ConfigurationManager.getSnapshot().entityStackFlyingDownwards() && sampleStack.getStackSettings().getEntityTypeData().flyingMob()) {
+            Location location = new Location(null, 0, 0, 0);
+            double[] heights = new double[this.nodes.size()];
+            for (int index : cluster) {
+                StackedEntity stackedEntity = this.nodes.get(index);
+                heights[index] = StackSnapshot.getLocation(stackedEntity, stackedEntity.getEntity(), location).getY();
+            }
+            return Comparator.comparingDouble(index -> heights[index]);
+        }
+
+        int[] ticksLived = new int[this.nodes.size()];
+        for (int index : cluster)
+            ticksLived[index] = this.nodes.get(index).getEntity().getTicksLived();
+        return Comparator.comparingInt((Integer index) -> stackSizes[index]).thenComparingInt(index -> ticksLived[index]).reversed();
+    }
+
+    private boolean testRegion(int index, Location location) {
+        if (this.regionStates[index] == REGION_UNKNOWN) {
+            StackedEntity stackedEntity = this.nodes.get(index);
+            boolean allowed = WorldGuardHook.testLocation(StackSnapshot.getLocation(stackedEntity, stackedEntity.getEntity(), location));
+            this.regionStates[index] = allowed ? REGION_ALLOWED : REGION_DENIED;
+        }
+
+        return this.regionStates[index] == REGION_ALLOWED;
+    }
+
+    private int indexOf(StackedEntity stackedEntity) {
+        Integer existing = this.indices.get(stackedEntity);
+        if (existing != null)
+            return existing;
+
+        int index = this.nodes.size();
+        if (index == this.parents.length) {
+            int capacity = index << 1;
+            this.parents = Arrays.copyOf(this.parents, capacity);
+            this.sizes = Arrays.copyOf(this.sizes, capacity);
+            this.regionStates = Arrays.copyOf(this.regionStates, capacity);
+        }
+
+        this.nodes.add(stackedEntity);
+        this.indices.put(stackedEntity, index);
+        this.parents[index] = index;
+        this.sizes[index] = 1;
+        return index;
+    }
+
+    private void addEdge(int first, int second) {
+        if (this.edgeCount == this.edges.length)
+            this.edges = Arrays.copyOf(this.edges, this.edgeCount << 1);
+        this.edges[this.edgeCount++] = ((long) first << 32) | second;
+        this.union(first, second);
+    }
+
+    private int find(int index) {
+        while (this.parents[index] != index) {
+            this.parents[index] = this.parents[this.parents[index]];
+            index = this.parents[index];
+        }
+        return index;
+    }
+
+    private void union(int first, int second) {
+        int firstRoot = this.find(first);
+        int secondRoot = this.find(second);
+        if (firstRoot == secondRoot)
+            return;
+
+        if (this.sizes[firstRoot] < this.sizes[secondRoot]) {
+            int swap = firstRoot;
+            firstRoot = secondRoot;
+            secondRoot = swap;
+        }
+
+        this.parents[secondRoot] = firstRoot;
+        this.sizes[firstRoot] += this.sizes[secondRoot];
+    }
+
+    /**
+     * A planned merge of stacks into a single head stack
+     *
+     * @param increased The stack that takes in the others
+     * @param removable The stacks merged into the head
+     */
+    record Merge(StackedEntity increased, List<StackedEntity> removable) { }
+
+}
@@ -0,0 +1,192 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
+import dev.rosewood.rosestacker.scheduler.StackerTask;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
+import org.bukkit.Bukkit;
+
+/**
+ * Scales how hard the plugin works based on recent tick times.
+ * Recent MSPT is turned into a pressure between 0 and 1, smoothed over time so single spikes don't cause sudden changes.
+ * At no pressure everything runs as configured, at full pressure every value reaches its configured bound.
+ */
+public class PerformanceController {
+
+    private static final long SAMPLE_INTERVAL = 20;
+    private static final double TICK_MILLIS = 50;
+
+    private final boolean enabled;
+    private final double lowMspt, highMspt, smoothing;
+    private final double maxStackIntervalMultiplier, maxTagIntervalMultiplier, maxMergeRadiusMultiplier;
+    private final int minStacksPerPass;
+
+    private volatile double mspt, pressure;
+    private long lastSampleTime;
+    private StackerTask sampleTask;
+
+    public PerformanceController() {
+        this(Setting.PERFORMANCE_MSPT_CONTROLLER.getBoolean(),
+                Setting.PERFORMANCE_MSPT_CONTROLLER_LOW_MSPT.getDouble(),
+                Setting.PERFORMANCE_MSPT_CONTROLLER_HIGH_MSPT.getDouble(),
+                Setting.PERFORMANCE_MSPT_CONTROLLER_SMOOTHING.getDouble(),
+                Setting.PERFORMANCE_MSPT_CONTROLLER_MAX_STACK_INTERVAL_MULTIPLIER.getDouble(),
+                Setting.PERFORMANCE_MSPT_CONTROLLER_MAX_TAG_INTERVAL_MULTIPLIER.getDouble(),
+                Setting.PERFORMANCE_MSPT_CONTROLLER_MAX_MERGE_RADIUS_MULTIPLIER.getDouble(),
+                Setting.PERFORMANCE_MSPT_CONTROLLER_MIN_STACKS_PER_PASS.getInt());
+    }
+
+    /**
+     * @param enabled true if the controller should adjust anything
+     * @param lowMspt The MSPT at which pressure starts to rise
+     * @param highMspt The MSPT at which pressure is full, at least 1 above lowMspt
+     * @param smoothing How much of the way to the target pressure each update moves, between 0.01 and 1
+     * @param maxStackIntervalMultiplier The stack interval multiplier at full pressure, at least 1
+     * @param maxTagIntervalMultiplier The nametag and hologram interval multiplier at full pressure, at least 1
+     * @param maxMergeRadiusMultiplier The merge radius multiplier at full pressure, at least 0
+     * @param minStacksPerPass The stacks per pass at full pressure, or 0 to never limit them
+     */
+    PerformanceController(boolean enabled, double lowMspt, double highMspt, double smoothing, double maxStackIntervalMultiplier,
+                          double maxTagIntervalMultiplier, double maxMergeRadiusMultiplier, int minStacksPerPass) {
+        this.enabled = enabled;
+        this.lowMspt = lowMspt;
+        this.highMspt = Math.max(lowMspt + 1, highMspt);
+        this.smoothing = Math.max(0.01, Math.min(1, smoothing));
+        this.maxStackIntervalMultiplier = Math.max(1, maxStackIntervalMultiplier);
+        this.maxTagIntervalMultiplier = Math.max(1, maxTagIntervalMultiplier);
+        this.maxMergeRadiusMultiplier = Math.max(0, maxMergeRadiusMultiplier);
+        this.minStacksPerPass = minStacksPerPass;
+    }
+
+    /**
+     * Starts sampling tick times, does nothing if the controller is disabled
+     */
+    public void start() {
+        if (!this.enabled)
+            return;
+
+        this.lastSampleTime = System.nanoTime();
+        this.sampleTask = ThreadUtils.getScheduler().runGlobalTimer(this::sample, SAMPLE_INTERVAL, SAMPLE_INTERVAL);
+    }
+
+    public void stop() {
+        if (this.sampleTask != null) {
+            this.sampleTask.cancel();
+            this.sampleTask = null;
+        }
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        double interval = (now - this.lastSampleTime) / 1_000_000D / SAMPLE_INTERVAL;
+        this.lastSampleTime = now;
+
+        double mspt;
+        try {
+            mspt = Bukkit.getServer().getAverageTickTime();
+        } catch (NoSuchMethodError e) {
+            // Without the server's tick times only ticks that ran long can be seen, anything on time counts as no load
+            mspt = interval > TICK_MILLIS ? interval : 0;
+        }
+
+        this.update(mspt);
+    }
+
+    /**
+     * Feeds a tick time into the controller
+     *
+     * @param mspt The recent average milliseconds per tick
+     */
+    public void update(double mspt) {
+        this.mspt = mspt;
+        double target = Math.max(0, Math.min(1, (mspt - this.lowMspt) / (this.highMspt - this.lowMspt)));
+        this.pressure += (target - this.pressure) * this.smoothing;
+    }
+
+    /**
+     * @return true if the controller is adjusting anything
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @return the last MSPT fed into the controller
+     */
+    public double getMspt() {
+        return this.mspt;
+    }
+
+    /**
+     * @return the current pressure, between 0 for no load and 1 for full load
+     */
+    public double getPressure() {
+        return this.pressure;
+    }
+
+    /**
+     * @return how many times longer the wait between stacking passes should be
+     */
+    public double getStackIntervalMultiplier() {
+        return this.scale(this.maxStackIntervalMultiplier);
+    }
+
+    /**
+     * @return how many times longer the wait between nametag and hologram updates should be
+     */
+    public double getTagIntervalMultiplier() {
+        return this.scale(this.maxTagIntervalMultiplier);
+    }
+
+    /**
+     * @return the multiplier to apply to merge radiuses
+     */
+    public double getMergeRadiusMultiplier() {
+        return this.scale(this.maxMergeRadiusMultiplier);
+    }
+
+    /**
+     * Gets how many stacks a single pass may check.
+     * The limit shrinks towards the configured minimum as pressure rises, and is never above the configured value.
+     *
+     * @param configured The configured maximum stacks per pass, or -1 for no limit
+     * @return the maximum stacks per pass, or -1 for no limit
+     */
+    public int getMaxStacksPerPass(int configured) {
+        double pressure = this.pressure;
+        if (!this.enabled || this.minStacksPerPass <= 0 || pressure < 0.01)
+            return configured;
+
+        int limit = (int) Math.min(Integer.MAX_VALUE, Math.round(this.minStacksPerPass / pressure));
+        return configured > 0 ? Math.min(configured, limit) : limit;
+    }
+
+    private double scale(double bound) {
+        if (!this.enabled)
+            return 1;
+        return 1 + (bound - 1) * this.pressure;
+    }
+
+    /**
+     * Spaces out runs of a repeating task by an interval multiplier.
+     * Every time the task fires it earns a fraction of a run, so a multiplier of 1.5 runs two of every three times.
+     */
+    public static class Throttle {
+
+        private double credit = 1;
+
+        /**
+         * @param intervalMultiplier How many times longer the wait between runs should be
+         * @return true if the task should run this time
+         */
+        public synchronized boolean tryRun(double intervalMultiplier) {
+            this.credit += 1 / Math.max(1, intervalMultiplier);
+            if (this.credit < 1)
+                return false;
+
+            this.credit = Math.min(this.credit - 1, 1);
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+package dev.rosewood.rosestacker.stack;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which entities were recently removed by stacking so that passes running at the same time skip them.
+ * Entities are kept in open addressing tables of UUID hashes, one for the current epoch and one for the previous,
+ * so an entity is remembered for between one and two epochs and expiring entries is a matter of dropping the older table.
+ * Lookups never lock and only read a few slots, adding takes a lock since removals are far rarer than lookups.
+ */
+class RemovedEntityTracker {
+
+    private static final int MIN_CAPACITY = 64;
+
+    private final long epochLength;
+    private volatile AtomicLongArray current, previous;
+    private int currentSize;
+    private long epochStart;
+
+    /**
+     * @param epochLength The length of an epoch in nanoseconds
+     */
+    RemovedEntityTracker(long epochLength) {
+        this.epochLength = epochLength;
+        this.current = new AtomicLongArray(MIN_CAPACITY);
+        this.previous = new AtomicLongArray(MIN_CAPACITY);
+        this.epochStart = System.nanoTime();
+    }
+
+    /**
+     * @param uuid The UUID of the entity
+     * @return true if the entity was removed in the current or previous epoch
+     */
+    boolean contains(UUID uuid) {
+        long key = key(uuid);
+        return contains(this.current, key) || contains(this.previous, key);
+    }
+
+    /**
+     * Marks an entity as removed
+     *
+     * @param uuid The UUID of the entity
+     */
+    synchronized void add(UUID uuid) {
+        this.expire();
+
+        AtomicLongArray table = this.current;
+        if ((this.currentSize + 1) * 2 > table.length()) {
+            AtomicLongArray grown = new AtomicLongArray(table.length() * 2);
+            for (int i = 0; i < table.length(); i++) {
+                long key = table.get(i);
+                if (key != 0)
+                    insert(grown, key);
+            }
+            this.current = table = grown;
+        }
+
+        if (insert(table, key(uuid)))
+            this.currentSize++;
+    }
+
+    /**
+     * Starts a new epoch if the current one has run out, forgetting everything from the previous epoch
+     */
+    synchronized void expire() {
+        long now = System.nanoTime();
+        if (now - this.epochStart < this.epochLength)
+            return;
+
+        // Size the new table for about as many removals as the last epoch had so it rarely needs to grow
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, this.currentSize) * 4));
+        this.previous = this.current;
+        this.current = new AtomicLongArray(capacity);
+        this.currentSize = 0;
+        this.epochStart = now;
+    }
+
+    private static long key(UUID uuid) {
+        long key = uuid.getMostSignificantBits() * 0x9E3779B97F4A7C15L ^ uuid.getLeastSignificantBits();
+        return key == 0 ? 1 : key; // 0 marks an empty slot
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private static boolean contains(AtomicLongArray table, long key) {
+        // Tables are never more than half full, so there is always an empty slot to stop at
+        int mask = table.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long value = table.get(i);
+            if (value == key)
+                return true;
+            if (value == 0)
+                return false;
+        }
+    }
+
+    private static boolean insert(AtomicLongArray table, long key) {
+        int mask = table.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long value = table.get(i);
+            if (value == key)
+                return false;
+            if (value == 0) {
+                table.set(i, key);
+                return true;
+            }
+        }
+    }
+
+}
@@ -10,6 +10,9 @@ import org.bukkit.entity.Player;
 
 public abstract class Stack<T extends StackSettings> {
 
+    private volatile StackSnapshot snapshot;
+    private volatile int snapshotIndex = -1;
+
     public abstract int getStackSize();
 
     public abstract Location getLocation();
@@ -30,6 +33,22 @@ public abstract class Stack<T extends StackSettings> {
         return world;
     }
 
+    /**
+     * @return the latest snapshot this Stack was captured in, or null if it has not been captured yet
+     */
+    public StackSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    int getSnapshotIndex() {
+        return this.snapshotIndex;
+    }
+
+    void setSnapshot(StackSnapshot snapshot, int index) {
+        this.snapshotIndex = index;
+        this.snapshot = snapshot;
+    }
+
     protected Set<Player> getPlayersInVisibleRange() {
         Set<Player> players = new HashSet<>();
 
@@ -0,0 +1,126 @@
+package dev.rosewood.rosestacker.stack;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Guards the contents of a stack.
+ * Changes run while holding the lock, and once a stack has been merged into another or killed it is retired so no
+ * later change can run on it. Merges take the locks of both stacks in creation order so they can never deadlock.
+ */
+class StackLock {
+
+    private static final AtomicLong LOCK_ORDER = new AtomicLong();
+
+    private final ReentrantLock lock;
+    private final long lockOrder;
+    private volatile boolean retired;
+
+    StackLock() {
+        this.lock = new ReentrantLock();
+        this.lockOrder = LOCK_ORDER.getAndIncrement();
+    }
+
+    /**
+     * Runs an action while holding the lock, unless the stack has already been retired
+     *
+     * @param action The action to run
+     * @return true if the action ran, false if the stack was retired
+     */
+    boolean runLocked(Runnable action) {
+        this.lock.lock();
+        try {
+            if (this.retired)
+                return false;
+
+            action.run();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a value while holding the lock, unless the stack has already been retired
+     *
+     * @param action The action to run
+     * @param <T> The type of value
+     * @return the value the action returned, or null if the stack was retired
+     */
+    <T> T callLocked(Supplier<T> action) {
+        this.lock.lock();
+        try {
+            if (this.retired)
+                return null;
+
+            return action.get();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Retires the stack and then runs an action while holding the lock, unless the stack has already been retired
+     *
+     * @param action The action to run
+     * @return true if this call retired the stack, false if it was already retired
+     */
+    boolean runRetiring(Runnable action) {
+        this.lock.lock();
+        try {
+            if (this.retired)
+                return false;
+
+            this.retired = true;
+            action.run();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a merge of another stack into this one while holding both locks, then retires the other stack
+     *
+     * @param other The lock of the stack being merged into this one
+     * @param merge The action that moves the other stack into this one
+     * @return true if the merge ran, false if either stack was already retired
+     */
+    boolean runMerge(StackLock other, Runnable merge) {
+        StackLock first = this.lockOrder < other.lockOrder ? this : other;
+        StackLock second = first == this ? other : this;
+        first.lock.lock();
+        second.lock.lock();
+        try {
+            if (this.retired || other.retired)
+                return false;
+
+            merge.run();
+            other.retired = true;
+            return true;
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+        }
+    }
+
+    /**
+     * Retires the stack, must be called while holding the lock
+     *
+     * @throws IllegalStateException if the current thread does not hold the lock
+     */
+    void retire() {
+        if (!this.lock.isHeldByCurrentThread())
+            throw new IllegalStateException("Stack lock is not held by the current thread");
+        this.retired = true;
+    }
+
+    /**
+     * @return true if the stack has been merged into another stack or killed
+     */
+    boolean isRetired() {
+        return this.retired;
+    }
+
+}
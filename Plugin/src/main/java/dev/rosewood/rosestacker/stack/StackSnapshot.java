@@ -0,0 +1,273 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosestacker.utils.ItemUtils;
+import dev.rosewood.rosestacker.utils.PersistentDataUtils;
+import java.util.Arrays;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+
+/**
+ * A point-in-time copy of the positions and states of the stacks and players in a world.
+ * Captured on the main thread so that async passes can read consistent data without touching live entities.
+ * Each row is owned by either a {@link Stack} or a {@link Player}, and stacks remember the row they were last captured in.
+ */
+public class StackSnapshot {
+
+    private static final byte VALID = 1;
+    private static final byte ON_GROUND = 1 << 1;
+    private static final byte IN_WATER = 1 << 2;
+    private static final byte HOLDING_STACKING_TOOL = 1 << 3;
+    private static final byte UNSTACKABLE = 1 << 4;
+
+    private final World world;
+    private Object[] owners;
+    private Entity[] entities;
+    private double[] x, y, z;
+    private float[] eyeHeights;
+    private byte[] flags;
+    private int size;
+
+    StackSnapshot(World world, int capacity) {
+        this.world = world;
+        capacity = Math.max(16, capacity);
+        this.owners = new Object[capacity];
+        this.entities = new Entity[capacity];
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.z = new double[capacity];
+        this.eyeHeights = new float[capacity];
+        this.flags = new byte[capacity];
+    }
+
+    /**
+     * Captures a row for a stack or player, must be called on the main thread
+     *
+     * @param owner The Stack or Player that owns the row
+     * @param entity The entity to read from
+     * @param location A reusable Location to read into
+     * @param checkWater true to capture if the entity is standing in water
+     * @param checkStackingTool true to capture if a player is holding the stacking tool,
+     *                          or the eye height and unstackable state of any other living entity
+     */
+    void capture(Object owner, Entity entity, Location location, boolean checkWater, boolean checkStackingTool) {
+        if (this.size == this.owners.length)
+            this.grow();
+
+        int index = this.size++;
+        entity.getLocation(location);
+        this.owners[index] = owner;
+        this.entities[index] = entity;
+        this.x[index] = location.getX();
+        this.y[index] = location.getY();
+        this.z[index] = location.getZ();
+
+        byte flags = 0;
+        if (entity.isValid() && entity.getWorld() == this.world)
+            flags |= VALID;
+        if (entity.isOnGround())
+            flags |= ON_GROUND;
+        if (checkWater && location.getBlock().getType() == Material.WATER)
+            flags |= IN_WATER;
+        if (checkStackingTool) {
+            if (entity instanceof Player player) {
+                if (ItemUtils.isStackingTool(player.getInventory().getItemInMainHand()))
+                    flags |= HOLDING_STACKING_TOOL;
+            } else if (entity instanceof LivingEntity livingEntity) {
+                this.eyeHeights[index] = (float) livingEntity.getEyeHeight(true);
+                if (PersistentDataUtils.isUnstackable(livingEntity))
+                    flags |= UNSTACKABLE;
+            }
+        }
+        this.flags[index] = flags;
+    }
+
+    /**
+     * Makes the captured rows visible to the stacks that own them.
+     * No rows may be captured after this is called.
+     */
+    void publish() {
+        for (int i = 0; i < this.size; i++)
+            if (this.owners[i] instanceof Stack<?> stack)
+                stack.setSnapshot(this, i);
+    }
+
+    /**
+     * Gets the row a stack was captured in
+     *
+     * @param stack The stack
+     * @return the row of the stack in this snapshot, or -1 if it was not captured in this snapshot
+     */
+    public int indexOf(Stack<?> stack) {
+        int index = stack.getSnapshotIndex();
+        return index >= 0 && index < this.size && this.owners[index] == stack ? index : -1;
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public Object getOwner(int index) {
+        return this.owners[index];
+    }
+
+    public Entity getEntity(int index) {
+        return this.entities[index];
+    }
+
+    public double getX(int index) {
+        return this.x[index];
+    }
+
+    public double getY(int index) {
+        return this.y[index];
+    }
+
+    public double getZ(int index) {
+        return this.z[index];
+    }
+
+    public boolean isValid(int index) {
+        return (this.flags[index] & VALID) != 0;
+    }
+
+    public boolean isOnGround(int index) {
+        return (this.flags[index] & ON_GROUND) != 0;
+    }
+
+    public boolean isInWater(int index) {
+        return (this.flags[index] & IN_WATER) != 0;
+    }
+
+    /**
+     * @param index The row of a player
+     * @return true if the player was holding the stacking tool, only captured if requested
+     */
+    public boolean isHoldingStackingTool(int index) {
+        return (this.flags[index] & HOLDING_STACKING_TOOL) != 0;
+    }
+
+    /**
+     * @param index The row of a living entity
+     * @return true if the entity was marked as unstackable, only captured if a player was holding the stacking tool
+     */
+    public boolean isUnstackable(int index) {
+        return (this.flags[index] & UNSTACKABLE) != 0;
+    }
+
+    /**
+     * @param index The row of a living entity
+     * @return the eye height of the entity, only captured if a player was holding the stacking tool
+     */
+    public double getEyeHeight(int index) {
+        return this.eyeHeights[index];
+    }
+
+    /**
+     * Gets the squared distance between two rows
+     *
+     * @param first The first row
+     * @param second The second row
+     * @return the squared distance between the two rows
+     */
+    public double distanceSquared(int first, int second) {
+        double dx = this.x[first] - this.x[second];
+        double dy = this.y[first] - this.y[second];
+        double dz = this.z[first] - this.z[second];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Checks if a stack is valid, using its latest snapshot if it has one or the live entity otherwise
+     *
+     * @param stack The stack
+     * @param entity The entity of the stack
+     * @return true if the stack is valid
+     */
+    public static boolean isValid(Stack<?> stack, Entity entity) {
+        StackSnapshot snapshot = stack.getSnapshot();
+        int index = snapshot == null ? -1 : snapshot.indexOf(stack);
+        return index >= 0 ? snapshot.isValid(index) : entity.isValid();
+    }
+
+    /**
+     * Checks if a stack is valid using only its latest snapshot, so it is safe to call from any thread.
+     * A stack that has not been captured yet was created since the latest capture and counts as new, and so as valid,
+     * which lets a new stack merge before the server has added its entity to the world. The next capture records whether it did.
+     *
+     * @param stack The stack
+     * @return true if the stack was valid when it was last captured, or has not been captured yet
+     */
+    public static boolean isValidOrNew(Stack<?> stack) {
+        StackSnapshot snapshot = stack.getSnapshot();
+        int index = snapshot == null ? -1 : snapshot.indexOf(stack);
+        return index < 0 || snapshot.isValid(index);
+    }
+
+    /**
+     * Checks if a stack is on the ground, using its latest snapshot if it has one or the live entity otherwise
+     *
+     * @param stack The stack
+     * @param entity The entity of the stack
+     * @return true if the stack is on the ground
+     */
+    public static boolean isOnGround(Stack<?> stack, Entity entity) {
+        StackSnapshot snapshot = stack.getSnapshot();
+        int index = snapshot == null ? -1 : snapshot.indexOf(stack);
+        return index >= 0 ? snapshot.isOnGround(index) : entity.isOnGround();
+    }
+
+    /**
+     * Checks if a stack is in water, using its latest snapshot if it has one or the live entity otherwise.
+     * Snapshots only capture water if {@link dev.rosewood.rosestacker.manager.ConfigurationManager.Setting#ENTITY_DONT_STACK_IF_IN_WATER} is enabled.
+     *
+     * @param stack The stack
+     * @param entity The entity of the stack
+     * @return true if the stack is in water
+     */
+    public static boolean isInWater(Stack<?> stack, Entity entity) {
+        StackSnapshot snapshot = stack.getSnapshot();
+        int index = snapshot == null ? -1 : snapshot.indexOf(stack);
+        return index >= 0 ? snapshot.isInWater(index) : entity.getLocation().getBlock().getType() == Material.WATER;
+    }
+
+    /**
+     * Gets the location of a stack, using its latest snapshot if it has one or the live entity otherwise
+     *
+     * @param stack The stack
+     * @param entity The entity of the stack
+     * @param location The Location to read into
+     * @return the given Location
+     */
+    public static Location getLocation(Stack<?> stack, Entity entity, Location location) {
+        StackSnapshot snapshot = stack.getSnapshot();
+        int index = snapshot == null ? -1 : snapshot.indexOf(stack);
+        if (index < 0)
+            return entity.getLocation(location);
+
+        location.setWorld(snapshot.world);
+        location.setX(snapshot.x[index]);
+        location.setY(snapshot.y[index]);
+        location.setZ(snapshot.z[index]);
+        return location;
+    }
+
+    private void grow() {
+        int capacity = this.owners.length << 1;
+        this.owners = Arrays.copyOf(this.owners, capacity);
+        this.entities = Arrays.copyOf(this.entities, capacity);
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.z = Arrays.copyOf(this.z, capacity);
+        this.eyeHeights = Arrays.copyOf(this.eyeHeights, capacity);
+        this.flags = Arrays.copyOf(this.flags, capacity);
+    }
+
+}
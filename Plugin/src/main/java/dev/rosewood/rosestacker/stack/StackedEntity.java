@@ -9,14 +9,18 @@ import dev.rosewood.rosestacker.event.AsyncEntityDeathEvent;
 import dev.rosewood.rosestacker.event.EntityStackMultipleDeathEvent;
 import dev.rosewood.rosestacker.event.EntityStackMultipleDeathEvent.EntityDrops;
 import dev.rosewood.rosestacker.hook.NPCsHook;
+import dev.rosewood.rosestacker.manager.ConfigurationManager;
 import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
 import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.LocaleManager;
+import dev.rosewood.rosestacker.manager.NametagManager;
 import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
+import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
 import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.utils.DataUtils;
 import dev.rosewood.rosestacker.utils.EntitySpawnUtil;
@@ -51,10 +55,20 @@ import org.bukkit.util.Vector;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * An entity stack.
+ * Every change to the contents of a stack, from the async stacking passes or the main thread, happens while holding the lock of that stack.
+ * Merges take both locks in a fixed order, and a stack that has been merged into another or killed is retired so no later change can touch it.
+ * Only the contents change under the lock, displays are refreshed and entities are spawned after letting go of it.
+ * Reading the stack size never takes the lock.
+ */
 public class StackedEntity extends Stack<EntityStackSettings> implements Comparable<StackedEntity> {
 
-    private LivingEntity entity;
-    private StackedEntityDataStorage stackedEntityDataStorage;
+    private final StackLock lock;
+
+    // Replaced while holding the lock, read from any thread without it
+    private volatile LivingEntity entity;
+    private volatile StackedEntityDataStorage stackedEntityDataStorage;
     private int npcCheckCounter;
 
     private String displayName;
@@ -62,18 +76,39 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
 
     private EntityStackSettings stackSettings;
 
+    // Where and at what size this stack was last checked for nearby stacks, a size of 0 means it has never been checked
+    private double checkedX, checkedY, checkedZ;
+    private int checkedStackSize;
+
+    // Hash of the properties this stack is compared by on its own, only stacks with the same signature can stack together
+    private volatile int signature;
+    private volatile boolean signatureValid;
+
     public StackedEntity(LivingEntity entity, StackedEntityDataStorage stackedEntityDataStorage) {
+        this(entity, stackedEntityDataStorage, entity == null ? null : RoseStacker.getInstance().getManager(StackSettingManager.class).getEntityStackSettings(entity));
+
+        this.npcCheckCounter = NPCsHook.anyEnabled() ? 5 : 0;
+        if (this.entity != null)
+            this.updateDisplay();
+    }
+
+    /**
+     * Creates a stack without looking up its settings or updating its display
+     *
+     * @param entity The entity at the front of the stack, nullable
+     * @param stackedEntityDataStorage The data storage of the stack
+     * @param stackSettings The stack settings, nullable
+     */
+    StackedEntity(LivingEntity entity, StackedEntityDataStorage stackedEntityDataStorage, EntityStackSettings stackSettings) {
+        this.lock = new StackLock();
+
         this.entity = entity;
         this.stackedEntityDataStorage = stackedEntityDataStorage;
-        this.npcCheckCounter = NPCsHook.anyEnabled() ? 5 : 0;
 
         this.displayName = null;
         this.displayNameVisible = false;
 
-        if (this.entity != null) {
-            this.stackSettings = RoseStacker.getInstance().getManager(StackSettingManager.class).getEntityStackSettings(this.entity);
-            this.updateDisplay();
-        }
+        this.stackSettings = stackSettings;
     }
 
     public StackedEntity(LivingEntity entity) {
@@ -101,9 +136,73 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         if (entity == null || entity == this.entity)
             return;
 
-        this.entity = entity;
-        this.stackedEntityDataStorage.updateEntity(entity);
-        this.updateDisplay();
+        boolean updated = this.runLocked(() -> {
+            this.entity = entity;
+            this.signatureValid = false;
+            this.stackedEntityDataStorage.updateEntity(entity);
+        });
+
+        if (updated)
+            this.updateDisplay();
+    }
+
+    /**
+     * Runs an action while holding the lock of this stack, unless the stack has already been retired.
+     * Anything that changes the contents of this stack should go through here.
+     *
+     * @param action The action to run
+     * @return true if the action ran, false if the stack was retired
+     */
+    public boolean runLocked(Runnable action) {
+        return this.lock.runLocked(action);
+    }
+
+    /**
+     * Runs a merge of another stack into this one while holding the locks of both stacks, then retires the other stack.
+     * The locks are always taken in creation order so two merges running at once can never deadlock.
+     *
+     * @param other The stack being merged into this one
+     * @param merge The action that moves the other stack into this one
+     * @return true if the merge ran, false if either stack was already retired
+     */
+    boolean runMerge(StackedEntity other, Runnable merge) {
+        return this.lock.runMerge(other.lock, merge);
+    }
+
+    /**
+     * Moves another stack into this one while holding the locks of both stacks, then retires the other stack.
+     * Only the contents move, the caller is expected to update the display afterwards.
+     *
+     * @param other The stack being merged into this one
+     * @return the entity of the other stack, which should be removed from the world, or null if either stack was already retired
+     */
+    LivingEntity mergeFrom(StackedEntity other) {
+        LivingEntity[] merged = new LivingEntity[1];
+        boolean applied = this.runMerge(other, () -> {
+            LivingEntity entity = other.entity;
+            if (this.stackSettings != null)
+                this.stackSettings.applyStackProperties(entity, this.entity);
+            this.increaseStackSize(entity, false);
+            this.stackedEntityDataStorage.addAll(other.stackedEntityDataStorage);
+            merged[0] = entity;
+        });
+        return applied ? merged[0] : null;
+    }
+
+    /**
+     * Retires this stack so nothing can change it anymore, its contents can be read without the lock afterwards
+     *
+     * @return true if this call retired the stack, false if it was already retired
+     */
+    boolean retire() {
+        return this.lock.runRetiring(() -> { });
+    }
+
+    /**
+     * @return true if this stack has been merged into another stack or killed, and should no longer be changed
+     */
+    public boolean isRetired() {
+        return this.lock.isRetired();
     }
 
     public void increaseStackSize(LivingEntity entity) {
@@ -112,16 +211,15 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
 
     public void increaseStackSize(LivingEntity entity, boolean updateDisplay) {
         Runnable task = () -> {
-            this.stackedEntityDataStorage.add(entity);
-            if (updateDisplay)
+            if (this.runLocked(() -> this.stackedEntityDataStorage.add(entity)) && updateDisplay)
                 this.updateDisplay();
         };
 
         // EnderDragonChangePhaseEvents is called when reading the entity NBT data.
         // Since we usually do this async and the event isn't allowed to be async, Spigot throws a fit.
         // We switch over to a non-async thread specifically for ender dragons because of this.
-        if (!Bukkit.isPrimaryThread() && entity instanceof EnderDragon) {
-            ThreadUtils.runSync(task);
+        if (entity instanceof EnderDragon && !Bukkit.isPrimaryThread()) {
+            ThreadUtils.runEntity(this.entity, task);
         } else {
             task.run();
         }
@@ -133,15 +231,17 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
      * @param updateDisplay Whether to update the entity's nametag or not
      */
     public void increaseStackSize(int amount, boolean updateDisplay) {
-        this.stackedEntityDataStorage.addClones(amount);
-
-        if (updateDisplay)
+        if (this.runLocked(() -> this.stackedEntityDataStorage.addClones(amount)) && updateDisplay)
             this.updateDisplay();
     }
 
     public void increaseStackSize(StackedEntityDataStorage serializedStackedEntities) {
-        this.stackedEntityDataStorage.addAll(serializedStackedEntities);
-        this.updateDisplay();
+        this.increaseStackSize(serializedStackedEntities, true);
+    }
+
+    public void increaseStackSize(StackedEntityDataStorage serializedStackedEntities, boolean updateDisplay) {
+        if (this.runLocked(() -> this.stackedEntityDataStorage.addAll(serializedStackedEntities)) && updateDisplay)
+            this.updateDisplay();
     }
 
     /**
@@ -150,35 +250,82 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
      * @return The new StackedEntity of size 1 that was just created
      */
     public StackedEntity decreaseStackSize() {
+        Split split = this.popForSplit();
+        if (split == null)
+            return null;
+
+        StackedEntity newlySplit = this.completeSplit(split);
+        this.updateDisplay();
+        return newlySplit;
+    }
+
+    /**
+     * Takes the next entity in line off the stack while holding the lock, it is spawned afterwards by {@link #completeSplit(Split)}
+     *
+     * @return the split, or null if the stack is empty or has been retired
+     */
+    Split popForSplit() {
+        return this.lock.callLocked(this::popForSplitLocked);
+    }
+
+    private Split popForSplitLocked() {
         if (this.stackedEntityDataStorage.isEmpty())
             return null;
+        return new Split(this.entity, this.stackedEntityDataStorage.pop());
+    }
 
+    private StackedEntity completeSplit(Split split) {
         StackManager stackManager = RoseStacker.getInstance().getManager(StackManager.class);
         EntityCacheManager entityCacheManager = RoseStacker.getInstance().getManager(EntityCacheManager.class);
-        LivingEntity oldEntity = this.entity;
+        LivingEntity oldEntity = split.entity();
 
         stackManager.setEntityStackingTemporarilyDisabled(true);
-        this.entity = this.stackedEntityDataStorage.pop().createEntity(oldEntity.getLocation(), true, oldEntity.getType());
+        LivingEntity newEntity = split.next().createEntity(oldEntity.getLocation(), true, oldEntity.getType());
         stackManager.setEntityStackingTemporarilyDisabled(false);
-        this.stackSettings.applyUnstackProperties(this.entity, oldEntity);
-        stackManager.updateStackedEntityKey(oldEntity, this.entity);
-        entityCacheManager.preCacheEntity(this.entity);
-        this.entity.setVelocity(this.entity.getVelocity().add(Vector.getRandom().multiply(0.01))); // Nudge the entity to unstack it from the old entity
+
+        // The stack may have been merged away or killed while the entity spawned, the spawned entity then becomes a stack of its own
+        if (!this.swapEntity(oldEntity, newEntity)) {
+            entityCacheManager.preCacheEntity(newEntity);
+            return new StackedEntity(newEntity, NMSAdapter.getHandler().createEntityDataStorage(newEntity, stackManager.getEntityDataStorageType(newEntity.getType())));
+        }
+
+        this.stackSettings.applyUnstackProperties(newEntity, oldEntity);
+        stackManager.updateStackedEntityKey(oldEntity, newEntity);
+        entityCacheManager.preCacheEntity(newEntity);
+        newEntity.setVelocity(newEntity.getVelocity().add(Vector.getRandom().multiply(0.01))); // Nudge the entity to unstack it from the old entity
 
         // Attempt to prevent adult entities from going into walls when a baby entity gets unstacked
-        if (oldEntity instanceof Ageable ageable1 && this.entity instanceof Ageable ageable2 && !ageable1.isAdult() && ageable2.isAdult()) {
+        if (oldEntity instanceof Ageable ageable1 && newEntity instanceof Ageable ageable2 && !ageable1.isAdult() && ageable2.isAdult()) {
             Location centered = ageable1.getLocation();
             centered.setX(centered.getBlockX() + 0.5);
             centered.setZ(centered.getBlockZ() + 0.5);
             ageable2.teleport(centered);
         }
 
-        this.stackedEntityDataStorage.updateEntity(this.entity);
-        this.updateDisplay();
-        PersistentDataUtils.applyDisabledAi(this.entity);
+        PersistentDataUtils.applyDisabledAi(newEntity);
 
         DataUtils.clearStackedEntityData(oldEntity);
-        return new StackedEntity(oldEntity, NMSAdapter.getHandler().createEntityDataStorage(oldEntity, RoseStacker.getInstance().getManager(StackManager.class).getEntityDataStorageType(oldEntity.getType())));
+        return new StackedEntity(oldEntity, NMSAdapter.getHandler().createEntityDataStorage(oldEntity, stackManager.getEntityDataStorageType(oldEntity.getType())));
+    }
+
+    /**
+     * Moves a newly spawned entity to the front of the stack, unless the stack changed since the split started
+     *
+     * @param oldEntity The entity that was at the front of the stack when the split started
+     * @param newEntity The entity to move to the front
+     * @return true if the entity was moved to the front, false if the stack was retired or its entity replaced in the meantime
+     */
+    boolean swapEntity(LivingEntity oldEntity, LivingEntity newEntity) {
+        Boolean swapped = this.lock.callLocked(() -> {
+            if (this.entity != oldEntity)
+                return false;
+
+            this.entity = newEntity;
+            this.signatureValid = false;
+            this.stackedEntityDataStorage.updateEntity(newEntity);
+            return true;
+        });
+        return swapped != null && swapped;
     }
 
     /**
@@ -214,9 +361,13 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
      * @param stackedEntityDataStorage The data storage to overwrite with
      */
     public void setDataStorage(StackedEntityDataStorage stackedEntityDataStorage) {
-        stackedEntityDataStorage.updateEntity(this.entity);
-        this.stackedEntityDataStorage = stackedEntityDataStorage;
-        this.updateDisplay();
+        boolean replaced = this.runLocked(() -> {
+            stackedEntityDataStorage.updateEntity(this.entity);
+            this.stackedEntityDataStorage = stackedEntityDataStorage;
+        });
+
+        if (replaced)
+            this.updateDisplay();
     }
 
     /**
@@ -276,7 +427,7 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         };
 
         if (async && Bukkit.isPrimaryThread()) {
-            ThreadUtils.runAsync(mainTask);
+            ThreadUtils.runAsync(AsyncTaskKind.LOOT, mainTask);
         } else if (!async && !Bukkit.isPrimaryThread()) {
             ThreadUtils.runSync(mainTask);
         } else {
@@ -444,6 +595,68 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         return this.stackSettings.testCanStackWith(this, stackedEntity, true);
     }
 
+    /**
+     * Gets the stack signature of this stack, computing it if it has not been computed yet.
+     * Two stacks with different signatures can never stack together.
+     *
+     * @return the stack signature of this stack
+     * @see EntityStackSettings#computeSignature(Entity)
+     */
+    public int getSignature() {
+        if (!this.signatureValid)
+            this.refreshSignature();
+        return this.signature;
+    }
+
+    /**
+     * @return true if the stack signature of this stack has been computed
+     */
+    boolean hasSignature() {
+        return this.signatureValid;
+    }
+
+    /**
+     * Recomputes the stack signature of this stack from the current state of its entity
+     */
+    public void refreshSignature() {
+        if (this.entity == null || this.stackSettings == null)
+            return;
+
+        this.signature = this.stackSettings.computeSignature(this.entity);
+        this.signatureValid = true;
+    }
+
+    /**
+     * Records that this stack was just checked for nearby stacks at the given position
+     *
+     * @param x The x position of the stack
+     * @param y The y position of the stack
+     * @param z The z position of the stack
+     */
+    void markChecked(double x, double y, double z) {
+        this.checkedX = x;
+        this.checkedY = y;
+        this.checkedZ = z;
+        this.checkedStackSize = this.getStackSize();
+    }
+
+    /**
+     * Checks if this stack has changed enough since it was last checked for nearby stacks that it should be checked again
+     *
+     * @param x The current x position of the stack
+     * @param y The current y position of the stack
+     * @param z The current z position of the stack
+     * @param thresholdSqrd The squared distance the stack needs to have moved
+     * @return true if the stack was never checked, has changed size, or has moved at least the threshold
+     */
+    boolean hasChangedSinceCheck(double x, double y, double z, double thresholdSqrd) {
+        if (this.checkedStackSize != this.getStackSize())
+            return true;
+
+        double dx = x - this.checkedX, dy = y - this.checkedY, dz = z - this.checkedZ;
+        return dx * dx + dy * dy + dz * dz >= thresholdSqrd;
+    }
+
     @Override
     public int getStackSize() {
         return this.stackedEntityDataStorage.size() + 1;
@@ -496,11 +709,13 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
 
     @Override
     public void updateDisplay() {
+        RoseStacker.getInstance().getManager(EntityCacheManager.class).updateStackSize(this.entity, this.getStackSize());
+
         this.displayName = null;
         String displayName = this.getDisplayName();
-        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        NametagManager nametagManager = RoseStacker.getInstance().getManager(NametagManager.class);
         for (Player player : this.getPlayersInVisibleRange())
-            nmsHandler.updateEntityNameTagForPlayer(player, this.entity, displayName, this.displayNameVisible);
+            nametagManager.updateNameTag(player, this.entity, displayName, this.displayNameVisible);
     }
 
     @Override
@@ -522,8 +737,12 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         if (this == stack2)
             return 0;
 
-        if (Setting.ENTITY_STACK_FLYING_DOWNWARDS.getBoolean() && this.stackSettings.getEntityTypeData().flyingMob())
-            return entity1.getLocation().getY() < entity2.getLocation().getY() ? 3 : -3;
+        // The merge planner compares stacks off the main thread, so the heights come from the snapshots
+        if (ConfigurationManager.getSnapshot().entityStackFlyingDownwards() && this.stackSettings.getEntityTypeData().flyingMob()) {
+            double y1 = StackSnapshot.getLocation(this, entity1, new Location(null, 0, 0, 0)).getY();
+            double y2 = StackSnapshot.getLocation(stack2, entity2, new Location(null, 0, 0, 0)).getY();
+            return y1 < y2 ? 3 : -3;
+        }
 
         if (this.getStackSize() == stack2.getStackSize())
             return entity1.getTicksLived() > entity2.getTicksLived() ? 2 : -2;
@@ -561,6 +780,13 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
      * @param event The event that caused the entity to die, nullable
      */
     public void killEntireStack(@Nullable EntityDeathEvent event) {
+        // A stack can only die once, a merge or another death may have already claimed it.
+        // Nothing can change a retired stack, so the loot is worked out after letting go of the lock
+        if (this.retire())
+            this.killEntireStackRetired(event);
+    }
+
+    private void killEntireStackRetired(@Nullable EntityDeathEvent event) {
         int experience = event != null ? event.getDroppedExp() : EntityUtils.getApproximateExperience(this.entity);
         if (Setting.ENTITY_DROP_ACCURATE_ITEMS.getBoolean()) {
             if (this.entity.getType() == EntityType.SLIME) {
@@ -601,8 +827,23 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
     }
 
     public void killPartialStack(@Nullable EntityDeathEvent event, int amount) {
+        if (this.isRetired())
+            return;
+
         if (amount == 1) {
-            if (this.getStackSize() == 1) {
+            // The last entity of a stack dies with it, checked under the lock so a stack merged into in the meantime isn't lost
+            Boolean single = this.lock.callLocked(() -> {
+                if (!this.stackedEntityDataStorage.isEmpty())
+                    return false;
+
+                this.lock.retire();
+                return true;
+            });
+
+            if (single == null)
+                return;
+
+            if (single) {
                 RoseStacker.getInstance().getManager(StackManager.class).removeEntityStack(this);
             } else {
                 this.decreaseStackSize();
@@ -611,15 +852,14 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
         }
 
         int experience = event != null ? event.getDroppedExp() : EntityUtils.getApproximateExperience(this.entity);
-        if (Setting.ENTITY_DROP_ACCURATE_ITEMS.getBoolean()) {
+        boolean accurateItems = Setting.ENTITY_DROP_ACCURATE_ITEMS.getBoolean();
+        if (accurateItems) {
             if (event == null) {
                 this.dropPartialStackLoot(amount, new ArrayList<>(), experience);
             } else {
                 this.dropPartialStackLoot(amount, new ArrayList<>(event.getDrops()), experience);
                 event.getDrops().clear();
             }
-
-            this.stackedEntityDataStorage.pop(amount - 1);
         } else if (Setting.ENTITY_DROP_ACCURATE_EXP.getBoolean()) {
             if (event == null) {
                 EntitySpawnUtil.spawn(this.entity.getLocation(), ExperienceOrb.class, x -> x.setExperience(experience));
@@ -630,7 +870,16 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
 
         Entity originalEntity = this.entity;
 
-        this.decreaseStackSize();
+        Split split = this.lock.callLocked(() -> {
+            if (accurateItems)
+                this.stackedEntityDataStorage.pop(amount - 1);
+            return this.popForSplitLocked();
+        });
+
+        if (split != null)
+            this.completeSplit(split);
+        if (!this.isRetired())
+            this.updateDisplay();
 
         // Prevent the entity from splitting
         if (originalEntity instanceof Slime slime)
@@ -641,4 +890,12 @@ public class StackedEntity extends Stack<EntityStackSettings> implements Compara
             killer.incrementStatistic(Statistic.KILL_ENTITY, this.entity.getType(), this.getStackSize() - 1);
     }
 
+    /**
+     * An entity taken off the front of a stack that has not been spawned yet
+     *
+     * @param entity The entity at the front of the stack when the split started
+     * @param next The data of the entity that will replace it
+     */
+    record Split(LivingEntity entity, EntityDataEntry next) { }
+
 }
@@ -104,6 +104,14 @@ public interface StackingLogic {
      */
     boolean isSpawnerStacked(Block block);
 
+    /**
+     * Checks if an entity was merged into another stack and is waiting to be removed from the world
+     *
+     * @param entity the entity to check
+     * @return true if the entity was merged away and will be removed shortly, otherwise false
+     */
+    boolean isPendingRemoval(Entity entity);
+
     /**
      * Removes a StackedEntity
      *
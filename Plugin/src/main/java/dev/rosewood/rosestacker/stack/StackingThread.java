@@ -1,8 +1,7 @@
 package dev.rosewood.rosestacker.stack;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import dev.rosewood.rosegarden.RosePlugin;
+import dev.rosewood.rosestacker.cache.ChunkMap;
 import dev.rosewood.rosestacker.event.EntityStackClearEvent;
 import dev.rosewood.rosestacker.event.EntityStackEvent;
 import dev.rosewood.rosestacker.event.EntityUnstackEvent;
@@ -11,15 +10,21 @@ import dev.rosewood.rosestacker.event.ItemStackEvent;
 import dev.rosewood.rosestacker.event.PreDropStackedItemsEvent;
 import dev.rosewood.rosestacker.hook.NPCsHook;
 import dev.rosewood.rosestacker.hook.WorldGuardHook;
+import dev.rosewood.rosestacker.manager.ConfigurationManager;
 import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
+import dev.rosewood.rosestacker.manager.ConfigurationManager.SettingsSnapshot;
 import dev.rosewood.rosestacker.manager.EntityCacheManager;
 import dev.rosewood.rosestacker.manager.HologramManager;
+import dev.rosewood.rosestacker.manager.LineOfSightCacheManager;
+import dev.rosewood.rosestacker.manager.NametagManager;
 import dev.rosewood.rosestacker.manager.StackManager;
 import dev.rosewood.rosestacker.manager.StackSettingManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
 import dev.rosewood.rosestacker.nms.storage.StackedEntityDataStorage;
+import dev.rosewood.rosestacker.scheduler.StackerTask;
+import dev.rosewood.rosestacker.stack.PerformanceController.Throttle;
 import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.stack.settings.ItemStackSettings;
 import dev.rosewood.rosestacker.utils.DataUtils;
@@ -33,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -41,9 +47,13 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
@@ -61,28 +71,62 @@ import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.metadata.FixedMetadataValue;
-import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.util.Vector;
 
 public class StackingThread implements StackingLogic, AutoCloseable {
 
-    private final static String NEW_METADATA = "RS_new";
+    // Regions are 8x8 chunks, stacks are only sharded if their merge radius can't reach past half a region
+    private final static int REGION_SHIFT = 7;
+    private final static double REGION_MERGE_LIMIT = (1 << REGION_SHIFT) / 2D;
 
-    private final static Cache<UUID, Boolean> REMOVED_ENTITIES = CacheBuilder.newBuilder().expireAfterWrite(5, TimeUnit.SECONDS).build();
+    // Shared by every world so EntityStackEvent listeners never run concurrently, even though regions are stacked in parallel
+    private final static Object STACK_EVENT_LOCK = new Object();
+
+    // How many snapshots it takes to refresh the stack signature of every entity stack once
+    private final static int SIGNATURE_REFRESH_PASSES = 5;
+
+    // How many stacks a budgeted pass processes between checking its time budget
+    private final static int BUDGETED_SLICE_SIZE = 256;
 
     private final RosePlugin rosePlugin;
     private final StackManager stackManager;
     private final EntityCacheManager entityCacheManager;
     private final HologramManager hologramManager;
+    private final LineOfSightCacheManager lineOfSightCacheManager;
+    private final NametagManager nametagManager;
     private final World targetWorld;
 
-    private final BukkitTask entityStackTask, itemStackTask, nametagTask, hologramTask;
-    private BukkitTask entityUnstackTask, entityCleanupTask;
+    private final StackerTask entityStackTask, itemStackTask, nametagTask, hologramTask;
+    private StackerTask entityUnstackTask, entityCleanupTask;
+    private final StackerTask snapshotTask;
 
     private final Map<UUID, StackedEntity> stackedEntities;
     private final Map<UUID, StackedItem> stackedItems;
     private final Map<Chunk, StackChunkData> stackChunkData;
+    private final Location snapshotLocation;
+    private volatile StackSnapshot snapshot;
+    private int signatureSlice;
+
+    private final AtomicBoolean entityPassRunning, itemPassRunning;
+    private Iterator<StackedEntity> entityCursor;
+    private Iterator<StackedItem> itemCursor;
+
+    private final long rescanFrequency;
+    private final int rescanMaxChunksPerTick;
+    private Chunk[] rescanChunks;
+    private int rescanIndex;
+    private long rescanTicks;
+
+    private final boolean dirtyStacking;
+    private final double dirtyMoveThresholdSqrd;
+    private final int dirtySweepPasses;
+    private final Set<StackedEntity> dirtyEntities;
+
+    private final SyncCommandBuffer syncCommands;
+    private final RemovedEntityTracker removedEntities, mergedEntities;
+
+    // Merge radius scaling from the performance controller, read once per pass so every part of a pass agrees
+    private volatile double mergeRadiusMultiplier, itemMergeRadius;
 
     private final boolean dynamicEntityTags, dynamicItemTags;
     private final double entityDynamicViewRangeSqrd, itemDynamicViewRangeSqrd;
@@ -93,24 +137,49 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.stackManager = stackManager;
         this.entityCacheManager = this.rosePlugin.getManager(EntityCacheManager.class);
         this.hologramManager = this.rosePlugin.getManager(HologramManager.class);
+        this.lineOfSightCacheManager = this.rosePlugin.getManager(LineOfSightCacheManager.class);
+        this.nametagManager = this.rosePlugin.getManager(NametagManager.class);
         this.targetWorld = targetWorld;
+        this.syncCommands = new SyncCommandBuffer(Math.max(0, (long) (Setting.STACK_COMMIT_TIME_BUDGET.getDouble() * 1_000_000)));
+        this.removedEntities = new RemovedEntityTracker(TimeUnit.SECONDS.toNanos(5));
+        this.mergedEntities = new RemovedEntityTracker(TimeUnit.SECONDS.toNanos(5));
+        this.mergeRadiusMultiplier = 1;
+        this.itemMergeRadius = ConfigurationManager.getSnapshot().itemMergeRadius();
 
-        this.entityStackTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::stackEntities, 5L, Setting.STACK_FREQUENCY.getLong());
-        this.itemStackTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::stackItems, 5L, Setting.ITEM_STACK_FREQUENCY.getLong());
-        this.nametagTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::processNametags, 5L, Setting.NAMETAG_UPDATE_FREQUENCY.getLong());
-        this.hologramTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::updateHolograms, 5L, Setting.HOLOGRAM_UPDATE_FREQUENCY.getLong());
+        this.entityStackTask = ThreadUtils.getScheduler().runAsyncTimer(this.throttled(false, this.withCommit(this::stackEntities)), 5L, Setting.STACK_FREQUENCY.getLong());
+        this.itemStackTask = ThreadUtils.getScheduler().runAsyncTimer(this.throttled(false, this.withCommit(this::stackItems)), 5L, Setting.ITEM_STACK_FREQUENCY.getLong());
+        this.nametagTask = ThreadUtils.getScheduler().runAsyncTimer(this.throttled(true, this::processNametags), 5L, Setting.NAMETAG_UPDATE_FREQUENCY.getLong());
+        this.hologramTask = ThreadUtils.getScheduler().runAsyncTimer(this.throttled(true, this::updateHolograms), 5L, Setting.HOLOGRAM_UPDATE_FREQUENCY.getLong());
 
         long unstackFrequency = Setting.UNSTACK_FREQUENCY.getLong();
         if (unstackFrequency > 0)
-            this.entityUnstackTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this.rosePlugin, this::unstackEntities, 5L, unstackFrequency);
+            this.entityUnstackTask = ThreadUtils.getScheduler().runAsyncTimer(this.throttled(false, this.withCommit(this::unstackEntities)), 5L, unstackFrequency);
 
-        long cleanupFrequency = Setting.ENTITY_RESCAN_FREQUENCY.getLong();
-        if (cleanupFrequency > 0)
-            this.entityCleanupTask = Bukkit.getScheduler().runTaskTimer(this.rosePlugin, this::cleanupOrphanedEntities, 5L, cleanupFrequency);
+        // The rescan runs every tick and spreads each sweep of the world over the rescan interval
+        this.rescanFrequency = Setting.ENTITY_RESCAN_FREQUENCY.getLong();
+        this.rescanMaxChunksPerTick = Setting.ENTITY_RESCAN_MAX_CHUNKS_PER_TICK.getInt();
+        this.rescanTicks = this.rescanFrequency;
+        if (this.rescanFrequency > 0)
+            this.entityCleanupTask = ThreadUtils.getScheduler().runGlobalTimer(this::cleanupOrphanedEntities, 5L, 1L);
+
+        // Capture snapshots at least as often as the fastest async pass that reads them
+        long snapshotFrequency = Math.min(Setting.STACK_FREQUENCY.getLong(), Math.min(Setting.ITEM_STACK_FREQUENCY.getLong(), Setting.NAMETAG_UPDATE_FREQUENCY.getLong()));
+        if (unstackFrequency > 0)
+            snapshotFrequency = Math.min(snapshotFrequency, unstackFrequency);
+        this.snapshotTask = ThreadUtils.getScheduler().runGlobalTimer(this::captureSnapshot, 4L, Math.max(1, snapshotFrequency));
 
         this.stackedEntities = new ConcurrentHashMap<>();
         this.stackedItems = new ConcurrentHashMap<>();
         this.stackChunkData = new ConcurrentHashMap<>();
+        this.snapshotLocation = new Location(null, 0, 0, 0);
+        this.entityPassRunning = new AtomicBoolean();
+        this.itemPassRunning = new AtomicBoolean();
+
+        this.dirtyStacking = Setting.STACK_DIRTY_ONLY.getBoolean();
+        double dirtyMoveThreshold = Setting.STACK_DIRTY_MOVE_THRESHOLD.getDouble();
+        this.dirtyMoveThresholdSqrd = dirtyMoveThreshold * dirtyMoveThreshold;
+        this.dirtySweepPasses = Math.max(1, Setting.STACK_DIRTY_SWEEP_PASSES.getInt());
+        this.dirtyEntities = ConcurrentHashMap.newKeySet();
 
         this.dynamicEntityTags = Setting.ENTITY_DISPLAY_TAGS.getBoolean() && Setting.ENTITY_DYNAMIC_TAG_VIEW_RANGE_ENABLED.getBoolean();
         this.dynamicItemTags = Setting.ITEM_DISPLAY_TAGS.getBoolean() && Setting.ITEM_DYNAMIC_TAG_VIEW_RANGE_ENABLED.getBoolean();
@@ -136,6 +205,38 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.targetWorld.getLivingEntities().forEach(PersistentDataUtils::applyDisabledAi);
     }
 
+    /**
+     * Wraps a repeating pass so it runs less often while the server is under load
+     *
+     * @param tagPass true if the pass updates nametags or holograms, false if it stacks
+     * @param pass The pass to wrap
+     * @return a Runnable that only runs the pass as often as the performance controller allows
+     */
+    private Runnable throttled(boolean tagPass, Runnable pass) {
+        Throttle throttle = new Throttle();
+        return () -> {
+            PerformanceController controller = this.stackManager.getPerformanceController();
+            if (controller == null || throttle.tryRun(tagPass ? controller.getTagIntervalMultiplier() : controller.getStackIntervalMultiplier()))
+                pass.run();
+        };
+    }
+
+    /**
+     * Wraps an async pass so that the main thread side effects it queued are applied together once it finishes
+     *
+     * @param pass The pass to wrap
+     * @return a Runnable that runs the pass and then flushes its queued commands
+     */
+    private Runnable withCommit(Runnable pass) {
+        return () -> {
+            try {
+                pass.run();
+            } finally {
+                this.syncCommands.flush();
+            }
+        };
+    }
+
     private void stackEntities() {
         boolean itemStackingEnabled = this.stackManager.isItemStackingEnabled();
         boolean entityStackingEnabled = this.stackManager.isEntityStackingEnabled();
@@ -147,8 +248,8 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             boolean minSplitIfLower = Setting.ENTITY_MIN_SPLIT_IF_LOWER.getBoolean();
             for (StackedEntity stackedEntity : this.stackedEntities.values()) {
                 LivingEntity entity = stackedEntity.getEntity();
-                if (!stackedEntity.shouldStayStacked() && entity.isValid()) {
-                    ThreadUtils.runSync(() -> {
+                if (!stackedEntity.shouldStayStacked() && StackSnapshot.isValid(stackedEntity, entity)) {
+                    this.syncCommands.submit(entity, () -> {
                         if (stackedEntity.getStackSize() > 1)
                             this.splitEntityStack(stackedEntity);
                     });
@@ -156,7 +257,7 @@ public class StackingThread implements StackingLogic, AutoCloseable {
                     NMSHandler nmsHandler = NMSAdapter.getHandler();
                     StackedEntityDataStorage nbt = stackedEntity.getDataStorage();
                     stackedEntity.setDataStorage(nmsHandler.createEntityDataStorage(entity, this.stackManager.getEntityDataStorageType(entity.getType())));
-                    ThreadUtils.runSync(() -> {
+                    this.syncCommands.submit(entity, () -> {
                         for (EntityDataEntry entityDataEntry : nbt.getAll())
                             entityDataEntry.createEntity(stackedEntity.getLocation(), true, entity.getType());
                     });
@@ -166,136 +267,424 @@ public class StackingThread implements StackingLogic, AutoCloseable {
     }
 
     private void unstackEntities() {
-        for (StackedEntity stackedEntity : this.stackedEntities.values()) {
-            LivingEntity livingEntity = stackedEntity.getEntity();
-            if (this.isRemoved(livingEntity)) {
-                this.removeEntityStack(stackedEntity);
+        // Every kind of pass is guarded, including the full unbudgeted one, so passes never overlap when one runs long
+        if (!this.entityPassRunning.compareAndSet(false, true))
+            return;
+
+        try {
+            SettingsSnapshot settings = ConfigurationManager.getSnapshot();
+            PerformanceController controller = this.stackManager.getPerformanceController();
+            long timeBudget = settings.stackPassTimeBudget();
+            int maxStacks = controller != null ? controller.getMaxStacksPerPass(settings.stackPassMaxStacks()) : settings.stackPassMaxStacks();
+            this.mergeRadiusMultiplier = controller != null ? controller.getMergeRadiusMultiplier() : 1;
+            if (!this.dirtyStacking && timeBudget <= 0 && maxStacks <= 0) {
+                this.stackEntityShards(this.stackedEntities.values());
+            } else if (this.dirtyStacking) {
+                this.stackDirtyEntities(timeBudget, maxStacks);
+            } else {
+                // Never process more stacks than exist so a single pass can't wrap around and check a stack twice
+                int limit = maxStacks > 0 ? Math.min(maxStacks, this.stackedEntities.size()) : this.stackedEntities.size();
+                this.stackEntitiesBudgeted(this::nextEntityFromCursor, limit, timeBudget);
+            }
+        } finally {
+            this.entityPassRunning.set(false);
+        }
+    }
+
+    /**
+     * Stacks only the stacks that have changed since they were last checked, along with a slice of the unchanged ones
+     *
+     * @param timeBudget The time budget of the pass in nanoseconds, or 0 for no budget
+     * @param maxStacks The maximum number of stacks to check, or 0 for no maximum
+     */
+    private void stackDirtyEntities(long timeBudget, int maxStacks) {
+        // Sweep a slice of the unchanged stacks so that every stack is still checked every few passes
+        int sweepAmount = (int) Math.ceil(this.stackedEntities.size() / (double) this.dirtySweepPasses);
+        for (int i = 0; i < sweepAmount; i++) {
+            StackedEntity stackedEntity = this.nextEntityFromCursor();
+            if (stackedEntity == null)
+                break;
+            this.dirtyEntities.add(stackedEntity);
+        }
+
+        // Anything left over when the budget runs out stays dirty for the next pass
+        Iterator<StackedEntity> dirtyIterator = this.dirtyEntities.iterator();
+        int limit = maxStacks > 0 ? Math.min(maxStacks, this.dirtyEntities.size()) : this.dirtyEntities.size();
+        this.stackEntitiesBudgeted(() -> {
+            while (dirtyIterator.hasNext()) {
+                StackedEntity stackedEntity = dirtyIterator.next();
+                dirtyIterator.remove();
+
+                LivingEntity entity = stackedEntity.getEntity();
+                if (entity != null && this.stackedEntities.get(entity.getUniqueId()) == stackedEntity)
+                    return stackedEntity;
+            }
+            return null;
+        }, limit, timeBudget);
+    }
+
+    /**
+     * Stacks entities from a source in slices until the limit or the time budget is used up
+     *
+     * @param source Supplies the next stack to check, or null if there are none left
+     * @param limit The maximum number of stacks to check
+     * @param timeBudget The time budget of the pass in nanoseconds, or 0 for no budget
+     */
+    private void stackEntitiesBudgeted(Supplier<StackedEntity> source, int limit, long timeBudget) {
+        long deadline = System.nanoTime() + timeBudget;
+        List<StackedEntity> slice = new ArrayList<>(BUDGETED_SLICE_SIZE);
+        while (limit > 0) {
+            slice.clear();
+            while (limit > 0 && slice.size() < BUDGETED_SLICE_SIZE) {
+                StackedEntity stackedEntity = source.get();
+                if (stackedEntity == null)
+                    break;
+
+                slice.add(stackedEntity);
+                limit--;
+            }
+
+            if (slice.isEmpty())
+                break;
+
+            this.stackEntityShards(slice);
+            if (timeBudget > 0 && System.nanoTime() >= deadline)
+                break;
+        }
+    }
+
+    private StackedEntity nextEntityFromCursor() {
+        if (this.entityCursor == null || !this.entityCursor.hasNext()) {
+            this.entityCursor = this.stackedEntities.values().iterator();
+            if (!this.entityCursor.hasNext())
+                return null;
+        }
+
+        return this.entityCursor.next();
+    }
+
+    private void stackEntityShards(Collection<StackedEntity> stackedEntities) {
+        ForkJoinPool stackingPool = this.stackManager.getStackingPool();
+        if (stackingPool == null || stackingPool.getParallelism() <= 1) {
+            this.tryStackEntities(stackedEntities);
+            return;
+        }
+
+        // Group stacks by region, any stack that could reach past the neighbouring regions is stacked on its own afterwards
+        boolean mergeEntireChunk = ConfigurationManager.getSnapshot().entityMergeEntireChunk();
+        ChunkMap<List<StackedEntity>> regions = new ChunkMap<>();
+        List<StackedEntity> unsharded = new ArrayList<>();
+        Location location = new Location(null, 0, 0, 0);
+        for (StackedEntity stackedEntity : stackedEntities) {
+            EntityStackSettings stackSettings = stackedEntity.getStackSettings();
+            LivingEntity entity = stackedEntity.getEntity();
+            if (stackSettings == null || entity == null || (!mergeEntireChunk && stackSettings.getMergeRadius() * this.mergeRadiusMultiplier >= REGION_MERGE_LIMIT)) {
+                unsharded.add(stackedEntity);
                 continue;
             }
 
-            this.tryStackEntity(stackedEntity);
+            StackSnapshot.getLocation(stackedEntity, entity, location);
+            long regionKey = ChunkMap.key(location.getBlockX() >> REGION_SHIFT, location.getBlockZ() >> REGION_SHIFT);
+            regions.computeIfAbsent(regionKey, key -> new ArrayList<>()).add(stackedEntity);
         }
+
+        // Regions are processed in four colours like a checkerboard, regions of the same colour are always a full region apart
+        // so no two of them can ever reach the same stack and they can safely be stacked at the same time
+        for (int colour = 0; colour < 4; colour++) {
+            int regionColour = colour;
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            regions.forEach((key, stacks) -> {
+                if (((ChunkMap.keyX(key) & 1) | (ChunkMap.keyZ(key) & 1) << 1) == regionColour)
+                    tasks.add(stackingPool.submit(() -> this.tryStackEntities(stacks)));
+            });
+
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.join();
+                } catch (Exception e) {
+                    this.rosePlugin.getLogger().log(Level.SEVERE, "Failed to stack entities in world " + this.targetWorld.getName(), e);
+                }
+            }
+        }
+
+        this.tryStackEntities(unsharded);
     }
 
+    private void tryStackEntities(Collection<StackedEntity> stackedEntities) {
+        List<StackedEntity> candidates = new ArrayList<>(stackedEntities.size());
+        for (StackedEntity stackedEntity : stackedEntities) {
+            if (this.isRemoved(stackedEntity, stackedEntity.getEntity()) || stackedEntity.checkNPC()) {
+                this.removeEntityStack(stackedEntity);
+            } else {
+                candidates.add(stackedEntity);
+            }
+        }
+
+        // Plan every merge for the batch at once so each pair of stacks is only tested a single time
+        EntityMergePlanner planner = new EntityMergePlanner(this.entityCacheManager, this.stackedEntities, x -> this.isRemoved(x, x.getEntity()), this.mergeRadiusMultiplier);
+        for (EntityMergePlanner.Merge merge : planner.plan(candidates))
+            this.mergeEntityStacks(merge.increased(), merge.removable());
+
+        if (this.dirtyStacking) {
+            Location location = new Location(null, 0, 0, 0);
+            for (StackedEntity stackedEntity : candidates) {
+                StackSnapshot.getLocation(stackedEntity, stackedEntity.getEntity(), location);
+                stackedEntity.markChecked(location.getX(), location.getY(), location.getZ());
+            }
+        }
+    }
+
+    /**
+     * Checks the next few loaded chunks for entities that were missed.
+     * Each sweep covers the chunks that were loaded when it started and is spread evenly over the rescan interval.
+     */
     private void cleanupOrphanedEntities() {
-        for (Entity entity : this.targetWorld.getEntities()) {
-            if (this.isRemoved(entity))
+        this.rescanTicks++;
+        if (this.rescanChunks == null || this.rescanIndex >= this.rescanChunks.length) {
+            if (this.rescanTicks < this.rescanFrequency)
+                return;
+
+            this.rescanChunks = this.targetWorld.getLoadedChunks();
+            this.rescanIndex = 0;
+            this.rescanTicks = 0;
+        }
+
+        int chunksPerTick = (int) Math.ceil(this.rescanChunks.length / (double) this.rescanFrequency);
+        if (this.rescanMaxChunksPerTick > 0)
+            chunksPerTick = Math.min(chunksPerTick, this.rescanMaxChunksPerTick);
+
+        int end = Math.min(this.rescanChunks.length, this.rescanIndex + Math.max(1, chunksPerTick));
+        for (; this.rescanIndex < end; this.rescanIndex++) {
+            Chunk chunk = this.rescanChunks[this.rescanIndex];
+            this.rescanChunks[this.rescanIndex] = null; // Don't hold onto chunks that may unload before the sweep ends
+            if (!chunk.isLoaded())
                 continue;
 
-            if (entity instanceof LivingEntity livingEntity && entity.getType() != EntityType.ARMOR_STAND && entity.getType() != EntityType.PLAYER && !this.isEntityStacked(livingEntity)) {
-                this.createEntityStack(livingEntity, false);
-            } else if (entity.getType() == EntityType.DROPPED_ITEM) {
-                Item item = (Item) entity;
-                if (!this.isItemStacked(item))
-                    this.createItemStack(item, false);
+            // This runs on the thread owning the chunk, so the live entities can be checked directly
+            for (Entity entity : chunk.getEntities()) {
+                if (!entity.isValid() || this.removedEntities.contains(entity.getUniqueId()))
+                    continue;
+
+                if (entity instanceof LivingEntity livingEntity && entity.getType() != EntityType.ARMOR_STAND && entity.getType() != EntityType.PLAYER && !this.isEntityStacked(livingEntity)) {
+                    this.createEntityStack(livingEntity, false);
+                } else if (entity.getType() == EntityType.DROPPED_ITEM) {
+                    Item item = (Item) entity;
+                    if (!this.isItemStacked(item))
+                        this.createItemStack(item, false);
+                }
             }
         }
     }
 
+    /**
+     * Captures the positions and states of all stacks and players in this world for the async passes to read
+     */
+    private void captureSnapshot() {
+        this.removedEntities.expire();
+        this.mergedEntities.expire();
+
+        List<Player> players = this.targetWorld.getPlayers();
+        StackSnapshot snapshot = new StackSnapshot(this.targetWorld, this.stackedEntities.size() + this.stackedItems.size() + players.size());
+        boolean checkWater = ConfigurationManager.getSnapshot().entityDontStackIfInWater();
+
+        // Players come first so the entities only capture what the stacking tool particles need while someone holds the tool
+        boolean stackingToolHeld = false;
+        for (Player player : players) {
+            snapshot.capture(player, player, this.snapshotLocation, false, true);
+            stackingToolHeld |= snapshot.isHoldingStackingTool(snapshot.size() - 1);
+        }
+
+        // Signatures are computed for new stacks and refreshed for a rotating slice of the rest, so every signature
+        // still follows changes to its entity within a few snapshots without recomputing all of them every time
+        int signatureSlice = this.signatureSlice;
+        this.signatureSlice = (signatureSlice + 1) % SIGNATURE_REFRESH_PASSES;
+        int stackIndex = 0;
+        for (StackedEntity stackedEntity : this.stackedEntities.values()) {
+            LivingEntity entity = stackedEntity.getEntity();
+            if (entity != null) {
+                snapshot.capture(stackedEntity, entity, this.snapshotLocation, checkWater, stackingToolHeld);
+                if (!stackedEntity.hasSignature() || stackIndex % SIGNATURE_REFRESH_PASSES == signatureSlice)
+                    stackedEntity.refreshSignature();
+            }
+            stackIndex++;
+        }
+
+        for (StackedItem stackedItem : this.stackedItems.values()) {
+            Item item = stackedItem.getItem();
+            if (item != null)
+                snapshot.capture(stackedItem, item, this.snapshotLocation, false, false);
+        }
+
+        snapshot.publish();
+        this.snapshot = snapshot;
+
+        if (this.dirtyStacking) {
+            for (int i = 0; i < snapshot.size(); i++)
+                if (snapshot.getOwner(i) instanceof StackedEntity stackedEntity
+                        && stackedEntity.hasChangedSinceCheck(snapshot.getX(i), snapshot.getY(i), snapshot.getZ(i), this.dirtyMoveThresholdSqrd))
+                    this.dirtyEntities.add(stackedEntity);
+        }
+    }
+
     private void stackItems() {
         boolean itemStackingEnabled = this.stackManager.isItemStackingEnabled();
         if (!itemStackingEnabled)
             return;
 
-        // Auto stack items
-        for (StackedItem stackedItem : this.stackedItems.values()) {
-            Item item = stackedItem.getItem();
-            if (item == null || this.isRemoved(item)) {
-                this.removeItemStack(stackedItem);
-                continue;
+        SettingsSnapshot settings = ConfigurationManager.getSnapshot();
+        PerformanceController controller = this.stackManager.getPerformanceController();
+        long timeBudget = settings.stackPassTimeBudget();
+        int maxStacks = controller != null ? controller.getMaxStacksPerPass(settings.stackPassMaxStacks()) : settings.stackPassMaxStacks();
+        this.itemMergeRadius = settings.itemMergeRadius() * (controller != null ? controller.getMergeRadiusMultiplier() : 1);
+        if (timeBudget <= 0 && maxStacks <= 0) {
+            // Auto stack items
+            this.stackedItems.values().forEach(this::tryStackItemOrRemove);
+            return;
+        }
+
+        if (!this.itemPassRunning.compareAndSet(false, true))
+            return;
+
+        try {
+            long deadline = System.nanoTime() + timeBudget;
+            int remaining = maxStacks > 0 ? Math.min(maxStacks, this.stackedItems.size()) : this.stackedItems.size();
+            while (remaining-- > 0) {
+                if (this.itemCursor == null || !this.itemCursor.hasNext()) {
+                    this.itemCursor = this.stackedItems.values().iterator();
+                    if (!this.itemCursor.hasNext())
+                        break;
+                }
+
+                this.tryStackItemOrRemove(this.itemCursor.next());
+                if (timeBudget > 0 && System.nanoTime() >= deadline)
+                    break;
             }
+        } finally {
+            this.itemPassRunning.set(false);
+        }
+    }
 
-            this.tryStackItem(stackedItem);
+    private void tryStackItemOrRemove(StackedItem stackedItem) {
+        Item item = stackedItem.getItem();
+        if (item == null || this.isRemoved(stackedItem, item)) {
+            this.removeItemStack(stackedItem);
+            return;
         }
+
+        this.tryStackItem(stackedItem);
     }
 
     public void processNametags() {
         if (!this.dynamicEntityTags && !this.dynamicItemTags)
             return;
 
-        List<Player> players = this.targetWorld.getPlayers();
-        if (players.isEmpty())
+        StackSnapshot snapshot = this.snapshot;
+        if (snapshot == null)
             return;
 
         // Handle dynamic stack tags
-        NMSHandler nmsHandler = NMSAdapter.getHandler();
         Set<EntityType> validEntities = StackerUtils.getStackableEntityTypes();
         boolean displaySingleEntityTags = Setting.ENTITY_DISPLAY_TAGS_SINGLE.getBoolean();
         boolean displaySingleItemTags = Setting.ITEM_DISPLAY_TAGS_SINGLE.getBoolean();
 
-        List<Entity> entities = new ArrayList<>();
-        entities.addAll(this.stackedEntities.values().stream()
-                .filter(x -> x.getStackSize() > 1 || displaySingleEntityTags)
-                .map(StackedEntity::getEntity)
-                .filter(Objects::nonNull)
-                .filter(x -> validEntities.contains(x.getType()))
-                .toList());
-        entities.addAll(this.stackedItems.values().stream()
-                .filter(x -> x.getStackSize() > 1 || displaySingleItemTags)
-                .map(StackedItem::getItem)
-                .toList());
-
-        for (Player player : players) {
-            if (player.getWorld() != this.targetWorld)
-                continue;
-
-            ItemStack itemStack = player.getInventory().getItemInMainHand();
-            boolean displayStackingToolParticles = ItemUtils.isStackingTool(itemStack);
-
-            for (Entity entity : entities) {
-                if (entity.getType() == EntityType.PLAYER)
-                    continue;
-
-                if ((entity.getType() == EntityType.DROPPED_ITEM || entity.getType() == EntityType.ARMOR_STAND)
-                        && (entity.getCustomName() == null || !entity.isCustomNameVisible()))
-                    continue;
-
-                double distanceSqrd;
-                try { // The locations can end up comparing cross-world if the player/entity switches worlds mid-loop due to being async
-                    distanceSqrd = player.getLocation().distanceSquared(entity.getLocation());
-                } catch (Exception e) {
-                    continue;
-                }
-
-                if (distanceSqrd > StackerUtils.ASSUMED_ENTITY_VISIBILITY_RANGE)
-                    continue;
+        // Split the snapshot rows into players and stacks that can display tags, indexing the stacks by chunk
+        int[] players = new int[snapshot.size()];
+        int playerCount = 0;
+        ChunkRowIndex stacks = new ChunkRowIndex();
+        for (int i = 0; i < snapshot.size(); i++) {
+            Object owner = snapshot.getOwner(i);
+            if (owner instanceof Player) {
+                if (snapshot.isValid(i))
+                    players[playerCount++] = i;
+            } else if (owner instanceof StackedEntity stackedEntity) {
+                if ((stackedEntity.getStackSize() > 1 || displaySingleEntityTags) && validEntities.contains(snapshot.getEntity(i).getType()))
+                    stacks.add(i, snapshot.getX(i), snapshot.getZ(i));
+            } else if (owner instanceof StackedItem stackedItem) {
+                if (stackedItem.getStackSize() > 1 || displaySingleItemTags)
+                    stacks.add(i, snapshot.getX(i), snapshot.getZ(i));
+            }
+        }
 
-                boolean visible;
-                if (this.dynamicItemTags && entity.getType() == EntityType.DROPPED_ITEM) {
-                    visible = distanceSqrd < this.itemDynamicViewRangeSqrd;
-                    if (this.itemDynamicWallDetection)
-                        visible &= EntityUtils.hasLineOfSight(player, entity, 0.75, true);
-                } else if (this.dynamicEntityTags) {
-                     visible = distanceSqrd < this.entityDynamicViewRangeSqrd;
-                     if (this.entityDynamicWallDetection)
-                         visible &= EntityUtils.hasLineOfSight(player, entity, 0.75, true);
-                 } else continue;
-
-                if (entity.getType() != EntityType.ARMOR_STAND && entity instanceof LivingEntity livingEntity) {
-                    StackedEntity stackedEntity = this.getStackedEntity(livingEntity);
-                    if (stackedEntity != null)
-                        nmsHandler.updateEntityNameTagForPlayer(player, entity, stackedEntity.getDisplayName(), stackedEntity.isDisplayNameVisible() && visible);
-
-                    // Spawn particles for holding the stacking tool
-                    if (visible && displayStackingToolParticles) {
-                        Location location = entity.getLocation().add(0, livingEntity.getEyeHeight(true) + 0.75, 0);
-                        DustOptions dustOptions;
-                        if (PersistentDataUtils.isUnstackable(livingEntity)) {
-                            dustOptions = StackerUtils.UNSTACKABLE_DUST_OPTIONS;
-                        } else {
-                            dustOptions = StackerUtils.STACKABLE_DUST_OPTIONS;
+        // Each player only evaluates the stacks in chunks within visibility range of them
+        double visibilityRange = Math.sqrt(StackerUtils.ASSUMED_ENTITY_VISIBILITY_RANGE);
+        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        nmsHandler.beginPacketBatch();
+        try {
+            for (int p = 0; p < playerCount; p++) {
+                int playerIndex = players[p];
+                Player player = (Player) snapshot.getOwner(playerIndex);
+
+                boolean displayStackingToolParticles = snapshot.isHoldingStackingTool(playerIndex);
+
+                stacks.forEachInRange(snapshot.getX(playerIndex), snapshot.getZ(playerIndex), visibilityRange, index -> {
+                    Entity entity = snapshot.getEntity(index);
+                    if (entity.getType() == EntityType.PLAYER)
+                        return;
+
+                    if ((entity.getType() == EntityType.DROPPED_ITEM || entity.getType() == EntityType.ARMOR_STAND)
+                            && (entity.getCustomName() == null || !entity.isCustomNameVisible()))
+                        return;
+
+                    // Both positions come from the same snapshot, so they are always in the same world
+                    double distanceSqrd = snapshot.distanceSquared(playerIndex, index);
+                    if (distanceSqrd > StackerUtils.ASSUMED_ENTITY_VISIBILITY_RANGE)
+                        return;
+
+                    boolean visible;
+                    if (this.dynamicItemTags && entity.getType() == EntityType.DROPPED_ITEM) {
+                        visible = distanceSqrd < this.itemDynamicViewRangeSqrd;
+                        if (this.itemDynamicWallDetection)
+                            visible &= this.hasLineOfSight(snapshot, playerIndex, index);
+                    } else if (this.dynamicEntityTags) {
+                        visible = distanceSqrd < this.entityDynamicViewRangeSqrd;
+                        if (this.entityDynamicWallDetection)
+                            visible &= this.hasLineOfSight(snapshot, playerIndex, index);
+                    } else return;
+
+                    if (entity.getType() != EntityType.ARMOR_STAND && entity instanceof LivingEntity livingEntity) {
+                        StackedEntity stackedEntity = this.getStackedEntity(livingEntity);
+                        if (stackedEntity != null)
+                            this.nametagManager.updateNameTag(player, entity, stackedEntity.getDisplayName(), stackedEntity.isDisplayNameVisible() && visible);
+
+                        // Spawn particles for holding the stacking tool
+                        if (visible && displayStackingToolParticles) {
+                            Location location = new Location(snapshot.getWorld(), snapshot.getX(index), snapshot.getY(index) + snapshot.getEyeHeight(index) + 0.75, snapshot.getZ(index));
+                            DustOptions dustOptions;
+                            if (snapshot.isUnstackable(index)) {
+                                dustOptions = StackerUtils.UNSTACKABLE_DUST_OPTIONS;
+                            } else {
+                                dustOptions = StackerUtils.STACKABLE_DUST_OPTIONS;
+                            }
+                            player.spawnParticle(Particle.REDSTONE, location, 1, 0.0, 0.0, 0.0, 0.0, dustOptions);
                         }
-                        player.spawnParticle(Particle.REDSTONE, location, 1, 0.0, 0.0, 0.0, 0.0, dustOptions);
+                    } else {
+                        this.nametagManager.updateNameTagVisibility(player, entity, visible);
                     }
-                } else {
-                    nmsHandler.updateEntityNameTagVisibilityForPlayer(player, entity, visible);
-                }
+                });
             }
+        } finally {
+            nmsHandler.flushPacketBatch();
         }
     }
 
+    /**
+     * Checks wall detection between a player and a stack with the positions from the snapshot instead of reading them
+     * from the live entities off the main thread
+     */
+    private boolean hasLineOfSight(StackSnapshot snapshot, int playerIndex, int index) {
+        return this.lineOfSightCacheManager.hasLineOfSight((Player) snapshot.getOwner(playerIndex), snapshot.getWorld(),
+                snapshot.getX(playerIndex), snapshot.getY(playerIndex), snapshot.getZ(playerIndex),
+                snapshot.getEntity(index), snapshot.getX(index), snapshot.getY(index), snapshot.getZ(index));
+    }
+
     private void updateHolograms() {
-        this.stackChunkData.values().stream().flatMap(x -> x.getSpawners().values().stream()).forEach(StackedSpawner::updateDisplay);
+        NMSHandler nmsHandler = NMSAdapter.getHandler();
+        nmsHandler.beginPacketBatch();
+        try {
+            this.stackChunkData.values().stream().flatMap(x -> x.getSpawners().values().stream()).forEach(StackedSpawner::updateDisplay);
+        } finally {
+            nmsHandler.flushPacketBatch();
+        }
     }
 
     @Override
@@ -305,12 +694,23 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.itemStackTask.cancel();
         this.nametagTask.cancel();
         this.hologramTask.cancel();
+        this.snapshotTask.cancel();
 
         if (this.entityUnstackTask != null)
             this.entityUnstackTask.cancel();
 
         if (this.entityCleanupTask != null)
             this.entityCleanupTask.cancel();
+
+        // Apply anything the last passes left behind so absorbed entities don't linger
+        this.syncCommands.close();
+    }
+
+    /**
+     * @return the buffer of main thread side effects queued by this thread's async passes
+     */
+    public SyncCommandBuffer getSyncCommands() {
+        return this.syncCommands;
     }
 
     @Override
@@ -385,8 +785,15 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         return this.getStackedSpawner(block) != null;
     }
 
+    @Override
+    public boolean isPendingRemoval(Entity entity) {
+        return this.mergedEntities.contains(entity.getUniqueId());
+    }
+
     @Override
     public void removeEntityStack(StackedEntity stackedEntity) {
+        this.dirtyEntities.remove(stackedEntity);
+
         LivingEntity entity = stackedEntity.getEntity();
         if (entity != null) {
             UUID key = stackedEntity.getEntity().getUniqueId();
@@ -532,11 +939,9 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         StackedEntity newStackedEntity = new StackedEntity(livingEntity);
         this.stackedEntities.put(livingEntity.getUniqueId(), newStackedEntity);
 
-        if (tryStack && Setting.ENTITY_INSTANT_STACK.getBoolean()) {
-            livingEntity.setMetadata(NEW_METADATA, new FixedMetadataValue(this.rosePlugin, true));
+        // The new stack hasn't been captured in a snapshot yet, so it can stack even though its entity isn't in the world yet
+        if (tryStack && Setting.ENTITY_INSTANT_STACK.getBoolean())
             this.tryStackEntity(newStackedEntity);
-            livingEntity.removeMetadata(NEW_METADATA, this.rosePlugin);
-        }
 
         return newStackedEntity;
     }
@@ -553,11 +958,8 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         StackedItem newStackedItem = new StackedItem(item.getItemStack().getAmount(), item);
         this.stackedItems.put(item.getUniqueId(), newStackedItem);
 
-        if (tryStack) {
-            item.setMetadata(NEW_METADATA, new FixedMetadataValue(this.rosePlugin, true));
+        if (tryStack)
             this.tryStackItem(newStackedItem);
-            item.removeMetadata(NEW_METADATA, this.rosePlugin);
-        }
 
         return newStackedItem;
     }
@@ -631,13 +1033,12 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             NMSHandler nmsHandler = NMSAdapter.getHandler();
             boolean removeAi = stackSettings.isMobAIDisabled();
 
-            Collection<Entity> nearbyEntities = this.entityCacheManager.getNearbyEntities(location, stackSettings.getMergeRadius(), x -> x.getType() == entityType);
             Set<StackedEntity> nearbyStackedEntities = new HashSet<>();
-            for (Entity entity : nearbyEntities) {
+            this.entityCacheManager.forEachNearby(world, location.getX(), location.getY(), location.getZ(), stackSettings.getMergeRadius(), entityType, entity -> {
                 StackedEntity stackedEntity = this.stackManager.getStackedEntity((LivingEntity) entity);
                 if (stackedEntity != null)
                     nearbyStackedEntities.add(stackedEntity);
-            }
+            });
 
             Set<StackedEntity> updatedEntities = new HashSet<>();
             Set<StackedEntity> newStackedEntities = new HashSet<>();
@@ -814,6 +1215,8 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (entities.isEmpty())
             return;
 
+        this.entityCacheManager.loadChunkEntities(chunk, entities);
+
         if (this.stackManager.isEntityStackingEnabled()) {
             for (Entity entity : entities) {
                 if (!(entity instanceof LivingEntity livingEntity) || entity.getType() == EntityType.ARMOR_STAND || entity.getType() == EntityType.PLAYER)
@@ -893,6 +1296,9 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             if (clearStored)
                 stackedItems.stream().map(StackedItem::getItem).map(Entity::getUniqueId).forEach(this.stackedItems::remove);
         }
+
+        if (clearStored)
+            this.entityCacheManager.unloadChunkEntities(chunk, entities);
     }
 
     /**
@@ -911,41 +1317,42 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         }
 
         LivingEntity entity = stackedEntity.getEntity();
-        if (this.isRemoved(entity))
+        if (this.isRemoved(stackedEntity, entity))
             return;
 
-        if (!WorldGuardHook.testLocation(entity.getLocation()))
+        Location location = StackSnapshot.getLocation(stackedEntity, entity, new Location(null, 0, 0, 0));
+        if (!WorldGuardHook.testLocation(location))
             return;
 
-        Collection<Entity> nearbyEntities;
-        Predicate<Entity> predicate = x -> x.getType() == entity.getType();
-        if (!Setting.ENTITY_MERGE_ENTIRE_CHUNK.getBoolean()) {
-            nearbyEntities = this.entityCacheManager.getNearbyEntities(entity.getLocation(), stackSettings.getMergeRadius(), predicate);
-        } else {
-            nearbyEntities = this.entityCacheManager.getEntitiesInChunk(entity.getLocation(), predicate);
-        }
-
         Set<StackedEntity> targetEntities = new HashSet<>();
         targetEntities.add(stackedEntity);
 
-        for (Entity otherEntity : nearbyEntities) {
-            if (entity == otherEntity || this.isRemoved(otherEntity))
-                continue;
+        int signature = stackedEntity.getSignature();
+        Location otherLocation = new Location(null, 0, 0, 0);
+        Consumer<Entity> targetCollector = otherEntity -> {
+            if (entity == otherEntity)
+                return;
 
             StackedEntity other = this.stackedEntities.get(otherEntity.getUniqueId());
-            if (other == null)
-                continue;
+            if (this.isRemoved(other, otherEntity) || other.getSignature() != signature)
+                return;
 
             if (stackSettings.testCanStackWith(stackedEntity, other, false)
-                    && (!Setting.ENTITY_REQUIRE_LINE_OF_SIGHT.getBoolean() || EntityUtils.hasLineOfSight(entity, otherEntity, 0.75, false))
-                    && WorldGuardHook.testLocation(otherEntity.getLocation()))
+                    && (!ConfigurationManager.getSnapshot().entityRequireLineOfSight() || EntityUtils.hasLineOfSight(entity, otherEntity, 0.75, false))
+                    && WorldGuardHook.testLocation(StackSnapshot.getLocation(other, otherEntity, otherLocation)))
                 targetEntities.add(other);
+        };
+
+        if (!ConfigurationManager.getSnapshot().entityMergeEntireChunk()) {
+            this.entityCacheManager.forEachNearby(entity.getWorld(), location.getX(), location.getY(), location.getZ(), stackSettings.getMergeRadius() * this.mergeRadiusMultiplier, entity.getType(), targetCollector);
+        } else {
+            this.entityCacheManager.forEachInChunk(entity.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, entity.getType(), targetCollector);
         }
 
         StackedEntity increased;
         int totalSize;
         List<StackedEntity> removable = new ArrayList<>(targetEntities.size());
-        if (!Setting.ENTITY_MIN_STACK_COUNT_ONLY_INDIVIDUALS.getBoolean()) {
+        if (!ConfigurationManager.getSnapshot().entityMinStackCountOnlyIndividuals()) {
             increased = targetEntities.stream().max(StackedEntity::compareTo).orElse(stackedEntity);
             targetEntities.remove(increased);
             totalSize = increased.getStackSize();
@@ -972,24 +1379,43 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         if (removable.isEmpty() || totalSize < stackSettings.getMinStackSize())
             return;
 
+        this.mergeEntityStacks(increased, removable);
+    }
+
+    /**
+     * Merges StackedEntities into another, if the merge event is not cancelled
+     *
+     * @param increased The StackedEntity to merge into
+     * @param removable The StackedEntities to merge and remove
+     */
+    private void mergeEntityStacks(StackedEntity increased, List<StackedEntity> removable) {
+        if (increased.isRetired())
+            return;
+
+        // Regions are stacked in parallel, listeners are only ever called for one stack event at a time
         EntityStackEvent entityStackEvent = new EntityStackEvent(removable, increased);
-        Bukkit.getPluginManager().callEvent(entityStackEvent);
+        synchronized (STACK_EVENT_LOCK) {
+            Bukkit.getPluginManager().callEvent(entityStackEvent);
+        }
         if (entityStackEvent.isCancelled())
             return;
 
+        // Each stack is moved over while holding both locks, a stack that was killed or merged elsewhere in the meantime is skipped.
+        // Only the contents move under the locks, the display and cached totals are updated once afterwards so the main
+        // thread never waits behind nametag packets for a lock
+        boolean changed = false;
         for (StackedEntity toStack : removable) {
-            stackSettings.applyStackProperties(toStack.getEntity(), increased.getEntity());
-            increased.increaseStackSize(toStack.getEntity());
-            increased.increaseStackSize(toStack.getDataStorage());
-            this.removeEntityStack(toStack);
+            LivingEntity entity = increased.mergeFrom(toStack);
+            if (entity != null) {
+                changed = true;
+                this.mergedEntities.add(entity.getUniqueId());
+                this.removeEntityStack(toStack);
+                this.syncCommands.submitRemoval(entity, entity::remove);
+            }
         }
 
-        Runnable removeTask = () -> removable.stream().map(StackedEntity::getEntity).forEach(Entity::remove);
-        if (Bukkit.isPrimaryThread()) {
-            removeTask.run();
-        } else {
-            ThreadUtils.runSync(removeTask);
-        }
+        if (changed)
+            increased.updateDisplay();
     }
 
     /**
@@ -1005,24 +1431,20 @@ public class StackingThread implements StackingLogic, AutoCloseable {
             return;
 
         Item item = stackedItem.getItem();
-        if (this.isRemoved(item))
+        if (this.isRemoved(stackedItem, item))
             return;
 
-        Predicate<Entity> predicate = x -> x.getType() == EntityType.DROPPED_ITEM;
-        Set<Item> nearbyItems = this.entityCacheManager.getNearbyEntities(stackedItem.getLocation(), Setting.ITEM_MERGE_RADIUS.getDouble(), predicate)
-                .stream()
-                .map(x -> (Item) x)
-                .collect(Collectors.toSet());
-
+        Location location = StackSnapshot.getLocation(stackedItem, item, new Location(null, 0, 0, 0));
         Set<StackedItem> targetItems = new HashSet<>();
-        for (Item otherItem : nearbyItems) {
-            if (item == otherItem || otherItem.getPickupDelay() > 40 || !item.getItemStack().isSimilar(otherItem.getItemStack()) || this.isRemoved(otherItem))
-                continue;
+        this.entityCacheManager.forEachNearby(item.getWorld(), location.getX(), location.getY(), location.getZ(), this.itemMergeRadius, EntityType.DROPPED_ITEM, x -> {
+            Item otherItem = (Item) x;
+            if (item == otherItem || otherItem.getPickupDelay() > 40 || !item.getItemStack().isSimilar(otherItem.getItemStack()))
+                return;
 
             StackedItem other = this.stackedItems.get(otherItem.getUniqueId());
-            if (other != null)
+            if (!this.isRemoved(other, otherItem))
                 targetItems.add(other);
-        }
+        });
 
         int totalSize = stackedItem.getStackSize();
         Set<StackedItem> removable = new HashSet<>();
@@ -1046,18 +1468,14 @@ public class StackingThread implements StackingLogic, AutoCloseable {
                 continue;
 
             increased.increaseStackSize(removed.getStackSize(), true);
-            if (Setting.ITEM_RESET_DESPAWN_TIMER_ON_MERGE.getBoolean())
+            if (ConfigurationManager.getSnapshot().itemResetDespawnTimerOnMerge())
                 increased.getItem().setTicksLived(1); // Reset the 5 minute pickup timer
 
             increased.getItem().setPickupDelay(Math.max(increased.getItem().getPickupDelay(), removed.getItem().getPickupDelay()));
             removed.getItem().setPickupDelay(100); // Don't allow the item we just merged to get picked up or stacked
 
-            Runnable removeTask = () -> removed.getItem().remove();
-            if (Bukkit.isPrimaryThread()) {
-                removeTask.run();
-            } else {
-                ThreadUtils.runSync(removeTask);
-            }
+            this.mergedEntities.add(removed.getItem().getUniqueId());
+            this.syncCommands.submitRemoval(removed.getItem(), removed.getItem()::remove);
 
             this.removeItemStack(removed);
         }
@@ -1083,12 +1501,21 @@ public class StackingThread implements StackingLogic, AutoCloseable {
         this.stackedItems.put(entityUUID, stackedItem);
     }
 
-    private boolean isRemoved(Entity entity) {
-        return entity == null || (!entity.isValid() && !entity.hasMetadata(NEW_METADATA)) || REMOVED_ENTITIES.getIfPresent(entity.getUniqueId()) != null;
+    /**
+     * Checks if a stack has been removed, reading its validity from the latest snapshot so it never touches the live entity.
+     * Stacks created since the latest snapshot count as new and so as not removed.
+     *
+     * @param stack The stack, nullable
+     * @param entity The entity of the stack, nullable
+     * @return true if the stack should be ignored
+     */
+    private boolean isRemoved(Stack<?> stack, Entity entity) {
+        return stack == null || entity == null || this.removedEntities.contains(entity.getUniqueId()) || !StackSnapshot.isValidOrNew(stack);
     }
 
     private void setRemoved(Entity entity) {
-        REMOVED_ENTITIES.put(entity.getUniqueId(), true);
+        this.removedEntities.add(entity.getUniqueId());
+        this.entityCacheManager.removeEntity(entity);
     }
 
     /**
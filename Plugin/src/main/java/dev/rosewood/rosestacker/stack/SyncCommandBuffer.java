@@ -0,0 +1,196 @@
+package dev.rosewood.rosestacker.stack;
+
+import dev.rosewood.rosestacker.scheduler.StackerScheduler;
+import dev.rosewood.rosestacker.utils.ThreadUtils;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.entity.Entity;
+
+/**
+ * Collects side effects of async stacking passes that must be applied on the main thread.
+ * Commands are queued while a pass runs and applied together in one main thread task once the pass flushes.
+ * The task stops after its time budget and resumes on the next tick if there are commands left over.
+ * Removals of entities that were merged away are flushed as soon as they are submitted and are always applied in full,
+ * so a merged entity can't be picked up or killed for long after its stack was taken over.
+ * Commands that change an entity are applied on the context owning that entity, the rest on the global context.
+ */
+public class SyncCommandBuffer {
+
+    private final StackerScheduler scheduler;
+    private final Queue<Command> commands, removals;
+    private final AtomicBoolean drainScheduled;
+    private final long timeBudget;
+    private volatile boolean closed;
+
+    private final AtomicLong appliedCommands, drains, totalDrainTime;
+    private volatile long lastDrainTime;
+
+    /**
+     * @param timeBudget The maximum time in nanoseconds a single drain can take, or 0 for no limit
+     */
+    public SyncCommandBuffer(long timeBudget) {
+        this(ThreadUtils.getScheduler(), timeBudget);
+    }
+
+    /**
+     * @param scheduler The scheduler to apply commands with
+     * @param timeBudget The maximum time in nanoseconds a single drain can take, or 0 for no limit
+     */
+    public SyncCommandBuffer(StackerScheduler scheduler, long timeBudget) {
+        this.scheduler = scheduler;
+        this.commands = new ConcurrentLinkedQueue<>();
+        this.removals = new ConcurrentLinkedQueue<>();
+        this.drainScheduled = new AtomicBoolean();
+        this.timeBudget = timeBudget;
+
+        this.appliedCommands = new AtomicLong();
+        this.drains = new AtomicLong();
+        this.totalDrainTime = new AtomicLong();
+    }
+
+    /**
+     * Runs a command immediately if called on the global context, otherwise queues it until the next flush
+     *
+     * @param command The command to run
+     */
+    public void submit(Runnable command) {
+        this.submit(null, command);
+    }
+
+    /**
+     * Runs a command immediately if called on the context owning an entity, otherwise queues it until the next flush
+     *
+     * @param owner The entity the command changes, or null if it only touches global state
+     * @param command The command to run
+     */
+    public void submit(Entity owner, Runnable command) {
+        if (owner == null ? this.scheduler.isGlobalThread() : this.scheduler.isOwnedByCurrentRegion(owner)) {
+            command.run();
+        } else {
+            this.commands.add(new Command(owner, command));
+        }
+    }
+
+    /**
+     * Runs the removal of a merged entity immediately if called on the context owning it, otherwise queues it and
+     * flushes right away instead of waiting for the pass to finish. Removals are not limited by the time budget.
+     *
+     * @param owner The entity being removed
+     * @param command The command that removes the entity
+     */
+    public void submitRemoval(Entity owner, Runnable command) {
+        if (this.scheduler.isOwnedByCurrentRegion(owner)) {
+            command.run();
+        } else {
+            this.removals.add(new Command(owner, command));
+            this.flush();
+        }
+    }
+
+    /**
+     * Schedules a main thread task to apply all queued commands, if one is not already scheduled
+     */
+    public void flush() {
+        if (!this.closed && (!this.commands.isEmpty() || !this.removals.isEmpty()) && this.drainScheduled.compareAndSet(false, true))
+            this.scheduler.runGlobal(this::drain);
+    }
+
+    /**
+     * Applies all queued commands right away, ignoring the time budget, must be called on the main thread.
+     * No more drains are scheduled afterwards.
+     */
+    public void close() {
+        this.closed = true;
+
+        Command command;
+        while ((command = this.removals.poll()) != null)
+            this.apply(command);
+        while ((command = this.commands.poll()) != null)
+            this.apply(command);
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        long deadline = start + this.timeBudget;
+        int applied = 0;
+
+        // Removals always go through in full, only the remaining commands are limited by the budget
+        Command command;
+        while ((command = this.removals.poll()) != null) {
+            this.apply(command);
+            applied++;
+        }
+
+        while ((command = this.commands.poll()) != null) {
+            this.apply(command);
+            applied++;
+            if (this.timeBudget > 0 && System.nanoTime() >= deadline)
+                break;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        this.lastDrainTime = elapsed;
+        this.totalDrainTime.addAndGet(elapsed);
+        this.drains.incrementAndGet();
+        this.appliedCommands.addAndGet(applied);
+
+        // Anything left over is applied on the next tick
+        this.drainScheduled.set(false);
+        this.flush();
+    }
+
+    private void apply(Command command) {
+        // Hand the command over to the region owning its entity if that is not this one
+        Entity owner = command.owner();
+        if (owner != null && !this.scheduler.isOwnedByCurrentRegion(owner)) {
+            this.scheduler.runEntity(owner, command.action());
+            return;
+        }
+
+        try {
+            command.action().run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the number of commands waiting to be applied
+     */
+    public int getPendingCommands() {
+        return this.commands.size() + this.removals.size();
+    }
+
+    /**
+     * @return the number of commands applied since this buffer was created
+     */
+    public long getAppliedCommands() {
+        return this.appliedCommands.get();
+    }
+
+    /**
+     * @return the number of main thread drains run since this buffer was created
+     */
+    public long getDrains() {
+        return this.drains.get();
+    }
+
+    /**
+     * @return the total time in nanoseconds spent draining since this buffer was created
+     */
+    public long getTotalDrainTime() {
+        return this.totalDrainTime.get();
+    }
+
+    /**
+     * @return the time in nanoseconds the last drain took
+     */
+    public long getLastDrainTime() {
+        return this.lastDrainTime;
+    }
+
+    private record Command(Entity owner, Runnable action) { }
+
+}
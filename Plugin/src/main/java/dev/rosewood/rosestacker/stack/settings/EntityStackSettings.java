@@ -59,6 +59,8 @@ public class EntityStackSettings extends StackSettings {
 
     // Conditions and settings loaded specifically for this entity type
     private final List<StackConditionEntry<?>> stackConditions;
+    private final StackConditions.StackValidationFunction<Entity>[] compiledConditions;
+    private final StackConditions.StackSignatureFunction<Entity>[] compiledSignatures;
     private final Map<String, EntitySetting> extraSettings;
 
     // Settings that apply to every entity
@@ -72,6 +74,7 @@ public class EntityStackSettings extends StackSettings {
     private final StackedEntityDataStorageType dataStorageTypeOverride;
     private final Boolean disableAllMobAI;
 
+    @SuppressWarnings("unchecked")
     public EntityStackSettings(CommentedFileConfiguration settingsFileConfiguration, JsonObject jsonObject, EntityType entityType) {
         super(settingsFileConfiguration);
 
@@ -133,6 +136,16 @@ public class EntityStackSettings extends StackSettings {
 
         this.stackConditions.forEach(StackConditionEntry::load);
         this.extraSettings.values().forEach(EntitySetting::load);
+
+        // Flatten the enabled conditions into arrays so comparisons don't need to skip over disabled ones
+        this.compiledConditions = compileConditions(this.stackConditions.stream()
+                .filter(x -> x.enabled)
+                .<StackConditions.StackCondition<?>>map(x -> x.condition)
+                .toList());
+        this.compiledSignatures = this.stackConditions.stream()
+                .map(StackConditionEntry::compileSignature)
+                .filter(Objects::nonNull)
+                .toArray(StackConditions.StackSignatureFunction[]::new);
     }
 
     private void putSetting(String key, Object defaultValue) {
@@ -200,8 +213,57 @@ public class EntityStackSettings extends StackSettings {
         LivingEntity entity1 = stack1.getEntity();
         LivingEntity entity2 = stack2.getEntity();
 
-        for (StackConditionEntry<?> stackCondition : this.stackConditions) {
-            EntityStackComparisonResult result = stackCondition.apply(this, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions);
+        try {
+            return evaluateConditions(this.compiledConditions, this, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions);
+        } catch (ClassCastException e) {
+            RoseStacker.getInstance().getLogger().warning(String.format("Failed to cast entities [%s, %s]", entity1.getClass().getSimpleName(), entity2.getClass().getSimpleName()));
+            return EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES;
+        }
+    }
+
+    /**
+     * Applies the entity cast to the functions of the given conditions
+     *
+     * @param conditions The enabled conditions, in the order they should be evaluated
+     * @return the compiled condition functions
+     */
+    @SuppressWarnings("unchecked")
+    static StackConditions.StackValidationFunction<Entity>[] compileConditions(List<StackConditions.StackCondition<?>> conditions) {
+        return conditions.stream()
+                .map(EntityStackSettings::compileCondition)
+                .toArray(StackConditions.StackValidationFunction[]::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> StackConditions.StackValidationFunction<Entity> compileCondition(StackConditions.StackCondition<T> condition) {
+        StackConditions.StackValidationFunction<T> function = condition.function();
+        return (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                -> function.apply(stackSettings, stack1, stack2, (T) entity1, (T) entity2, comparingForUnstack, ignorePositions);
+    }
+
+    /**
+     * Evaluates compiled conditions in order, stopping at the first one that doesn't allow the entities to stack
+     *
+     * @param conditions The compiled conditions
+     * @param stackSettings The settings the comparison is made for
+     * @param stack1 The first stack
+     * @param stack2 The second stack
+     * @param entity1 The entity of the first stack
+     * @param entity2 The entity of the second stack
+     * @param comparingForUnstack true if the comparison is being made for unstacking, false otherwise
+     * @param ignorePositions true if position checks for the entities should be ignored, false otherwise
+     * @return the comparison result
+     * @throws ClassCastException if a condition can't be applied to the entities
+     */
+    static EntityStackComparisonResult evaluateConditions(StackConditions.StackValidationFunction<Entity>[] conditions, EntityStackSettings stackSettings,
+                                                          StackedEntity stack1, StackedEntity stack2, Entity entity1, Entity entity2,
+                                                          boolean comparingForUnstack, boolean ignorePositions) {
+        // TODO: No clue why this is needed. Somehow the case breaks because the entity types aren't the same. What?
+        if (entity1.getClass() != entity2.getClass())
+            return EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES;
+
+        for (StackConditions.StackValidationFunction<Entity> condition : conditions) {
+            EntityStackComparisonResult result = condition.apply(stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions);
             if (result != EntityStackComparisonResult.CAN_STACK)
                 return result;
         }
@@ -342,6 +404,23 @@ public class EntityStackSettings extends StackSettings {
             ((Ageable) entity).setAdult();
     }
 
+    /**
+     * Computes the stack signature of an entity from the enabled conditions that only depend on a single entity.
+     * Two entities with different signatures can never stack together, so entities can be grouped by signature
+     * before running the full comparison between pairs.
+     *
+     * @param entity The entity to compute the signature of
+     * @return the stack signature of the entity
+     */
+    public int computeSignature(Entity entity) {
+        int signature = this.entityType.ordinal();
+        try {
+            for (StackConditions.StackSignatureFunction<Entity> signatureFunction : this.compiledSignatures)
+                signature = 31 * signature + signatureFunction.apply(entity);
+        } catch (ClassCastException ignored) { }
+        return signature;
+    }
+
     /**
      * @return the EntityType for this EntityStackSettings
      */
@@ -367,22 +446,15 @@ public class EntityStackSettings extends StackSettings {
             this.enabled = true;
         }
 
-        public EntityStackComparisonResult apply(EntityStackSettings stackSettings, StackedEntity stack1,
-                                                 StackedEntity stack2, Entity entity1, Entity entity2, boolean comparingForUnstack,
-                                                 boolean ignorePositions) {
-            if (!this.enabled)
-                return EntityStackComparisonResult.CAN_STACK;
-
-            // TODO: No clue why this is needed. Somehow the case breaks because the entity types aren't the same. What?
-            if (entity1.getClass() != entity2.getClass())
-                return EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES;
-
-            try {
-                return this.condition.function().apply(stackSettings, stack1, stack2, (T) entity1, (T) entity2, comparingForUnstack, ignorePositions);
-            } catch (ClassCastException e) {
-                RoseStacker.getInstance().getLogger().warning(String.format("Failed to cast entities [%s, %s]", entity1.getClass().getSimpleName(), entity2.getClass().getSimpleName()));
-                return EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES;
-            }
+        /**
+         * @return the signature function with the entity cast applied, or null if the condition is disabled or has no signature
+         */
+        public StackConditions.StackSignatureFunction<Entity> compileSignature() {
+            StackConditions.StackSignatureFunction<T> signatureFunction = this.condition.signatureFunction();
+            if (!this.enabled || signatureFunction == null)
+                return null;
+
+            return entity -> signatureFunction.apply((T) entity);
         }
 
         public void setDefaults() {
@@ -3,14 +3,18 @@ package dev.rosewood.rosestacker.stack.settings.conditions.entity;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
 import dev.rosewood.rosegarden.utils.NMSUtil;
-import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
+import dev.rosewood.rosestacker.manager.ConfigurationManager;
 import dev.rosewood.rosestacker.nms.NMSAdapter;
 import dev.rosewood.rosestacker.nms.NMSHandler;
 import dev.rosewood.rosestacker.stack.EntityStackComparisonResult;
+import dev.rosewood.rosestacker.stack.StackSnapshot;
 import dev.rosewood.rosestacker.stack.StackedEntity;
 import dev.rosewood.rosestacker.stack.settings.EntityStackSettings;
 import dev.rosewood.rosestacker.utils.PersistentDataUtils;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import org.bukkit.Material;
 import org.bukkit.entity.AbstractHorse;
 import org.bukkit.entity.Ageable;
@@ -94,16 +98,16 @@ public final class StackConditions {
             if (PersistentDataUtils.isUnstackable(entity1) || PersistentDataUtils.isUnstackable(entity2))
                 return EntityStackComparisonResult.MARKED_UNSTACKABLE;
 
-            if (Setting.ENTITY_DONT_STACK_CUSTOM_NAMED.getBoolean() && (entity1.getCustomName() != null || entity2.getCustomName() != null)
+            if (ConfigurationManager.getSnapshot().entityDontStackCustomNamed() && (entity1.getCustomName() != null || entity2.getCustomName() != null)
                     && entity1.getType() != EntityType.SNOWMAN) // Force named snow golems to always stack together for infinite snowball lag-prevention reasons
                 return EntityStackComparisonResult.CUSTOM_NAMED;
 
             if (!comparingForUnstack && !ignorePositions && !stackSettings.getEntityTypeData().swimmingMob() && !stackSettings.getEntityTypeData().flyingMob()) {
-                if (Setting.ENTITY_ONLY_STACK_ON_GROUND.getBoolean() && (!entity1.isOnGround() || !entity2.isOnGround()))
+                if (ConfigurationManager.getSnapshot().entityOnlyStackOnGround() && (!StackSnapshot.isOnGround(stack1, entity1) || !StackSnapshot.isOnGround(stack2, entity2)))
                     return EntityStackComparisonResult.NOT_ON_GROUND;
 
-                if (Setting.ENTITY_DONT_STACK_IF_IN_WATER.getBoolean() &&
-                        (entity1.getLocation().getBlock().getType() == Material.WATER || entity2.getLocation().getBlock().getType() == Material.WATER))
+                if (ConfigurationManager.getSnapshot().entityDontStackIfInWater() &&
+                        (StackSnapshot.isInWater(stack1, entity1) || StackSnapshot.isInWater(stack2, entity2)))
                     return EntityStackComparisonResult.IN_WATER;
             }
 
@@ -115,7 +119,7 @@ public final class StackConditions {
             if (!comparingForUnstack && (!entity1.getPassengers().isEmpty() || !entity2.getPassengers().isEmpty() || entity1.isInsideVehicle() || entity2.isInsideVehicle()))
                 return EntityStackComparisonResult.PART_OF_VEHICLE; // If comparing for unstack and is being ridden or is riding something, don't want to unstack it
 
-            if (Setting.ENTITY_DONT_STACK_IF_INVULNERABLE.getBoolean() && (entity1.isInvulnerable() || entity2.isInvulnerable()))
+            if (ConfigurationManager.getSnapshot().entityDontStackIfInvulnerable() && (entity1.isInvulnerable() || entity2.isInvulnerable()))
                 return EntityStackComparisonResult.INVULNERABLE;
 
             return EntityStackComparisonResult.CAN_STACK;
@@ -123,10 +127,10 @@ public final class StackConditions {
 
         // Register base LivingEntity conditions
         register(LivingEntity.class, (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions) -> {
-            if (!comparingForUnstack && Setting.ENTITY_DONT_STACK_IF_LEASHED.getBoolean() && (entity1.isLeashed() || entity2.isLeashed()))
+            if (!comparingForUnstack && ConfigurationManager.getSnapshot().entityDontStackIfLeashed() && (entity1.isLeashed() || entity2.isLeashed()))
                 return EntityStackComparisonResult.LEASHED;
 
-            if (Setting.ENTITY_DONT_STACK_IF_HAS_EQUIPMENT.getBoolean()) {
+            if (ConfigurationManager.getSnapshot().entityDontStackIfHasEquipment()) {
                 EntityEquipment equipment1 = entity1.getEquipment();
                 EntityEquipment equipment2 = entity2.getEquipment();
 
@@ -147,16 +151,16 @@ public final class StackConditions {
                 }
             }
 
-            if (Setting.ENTITY_DONT_STACK_IF_ACTIVE_RAIDER.getBoolean() && (NMS_HANDLER.isActiveRaider(entity1) || NMS_HANDLER.isActiveRaider(entity2)))
+            if (ConfigurationManager.getSnapshot().entityDontStackIfActiveRaider() && (NMS_HANDLER.isActiveRaider(entity1) || NMS_HANDLER.isActiveRaider(entity2)))
                 return EntityStackComparisonResult.PART_OF_ACTIVE_RAID;
 
             return EntityStackComparisonResult.CAN_STACK;
         });
 
         // Register conditions for specific interfaces
-        registerConfig(Colorable.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getColor() != entity2.getColor());
-        registerConfig(Sittable.class, "sitting", false, EntityStackComparisonResult.SITTING, (entity1, entity2) -> entity1.isSitting() || entity2.isSitting());
-        registerConfig(Tameable.class, "tamed", false, EntityStackComparisonResult.TAMED, (entity1, entity2) -> entity1.isTamed() || entity2.isTamed());
+        registerConfigProperty(Colorable.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Colorable::getColor);
+        registerConfigFlag(Sittable.class, "sitting", false, EntityStackComparisonResult.SITTING, Sittable::isSitting);
+        registerConfigFlag(Tameable.class, "tamed", false, EntityStackComparisonResult.TAMED, Tameable::isTamed);
         registerConfig(Tameable.class, "different-owners", false, EntityStackComparisonResult.DIFFERENT_OWNERS, (entity1, entity2) -> {
             AnimalTamer tamer1 = entity1.getOwner();
             AnimalTamer tamer2 = entity2.getOwner();
@@ -171,89 +175,89 @@ public final class StackConditions {
             }
             return entity1.isLoveMode() || entity2.isLoveMode() || (!entity1.canBreed() && entity1.isAdult()) || (!entity2.canBreed() && entity2.isAdult());
         });
-        registerConfig(Ageable.class, "different-age", true, EntityStackComparisonResult.DIFFERENT_AGES, (entity1, entity2) -> entity1.isAdult() != entity2.isAdult());
-        registerConfig(Ageable.class, "baby", false, EntityStackComparisonResult.BABY, (entity1, entity2) -> !entity1.isAdult() || !entity2.isAdult());
-        registerConfig(AbstractHorse.class, "saddled", false, EntityStackComparisonResult.SADDLED, (entity1, entity2) -> entity1.getInventory().getSaddle() != null || entity2.getInventory().getSaddle() != null);
-        registerConfig(ChestedHorse.class, "chested", false, EntityStackComparisonResult.HAS_CHEST, (entity1, entity2) -> entity1.isCarryingChest() || entity2.isCarryingChest());
-        registerConfig(Raider.class, "patrol-leader", false, EntityStackComparisonResult.PATROL_LEADER, (entity1, entity2) -> entity1.isPatrolLeader() || entity2.isPatrolLeader());
-        registerConfig(Merchant.class, "trading", false, EntityStackComparisonResult.TRADING, (entity1, entity2) -> entity1.isTrading() || entity2.isTrading());
+        registerConfigProperty(Ageable.class, "different-age", true, EntityStackComparisonResult.DIFFERENT_AGES, Ageable::isAdult);
+        registerConfigFlag(Ageable.class, "baby", false, EntityStackComparisonResult.BABY, entity -> !entity.isAdult());
+        registerConfigFlag(AbstractHorse.class, "saddled", false, EntityStackComparisonResult.SADDLED, entity -> entity.getInventory().getSaddle() != null);
+        registerConfigFlag(ChestedHorse.class, "chested", false, EntityStackComparisonResult.HAS_CHEST, ChestedHorse::isCarryingChest);
+        registerConfigFlag(Raider.class, "patrol-leader", false, EntityStackComparisonResult.PATROL_LEADER, Raider::isPatrolLeader);
+        registerConfigFlag(Merchant.class, "trading", false, EntityStackComparisonResult.TRADING, Merchant::isTrading);
 
         // Register conditions for specific entities
         int versionNumber = NMSUtil.getVersionNumber();
         if (versionNumber >= 19) {
             // Allay, Frog, Goat (extras), Tadpole, Warden
-            registerConfig(Allay.class, "holding-items", false, EntityStackComparisonResult.HOLDING_ITEMS, (entity1, entity2) -> !entity1.getInventory().isEmpty() || !entity2.getInventory().isEmpty());
-            registerConfig(Frog.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
+            registerConfigFlag(Allay.class, "holding-items", false, EntityStackComparisonResult.HOLDING_ITEMS, entity -> !entity.getInventory().isEmpty());
+            registerConfigProperty(Frog.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Frog::getVariant);
             registerConfig(Goat.class, "different-horns", false, EntityStackComparisonResult.DIFFERENT_HORNS, (entity1, entity2) -> entity1.hasLeftHorn() != entity2.hasLeftHorn() || entity1.hasRightHorn() != entity2.hasRightHorn());
 
             // 1.19.3+
             if (NMSAdapter.getHandler().supportsEmptySpawners()) {
-                registerConfig(Camel.class, "dashing", false, EntityStackComparisonResult.DASHING, (entity1, entity2) -> entity1.isDashing() || entity2.isDashing());
+                registerConfigFlag(Camel.class, "dashing", false, EntityStackComparisonResult.DASHING, Camel::isDashing);
             }
         }
 
         if (versionNumber >= 17) {
             // Axolotl, Glow Squid, Goat
-            registerConfig(Axolotl.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
-            registerConfig(Axolotl.class, "playing-dead", false, EntityStackComparisonResult.PLAYING_DEAD, (entity1, entity2) -> entity1.isPlayingDead() || entity2.isPlayingDead());
-            registerConfig(GlowSquid.class, "dark", false, EntityStackComparisonResult.BRAVO_SIX_GOING_DARK, (entity1, entity2) -> entity1.getDarkTicksRemaining() > 0 || entity2.getDarkTicksRemaining() > 0);
-            registerConfig(Goat.class, "screaming", false, EntityStackComparisonResult.SCREAMING, (entity1, entity2) -> entity1.isScreaming() || entity2.isScreaming());
+            registerConfigProperty(Axolotl.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Axolotl::getVariant);
+            registerConfigFlag(Axolotl.class, "playing-dead", false, EntityStackComparisonResult.PLAYING_DEAD, Axolotl::isPlayingDead);
+            registerConfigFlag(GlowSquid.class, "dark", false, EntityStackComparisonResult.BRAVO_SIX_GOING_DARK, entity -> entity.getDarkTicksRemaining() > 0);
+            registerConfigFlag(Goat.class, "screaming", false, EntityStackComparisonResult.SCREAMING, Goat::isScreaming);
         }
 
         // Everything else
-        registerConfig(Bat.class, "sleeping", false, EntityStackComparisonResult.SLEEPING, (entity1, entity2) -> !entity1.isAwake() || !entity2.isAwake());
-        registerConfig(Bee.class, "angry", false, EntityStackComparisonResult.ANGRY, (entity1, entity2) -> entity1.getAnger() > 0 || entity2.getAnger() > 0);
-        registerConfig(Bee.class, "has-hive", false, EntityStackComparisonResult.HAS_HIVE, (entity1, entity2) -> entity1.getHive() != null || entity2.getHive() != null);
+        registerConfigFlag(Bat.class, "sleeping", false, EntityStackComparisonResult.SLEEPING, entity -> !entity.isAwake());
+        registerConfigFlag(Bee.class, "angry", false, EntityStackComparisonResult.ANGRY, entity -> entity.getAnger() > 0);
+        registerConfigFlag(Bee.class, "has-hive", false, EntityStackComparisonResult.HAS_HIVE, entity -> entity.getHive() != null);
         registerConfig(Bee.class, "different-hives", false, EntityStackComparisonResult.DIFFERENT_HIVES, (entity1, entity2) -> entity1.getHive() != null && entity2.getHive() != null && !entity1.getHive().equals(entity2.getHive()));
-        registerConfig(Bee.class, "stung", false, EntityStackComparisonResult.HAS_STUNG, (entity1, entity2) -> entity1.hasStung() || entity2.hasStung());
-        registerConfig(Bee.class, "has-flower", false, EntityStackComparisonResult.HAS_FLOWER, (entity1, entity2) -> entity1.getFlower() != null || entity2.getFlower() != null);
-        registerConfig(Bee.class, "has-nectar", false, EntityStackComparisonResult.HAS_NECTAR, (entity1, entity2) -> entity1.hasNectar() || entity2.hasNectar());
-        registerConfig(Cat.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getCatType() != entity2.getCatType());
-        registerConfig(Cat.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, (entity1, entity2) -> entity1.getCollarColor() != entity2.getCollarColor());
-        registerConfig(Creeper.class, "charged", false, EntityStackComparisonResult.CHARGED, (entity1, entity2) -> entity1.isPowered() || entity2.isPowered());
-        registerConfig(Enderman.class, "holding-block", false, EntityStackComparisonResult.HOLDING_BLOCK, (entity1, entity2) -> entity1.getCarriedBlock() != null || entity2.getCarriedBlock() != null);
-        registerConfig(Fox.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getFoxType() != entity2.getFoxType());
+        registerConfigFlag(Bee.class, "stung", false, EntityStackComparisonResult.HAS_STUNG, Bee::hasStung);
+        registerConfigFlag(Bee.class, "has-flower", false, EntityStackComparisonResult.HAS_FLOWER, entity -> entity.getFlower() != null);
+        registerConfigFlag(Bee.class, "has-nectar", false, EntityStackComparisonResult.HAS_NECTAR, Bee::hasNectar);
+        registerConfigProperty(Cat.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Cat::getCatType);
+        registerConfigProperty(Cat.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, Cat::getCollarColor);
+        registerConfigFlag(Creeper.class, "charged", false, EntityStackComparisonResult.CHARGED, Creeper::isPowered);
+        registerConfigFlag(Enderman.class, "holding-block", false, EntityStackComparisonResult.HOLDING_BLOCK, entity -> entity.getCarriedBlock() != null);
+        registerConfigProperty(Fox.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Fox::getFoxType);
         registerConfig(Hoglin.class, "unhuntable", false, EntityStackComparisonResult.UNHUNTABLE, (entity1, entity2) -> !entity1.isAbleToBeHunted() || entity2.isAbleToBeHunted());
-        registerConfig(Horse.class, "armored", false, EntityStackComparisonResult.HAS_ARMOR, (entity1, entity2) -> entity1.getInventory().getArmor() != null || entity2.getInventory().getArmor() != null);
-        registerConfig(Horse.class, "different-style", false, EntityStackComparisonResult.DIFFERENT_STYLES, (entity1, entity2) -> entity1.getStyle() != entity2.getStyle());
-        registerConfig(Horse.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getColor() != entity2.getColor());
-        registerConfig(IronGolem.class, "player-created", false, EntityStackComparisonResult.SPAWNED_BY_PLAYER, (entity1, entity2) -> entity1.isPlayerCreated() || entity2.isPlayerCreated());
-        registerConfig(Llama.class, "different-decor", false, EntityStackComparisonResult.DIFFERENT_DECORS, (entity1, entity2) -> entity1.getInventory().getDecor() != entity2.getInventory().getDecor());
-        registerConfig(Llama.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, (entity1, entity2) -> entity1.getColor() != entity2.getColor());
-        registerConfig(MushroomCow.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
-        registerConfig(Panda.class, "different-main-gene", false, EntityStackComparisonResult.DIFFERENT_MAIN_GENES, (entity1, entity2) -> entity1.getMainGene() != entity2.getMainGene());
-        registerConfig(Panda.class, "different-recessive-gene", false, EntityStackComparisonResult.DIFFERENT_RECESSIVE_GENES, (entity1, entity2) -> entity1.getHiddenGene() != entity2.getHiddenGene());
-        registerConfig(Parrot.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVariant() != entity2.getVariant());
-        registerConfig(Phantom.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, (entity1, entity2) -> entity1.getSize() != entity2.getSize());
-        registerConfig(PiglinAbstract.class, "converting", false, EntityStackComparisonResult.CONVERTING, (entity1, entity2) -> entity1.isConverting() || entity2.isConverting());
-        registerConfig(PiglinAbstract.class, "immune-to-zombification", false, EntityStackComparisonResult.IMMUNE_TO_ZOMBIFICATION, (entity1, entity2) -> entity1.isImmuneToZombification() != entity2.isImmuneToZombification());
-        registerConfig(Piglin.class, "unable-to-hunt", false, EntityStackComparisonResult.UNABLE_TO_HUNT, (entity1, entity2) -> !entity1.isAbleToHunt() || !entity2.isAbleToHunt());
-        registerConfig(PigZombie.class, "angry", false, EntityStackComparisonResult.ANGRY, (entity1, entity2) -> entity1.isAngry() || entity2.isAngry());
-        registerConfig(Pig.class, "saddled", false, EntityStackComparisonResult.SADDLED, (entity1, entity2) -> entity1.hasSaddle() || entity2.hasSaddle());
-        registerConfig(PufferFish.class, "different-inflation", false, EntityStackComparisonResult.DIFFERENT_INFLATIONS, (entity1, entity2) -> entity1.getPuffState() != entity2.getPuffState());
-        registerConfig(Rabbit.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getRabbitType() != entity2.getRabbitType());
-        registerConfig(Sheep.class, "sheared", false, EntityStackComparisonResult.SHEARED, (entity1, entity2) -> entity1.isSheared() || entity2.isSheared());
-        registerConfig(Sheep.class, "different-shear-state", false, EntityStackComparisonResult.SHEARED_STATE_DIFFERENT, (entity1, entity2) -> entity1.isSheared() != entity2.isSheared());
-        registerConfig(Slime.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, (entity1, entity2) -> entity1.getSize() != entity2.getSize());
-        registerConfig(Snowman.class, "no-pumpkin", false, EntityStackComparisonResult.NO_PUMPKIN, (entity1, entity2) -> entity1.isDerp() || entity2.isDerp());
-        registerConfig(Strider.class, "shivering", false, EntityStackComparisonResult.SHIVERING, (entity1, entity2) -> entity1.isShivering() || entity2.isShivering());
-        registerConfig(Strider.class, "saddled", false, EntityStackComparisonResult.SADDLED, (entity1, entity2) -> entity1.hasSaddle() || entity2.hasSaddle());
-        registerConfig(TropicalFish.class, "different-body-color", false, EntityStackComparisonResult.DIFFERENT_BODY_COLORS, (entity1, entity2) -> entity1.getBodyColor() != entity2.getBodyColor());
-        registerConfig(TropicalFish.class, "different-pattern", false, EntityStackComparisonResult.DIFFERENT_PATTERNS, (entity1, entity2) -> entity1.getPattern() != entity2.getPattern());
-        registerConfig(TropicalFish.class, "different-pattern-color", false, EntityStackComparisonResult.DIFFERENT_PATTERN_COLORS, (entity1, entity2) -> entity1.getPatternColor() != entity2.getPatternColor());
-        registerConfig(Vex.class, "charging", false, EntityStackComparisonResult.CHARGING, (entity1, entity2) -> entity1.isCharging() || entity2.isCharging());
+        registerConfigFlag(Horse.class, "armored", false, EntityStackComparisonResult.HAS_ARMOR, entity -> entity.getInventory().getArmor() != null);
+        registerConfigProperty(Horse.class, "different-style", false, EntityStackComparisonResult.DIFFERENT_STYLES, Horse::getStyle);
+        registerConfigProperty(Horse.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Horse::getColor);
+        registerConfigFlag(IronGolem.class, "player-created", false, EntityStackComparisonResult.SPAWNED_BY_PLAYER, IronGolem::isPlayerCreated);
+        registerConfigProperty(Llama.class, "different-decor", false, EntityStackComparisonResult.DIFFERENT_DECORS, entity -> entity.getInventory().getDecor());
+        registerConfigProperty(Llama.class, "different-color", false, EntityStackComparisonResult.DIFFERENT_COLORS, Llama::getColor);
+        registerConfigProperty(MushroomCow.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, MushroomCow::getVariant);
+        registerConfigProperty(Panda.class, "different-main-gene", false, EntityStackComparisonResult.DIFFERENT_MAIN_GENES, Panda::getMainGene);
+        registerConfigProperty(Panda.class, "different-recessive-gene", false, EntityStackComparisonResult.DIFFERENT_RECESSIVE_GENES, Panda::getHiddenGene);
+        registerConfigProperty(Parrot.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Parrot::getVariant);
+        registerConfigProperty(Phantom.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, Phantom::getSize);
+        registerConfigFlag(PiglinAbstract.class, "converting", false, EntityStackComparisonResult.CONVERTING, PiglinAbstract::isConverting);
+        registerConfigProperty(PiglinAbstract.class, "immune-to-zombification", false, EntityStackComparisonResult.IMMUNE_TO_ZOMBIFICATION, PiglinAbstract::isImmuneToZombification);
+        registerConfigFlag(Piglin.class, "unable-to-hunt", false, EntityStackComparisonResult.UNABLE_TO_HUNT, entity -> !entity.isAbleToHunt());
+        registerConfigFlag(PigZombie.class, "angry", false, EntityStackComparisonResult.ANGRY, PigZombie::isAngry);
+        registerConfigFlag(Pig.class, "saddled", false, EntityStackComparisonResult.SADDLED, Pig::hasSaddle);
+        registerConfigProperty(PufferFish.class, "different-inflation", false, EntityStackComparisonResult.DIFFERENT_INFLATIONS, PufferFish::getPuffState);
+        registerConfigProperty(Rabbit.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Rabbit::getRabbitType);
+        registerConfigFlag(Sheep.class, "sheared", false, EntityStackComparisonResult.SHEARED, Sheep::isSheared);
+        registerConfigProperty(Sheep.class, "different-shear-state", false, EntityStackComparisonResult.SHEARED_STATE_DIFFERENT, Sheep::isSheared);
+        registerConfigProperty(Slime.class, "different-size", true, EntityStackComparisonResult.DIFFERENT_SIZES, Slime::getSize);
+        registerConfigFlag(Snowman.class, "no-pumpkin", false, EntityStackComparisonResult.NO_PUMPKIN, Snowman::isDerp);
+        registerConfigFlag(Strider.class, "shivering", false, EntityStackComparisonResult.SHIVERING, Strider::isShivering);
+        registerConfigFlag(Strider.class, "saddled", false, EntityStackComparisonResult.SADDLED, Strider::hasSaddle);
+        registerConfigProperty(TropicalFish.class, "different-body-color", false, EntityStackComparisonResult.DIFFERENT_BODY_COLORS, TropicalFish::getBodyColor);
+        registerConfigProperty(TropicalFish.class, "different-pattern", false, EntityStackComparisonResult.DIFFERENT_PATTERNS, TropicalFish::getPattern);
+        registerConfigProperty(TropicalFish.class, "different-pattern-color", false, EntityStackComparisonResult.DIFFERENT_PATTERN_COLORS, TropicalFish::getPatternColor);
+        registerConfigFlag(Vex.class, "charging", false, EntityStackComparisonResult.CHARGING, Vex::isCharging);
         registerConfig(Villager.class, "professioned", false, EntityStackComparisonResult.PROFESSIONED, (entity1, entity2) -> {
             List<String> professionValues = List.of("NONE", "NITWIT");
             return !professionValues.contains(entity1.getProfession().name()) || !professionValues.contains(entity2.getProfession().name());
         });
-        registerConfig(Villager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, (entity1, entity2) -> entity1.getProfession() != entity2.getProfession());
-        registerConfig(Villager.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, (entity1, entity2) -> entity1.getVillagerType() != entity2.getVillagerType());
-        registerConfig(Villager.class, "different-level", false, EntityStackComparisonResult.DIFFERENT_LEVELS, (entity1, entity2) -> entity1.getVillagerLevel() != entity2.getVillagerLevel());
-        registerConfig(Wolf.class, "angry", false, EntityStackComparisonResult.ANGRY, (entity1, entity2) -> entity1.isAngry() || entity2.isAngry());
-        registerConfig(Wolf.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, (entity1, entity2) -> entity1.getCollarColor() != entity2.getCollarColor());
-        registerConfig(Zombie.class, "converting", false, EntityStackComparisonResult.CONVERTING, (entity1, entity2) -> entity1.isConverting() || entity2.isConverting());
-        registerConfig(ZombieVillager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, (entity1, entity2) -> entity1.getVillagerProfession() != entity2.getVillagerProfession());
-        registerConfig(ZombieVillager.class, "converting", false, EntityStackComparisonResult.CONVERTING, (entity1, entity2) -> entity1.isConverting() || entity2.isConverting());
+        registerConfigProperty(Villager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, Villager::getProfession);
+        registerConfigProperty(Villager.class, "different-type", false, EntityStackComparisonResult.DIFFERENT_TYPES, Villager::getVillagerType);
+        registerConfigProperty(Villager.class, "different-level", false, EntityStackComparisonResult.DIFFERENT_LEVELS, Villager::getVillagerLevel);
+        registerConfigFlag(Wolf.class, "angry", false, EntityStackComparisonResult.ANGRY, Wolf::isAngry);
+        registerConfigProperty(Wolf.class, "different-collar-color", false, EntityStackComparisonResult.DIFFERENT_COLLAR_COLORS, Wolf::getCollarColor);
+        registerConfigFlag(Zombie.class, "converting", false, EntityStackComparisonResult.CONVERTING, Zombie::isConverting);
+        registerConfigProperty(ZombieVillager.class, "different-profession", false, EntityStackComparisonResult.DIFFERENT_PROFESSIONS, ZombieVillager::getVillagerProfession);
+        registerConfigFlag(ZombieVillager.class, "converting", false, EntityStackComparisonResult.CONVERTING, ZombieVillager::isConverting);
     }
 
     private StackConditions() {
@@ -269,20 +273,55 @@ public final class StackConditions {
 
     public static <T> void registerConfig(Class<T> assignableClass, String key, boolean defaultEnabled, EntityStackComparisonResult failureReason, StackValidationPredicate<T> validationPredicate) {
         registerInternal(assignableClass, new ConfigProperties("dont-stack-if-" + key, defaultEnabled), (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
-                -> validationPredicate.test(entity1, entity2) ? failureReason : EntityStackComparisonResult.CAN_STACK);
+                -> validationPredicate.test(entity1, entity2) ? failureReason : EntityStackComparisonResult.CAN_STACK, null);
+    }
+
+    /**
+     * Registers a condition that fails if the two entities have a different value for a property.
+     * The property also becomes part of the entity's stack signature.
+     *
+     * @param assignableClass The class the condition applies to
+     * @param key The config key, without the dont-stack-if- prefix
+     * @param defaultEnabled true if the condition is enabled by default
+     * @param failureReason The result to return if the condition fails
+     * @param property Gets the property from an entity
+     */
+    public static <T> void registerConfigProperty(Class<T> assignableClass, String key, boolean defaultEnabled, EntityStackComparisonResult failureReason, Function<T, ?> property) {
+        registerInternal(assignableClass, new ConfigProperties("dont-stack-if-" + key, defaultEnabled), (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                -> !Objects.equals(property.apply(entity1), property.apply(entity2)) ? failureReason : EntityStackComparisonResult.CAN_STACK, entity -> Objects.hashCode(property.apply(entity)));
+    }
+
+    /**
+     * Registers a condition that fails if either of the two entities has a flag set.
+     * The flag also becomes part of the entity's stack signature.
+     *
+     * @param assignableClass The class the condition applies to
+     * @param key The config key, without the dont-stack-if- prefix
+     * @param defaultEnabled true if the condition is enabled by default
+     * @param failureReason The result to return if the condition fails
+     * @param flag Tests if the flag is set for an entity
+     */
+    public static <T> void registerConfigFlag(Class<T> assignableClass, String key, boolean defaultEnabled, EntityStackComparisonResult failureReason, Predicate<T> flag) {
+        registerInternal(assignableClass, new ConfigProperties("dont-stack-if-" + key, defaultEnabled), (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                -> flag.test(entity1) || flag.test(entity2) ? failureReason : EntityStackComparisonResult.CAN_STACK, entity -> flag.test(entity) ? 1 : 0);
     }
 
     public static <T> void register(Class<T> assignableClass, StackValidationFunction<T> validationFunction) {
-        registerInternal(assignableClass, null, validationFunction);
+        registerInternal(assignableClass, null, validationFunction, null);
     }
 
-    private static <T, P extends StackValidationFunction<T>> void registerInternal(Class<T> assignableClass, ConfigProperties configProperties, P validationFunction) {
-        CLASS_STACK_EVALUATION_MAP.put(assignableClass, new StackCondition<>(configProperties, validationFunction));
+    private static <T, P extends StackValidationFunction<T>> void registerInternal(Class<T> assignableClass, ConfigProperties configProperties, P validationFunction, StackSignatureFunction<T> signatureFunction) {
+        CLASS_STACK_EVALUATION_MAP.put(assignableClass, new StackCondition<>(configProperties, validationFunction, signatureFunction));
     }
 
     public record ConfigProperties(String key, boolean defaultValue) { }
 
-    public record StackCondition<T>(ConfigProperties configProperties, StackValidationFunction<T> function) { }
+    /**
+     * @param configProperties The config properties of the condition, or null if it is always enabled
+     * @param function The function that compares two entities
+     * @param signatureFunction The function that hashes the part of a single entity the condition compares, or null if the condition depends on both entities
+     */
+    public record StackCondition<T>(ConfigProperties configProperties, StackValidationFunction<T> function, StackSignatureFunction<T> signatureFunction) { }
 
     @FunctionalInterface
     public interface StackValidationFunction<T> {
@@ -296,4 +335,13 @@ public final class StackConditions {
         boolean test(T entity1, T entity2);
     }
 
+    /**
+     * Hashes the part of an entity that a condition compares.
+     * Two entities that can stack under the condition must always hash the same.
+     */
+    @FunctionalInterface
+    public interface StackSignatureFunction<T> {
+        int apply(T entity);
+    }
+
 }
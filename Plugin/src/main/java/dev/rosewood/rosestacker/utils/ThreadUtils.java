@@ -2,42 +2,132 @@ package dev.rosewood.rosestacker.utils;
 
 import dev.rosewood.rosegarden.RosePlugin;
 import dev.rosewood.rosestacker.RoseStacker;
+import dev.rosewood.rosestacker.manager.ConfigurationManager.Setting;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskExecutor;
+import dev.rosewood.rosestacker.scheduler.AsyncTaskKind;
+import dev.rosewood.rosestacker.scheduler.BukkitStackerScheduler;
+import dev.rosewood.rosestacker.scheduler.RegionizedStackerScheduler;
+import dev.rosewood.rosestacker.scheduler.StackerScheduler;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
 
 public final class ThreadUtils {
 
     private static final AtomicInteger activeThreads = new AtomicInteger(0);
     private static final RosePlugin rosePlugin = RoseStacker.getInstance();
+    private static final StackerScheduler scheduler = RegionizedStackerScheduler.isSupported() ? new RegionizedStackerScheduler(rosePlugin) : new BukkitStackerScheduler(rosePlugin);
+    private static volatile AsyncTaskExecutor asyncExecutor;
 
     private ThreadUtils() {
 
     }
 
+    /**
+     * @return the scheduler used to run tasks on the global, region and entity contexts
+     */
+    public static StackerScheduler getScheduler() {
+        return scheduler;
+    }
+
     public static void runSync(Runnable runnable) {
         if (checkEnabled())
-            Bukkit.getScheduler().runTask(rosePlugin, wrap(runnable));
+            scheduler.runGlobal(wrap(runnable));
     }
 
     public static void runSyncDelayed(Runnable runnable, long delay) {
         if (checkEnabled())
-            Bukkit.getScheduler().runTaskLater(rosePlugin, wrap(runnable), delay);
+            scheduler.runGlobalDelayed(wrap(runnable), delay);
     }
 
-    public static void runAsync(Runnable runnable) {
+    public static void runRegion(Location location, Runnable runnable) {
+        if (checkEnabled())
+            scheduler.runRegion(location, wrap(runnable));
+    }
+
+    public static void runRegionDelayed(Location location, Runnable runnable, long delay) {
+        if (checkEnabled())
+            scheduler.runRegionDelayed(location, wrap(runnable), delay);
+    }
+
+    public static void runEntity(Entity entity, Runnable runnable) {
         if (checkEnabled())
-            Bukkit.getScheduler().runTaskAsynchronously(rosePlugin, wrap(runnable));
+            scheduler.runEntity(entity, wrap(runnable));
+    }
+
+    public static void runEntityDelayed(Entity entity, Runnable runnable, long delay) {
+        if (checkEnabled())
+            scheduler.runEntityDelayed(entity, wrap(runnable), delay);
+    }
+
+    public static void runAsync(Runnable runnable) {
+        runAsync(AsyncTaskKind.GENERAL, null, runnable);
+    }
+
+    public static void runAsync(AsyncTaskKind kind, Runnable runnable) {
+        runAsync(kind, null, runnable);
+    }
+
+    /**
+     * Runs a task on the async executor
+     *
+     * @param kind The kind of task, decides what happens to the task if the executor is full
+     * @param key The key to coalesce the task by, the task is skipped if one with the same key is still waiting to run, nullable
+     * @param runnable The task to run
+     */
+    public static void runAsync(AsyncTaskKind kind, Object key, Runnable runnable) {
+        if (!checkEnabled())
+            return;
+
+        AsyncTaskExecutor executor = asyncExecutor;
+        if (executor != null) {
+            executor.submit(kind, key, wrap(runnable));
+        } else {
+            scheduler.runAsync(wrap(runnable));
+        }
     }
 
     public static void runAsyncDelayed(Runnable runnable, long delay) {
         if (checkEnabled())
-            Bukkit.getScheduler().runTaskLaterAsynchronously(rosePlugin, wrap(runnable), delay);
+            scheduler.runAsyncDelayed(wrap(runnable), delay);
     }
 
     public static int getActiveThreads() {
         return activeThreads.get();
     }
 
+    /**
+     * @return the executor async tasks are run on, or null if it is not running
+     */
+    public static AsyncTaskExecutor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Starts the async executor with the current settings, replacing the running one if there is one
+     */
+    public static void startAsyncExecutor() {
+        int threads = Setting.ASYNC_WORKER_THREADS.getInt();
+        if (threads <= 0)
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        AsyncTaskExecutor previous = asyncExecutor;
+        asyncExecutor = new AsyncTaskExecutor(threads, Math.max(1, Setting.ASYNC_QUEUE_SIZE.getInt()), Bukkit::isPrimaryThread, scheduler::runAsync);
+        if (previous != null)
+            previous.shutdown(false);
+    }
+
+    /**
+     * Stops the async executor and waits a few seconds for its submitted tasks to finish
+     */
+    public static void stopAsyncExecutor() {
+        AsyncTaskExecutor executor = asyncExecutor;
+        asyncExecutor = null;
+        if (executor != null)
+            executor.shutdown(true);
+    }
+
     private static Runnable wrap(Runnable runnable) {
         return () -> {
             activeThreads.incrementAndGet();
@@ -0,0 +1,137 @@
+package dev.rosewood.rosestacker.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class ChunkMapTest {
+
+    @Test
+    void keysRoundTripIncludingNegativeCoordinates() {
+        int[] coordinates = { 0, 1, -1, 15, -16, 1875000, -1875000, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (int x : coordinates) {
+            for (int z : coordinates) {
+                long key = ChunkMap.key(x, z);
+                assertEquals(x, ChunkMap.keyX(key));
+                assertEquals(z, ChunkMap.keyZ(key));
+            }
+        }
+
+        assertFalse(ChunkMap.key(1, -1) == ChunkMap.key(-1, 1));
+    }
+
+    @Test
+    void computeIfAbsentOnlyCreatesOnce() {
+        ChunkMap<String> map = new ChunkMap<>();
+        assertEquals("a", map.computeIfAbsent(ChunkMap.key(1, 2), key -> "a"));
+        assertEquals("a", map.computeIfAbsent(ChunkMap.key(1, 2), key -> "b"));
+        assertEquals("a", map.get(ChunkMap.key(1, 2)));
+        assertNull(map.get(ChunkMap.key(2, 1)));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void removedKeysCanBeAddedAgain() {
+        ChunkMap<String> map = new ChunkMap<>();
+        long key = ChunkMap.key(-3, 7);
+        map.computeIfAbsent(key, k -> "a");
+
+        assertEquals("a", map.remove(key));
+        assertNull(map.get(key));
+        assertNull(map.remove(key));
+        assertEquals(0, map.size());
+
+        assertEquals("b", map.computeIfAbsent(key, k -> "b"));
+        assertEquals("b", map.get(key));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void matchesHashMapThroughGrowthAndChurn() {
+        ChunkMap<Long> map = new ChunkMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+
+        // Adding and removing many keys leaves behind slots that have to be cleaned up on resize
+        for (int round = 0; round < 20; round++) {
+            for (int x = -40; x < 40; x++) {
+                for (int z = -5; z < 5; z++) {
+                    long key = ChunkMap.key(x + round * 7, z);
+                    if ((x + z + round) % 3 == 0) {
+                        assertEquals(expected.remove(key), map.remove(key));
+                    } else {
+                        Long value = map.computeIfAbsent(key, k -> k);
+                        expected.putIfAbsent(key, key);
+                        assertEquals(expected.get(key), value);
+                    }
+                }
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet())
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+
+        Map<Long, Long> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    void clearRemovesEverything() {
+        ChunkMap<String> map = new ChunkMap<>();
+        for (int i = 0; i < 100; i++)
+            map.computeIfAbsent(ChunkMap.key(i, -i), key -> "value");
+
+        map.clear();
+        assertEquals(0, map.size());
+        for (int i = 0; i < 100; i++)
+            assertNull(map.get(ChunkMap.key(i, -i)));
+        map.forEach((key, value) -> { throw new AssertionError("Visited " + key); });
+    }
+
+    @Test
+    void lockFreeReadersNeverSeeWrongValues() throws InterruptedException {
+        ChunkMap<Long> map = new ChunkMap<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while (running.get()) {
+                    for (int x = 0; x < 200; x++) {
+                        long key = ChunkMap.key(x, -x);
+                        Long value = map.get(key);
+                        if (value != null && value != key)
+                            failure.compareAndSet(null, "Key " + key + " mapped to " + value);
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        for (int round = 0; round < 200; round++) {
+            for (int x = 0; x < 200; x++)
+                map.computeIfAbsent(ChunkMap.key(x, -x), key -> key);
+            for (int x = round % 2; x < 200; x += 2)
+                map.remove(ChunkMap.key(x, -x));
+        }
+
+        running.set(false);
+        for (Thread reader : readers)
+            reader.join();
+
+        assertNull(failure.get());
+        assertTrue(map.size() <= 200);
+        assertSame(map.get(ChunkMap.key(1, -1)), map.get(ChunkMap.key(1, -1)));
+    }
+
+}
@@ -0,0 +1,96 @@
+package dev.rosewood.rosestacker.stack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ChunkRowIndexTest {
+
+    @Test
+    void emptyIndexVisitsNothing() {
+        ChunkRowIndex index = new ChunkRowIndex();
+        index.forEachInRange(0, 0, 100, row -> { throw new AssertionError("Visited row " + row); });
+    }
+
+    @Test
+    void visitsEveryRowInRange() {
+        // Compares against checking every row, over positions that include negative coordinates and chunk borders
+        Random random = new Random(42);
+        int rows = 2000;
+        double[] xs = new double[rows], zs = new double[rows];
+        ChunkRowIndex index = new ChunkRowIndex();
+        for (int row = 0; row < rows; row++) {
+            xs[row] = random.nextDouble() * 400 - 200;
+            zs[row] = random.nextDouble() * 400 - 200;
+            index.add(row, xs[row], zs[row]);
+        }
+
+        double[] ranges = { 0, 0.5, 3, 16, 37.5 };
+        for (int i = 0; i < 500; i++) {
+            double x = random.nextInt(4) == 0 ? random.nextInt(25) * 16 - 200 : random.nextDouble() * 400 - 200;
+            double z = random.nextDouble() * 400 - 200;
+            double range = ranges[random.nextInt(ranges.length)];
+
+            Set<Integer> visited = new HashSet<>();
+            index.forEachInRange(x, z, range, row -> assertTrue(visited.add(row), "Visited row " + row + " twice"));
+
+            for (int row = 0; row < rows; row++) {
+                double dx = xs[row] - x, dz = zs[row] - z;
+                if (dx * dx + dz * dz <= range * range)
+                    assertTrue(visited.contains(row), "Missed row " + row + " within " + range + " of " + x + ", " + z);
+            }
+        }
+    }
+
+    @Test
+    void skipsChunksOutOfRange() {
+        ChunkRowIndex index = new ChunkRowIndex();
+        index.add(0, 8, 8);
+        index.add(1, 8 + 16 * 5, 8);
+        index.add(2, -8 - 16 * 5, -8 - 16 * 5);
+
+        Set<Integer> visited = new HashSet<>();
+        index.forEachInRange(8, 8, 10, visited::add);
+        assertEquals(Set.of(0), visited);
+
+        // The corner of a diagonal chunk can be out of range even when both axes overlap the search square
+        visited.clear();
+        index.forEachInRange(-8 - 16 * 4, -8 - 16 * 4, 10, visited::add);
+        assertFalse(visited.contains(2));
+        index.forEachInRange(-8 - 16 * 4, -8 - 16 * 4, 12, visited::add);
+        assertTrue(visited.contains(2));
+    }
+
+    @Test
+    void negativeCoordinatesUseFlooredChunks() {
+        // -0.5 is in chunk -1, rounding towards zero would put it in chunk 0
+        ChunkRowIndex index = new ChunkRowIndex();
+        index.add(0, -0.5, -0.5);
+        index.add(1, 0.5, 0.5);
+
+        Set<Integer> visited = new HashSet<>();
+        index.forEachInRange(-8, -8, 8, visited::add);
+        assertEquals(Set.of(0), visited);
+
+        visited.clear();
+        index.forEachInRange(8, 8, 8, visited::add);
+        assertEquals(Set.of(1), visited);
+    }
+
+    @Test
+    void keepsEveryRowOfABusyChunk() {
+        ChunkRowIndex index = new ChunkRowIndex();
+        for (int row = 0; row < 100; row++)
+            index.add(row, 3, -3);
+
+        Set<Integer> visited = new HashSet<>();
+        index.forEachInRange(3, -3, 1, visited::add);
+        assertEquals(100, visited.size());
+    }
+
+}
@@ -0,0 +1,157 @@
+package dev.rosewood.rosestacker.stack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PerformanceControllerTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private static PerformanceController controller(double smoothing) {
+        // Pressure rises from 40 to 60 MSPT, at full pressure passes run 3x less often, tags 2x, radiuses halve
+        return new PerformanceController(true, 40, 60, smoothing, 3, 2, 0.5, 100);
+    }
+
+    @Test
+    void pressureFollowsTickTimesWithSmoothing() {
+        PerformanceController controller = controller(0.5);
+        controller.update(20);
+        assertEquals(0, controller.getPressure(), EPSILON);
+
+        // Half way between the bounds is a target of 0.5, each update moves half of the remaining way
+        controller.update(50);
+        assertEquals(0.25, controller.getPressure(), EPSILON);
+        controller.update(50);
+        assertEquals(0.375, controller.getPressure(), EPSILON);
+        assertEquals(50, controller.getMspt(), EPSILON);
+
+        // A single spike only moves the pressure part of the way up
+        controller.update(1000);
+        assertEquals(0.6875, controller.getPressure(), EPSILON);
+
+        for (int i = 0; i < 100; i++)
+            controller.update(1000);
+        assertEquals(1, controller.getPressure(), 1e-6);
+
+        for (int i = 0; i < 100; i++)
+            controller.update(0);
+        assertEquals(0, controller.getPressure(), 1e-6);
+    }
+
+    @Test
+    void pressureStaysWithinBounds() {
+        PerformanceController controller = controller(1);
+        double[] tickTimes = { 0, -50, 39.9, 40, 45, 60, 60.1, 500, Double.MAX_VALUE, 10 };
+        for (double mspt : tickTimes) {
+            controller.update(mspt);
+            assertTrue(controller.getPressure() >= 0 && controller.getPressure() <= 1, "Pressure out of bounds at " + mspt);
+        }
+
+        controller.update(45);
+        assertEquals(0.25, controller.getPressure(), EPSILON);
+    }
+
+    @Test
+    void multipliersScaleToTheirBounds() {
+        PerformanceController controller = controller(1);
+        controller.update(0);
+        assertEquals(1, controller.getStackIntervalMultiplier(), EPSILON);
+        assertEquals(1, controller.getTagIntervalMultiplier(), EPSILON);
+        assertEquals(1, controller.getMergeRadiusMultiplier(), EPSILON);
+
+        controller.update(50);
+        assertEquals(2, controller.getStackIntervalMultiplier(), EPSILON);
+        assertEquals(1.5, controller.getTagIntervalMultiplier(), EPSILON);
+        assertEquals(0.75, controller.getMergeRadiusMultiplier(), EPSILON);
+
+        controller.update(100);
+        assertEquals(3, controller.getStackIntervalMultiplier(), EPSILON);
+        assertEquals(2, controller.getTagIntervalMultiplier(), EPSILON);
+        assertEquals(0.5, controller.getMergeRadiusMultiplier(), EPSILON);
+    }
+
+    @Test
+    void constructorClampsInvalidValues() {
+        // High below low, smoothing out of range and multipliers below their minimums
+        PerformanceController controller = new PerformanceController(true, 40, 10, 5, 0.5, -1, -1, 0);
+        controller.update(41);
+        assertEquals(1, controller.getPressure(), EPSILON);
+        assertEquals(1, controller.getStackIntervalMultiplier(), EPSILON);
+        assertEquals(1, controller.getTagIntervalMultiplier(), EPSILON);
+        assertEquals(0, controller.getMergeRadiusMultiplier(), EPSILON);
+    }
+
+    @Test
+    void disabledControllerChangesNothing() {
+        PerformanceController controller = new PerformanceController(false, 40, 60, 1, 3, 2, 0.5, 100);
+        controller.update(1000);
+        assertFalse(controller.isEnabled());
+        assertEquals(1, controller.getStackIntervalMultiplier(), EPSILON);
+        assertEquals(1, controller.getTagIntervalMultiplier(), EPSILON);
+        assertEquals(1, controller.getMergeRadiusMultiplier(), EPSILON);
+        assertEquals(500, controller.getMaxStacksPerPass(500));
+        assertEquals(-1, controller.getMaxStacksPerPass(-1));
+    }
+
+    @Test
+    void maxStacksPerPassShrinksTowardsTheMinimum() {
+        PerformanceController controller = controller(1);
+        controller.update(0);
+        assertEquals(500, controller.getMaxStacksPerPass(500));
+        assertEquals(-1, controller.getMaxStacksPerPass(-1));
+
+        // At a quarter pressure the limit is 4x the minimum, never above the configured value
+        controller.update(45);
+        assertEquals(400, controller.getMaxStacksPerPass(500));
+        assertEquals(300, controller.getMaxStacksPerPass(300));
+        assertEquals(400, controller.getMaxStacksPerPass(-1));
+
+        controller.update(60);
+        assertEquals(100, controller.getMaxStacksPerPass(500));
+        assertEquals(100, controller.getMaxStacksPerPass(-1));
+
+        PerformanceController unlimited = new PerformanceController(true, 40, 60, 1, 3, 2, 0.5, 0);
+        unlimited.update(60);
+        assertEquals(500, unlimited.getMaxStacksPerPass(500));
+    }
+
+    @Test
+    void throttleRunsAtTheExpectedRatio() {
+        assertRunRatio(1, 1);
+        assertRunRatio(0.5, 1);
+        assertRunRatio(1.5, 2 / 3D);
+        assertRunRatio(2, 1 / 2D);
+        assertRunRatio(3, 1 / 3D);
+        assertRunRatio(10, 1 / 10D);
+    }
+
+    @Test
+    void throttleFollowsAChangingMultiplier() {
+        PerformanceController controller = controller(0.2);
+        PerformanceController.Throttle throttle = new PerformanceController.Throttle();
+        int runs = 0, firings = 3000;
+
+        // Load that ramps up to full pressure and back down again
+        for (int i = 0; i < firings; i++) {
+            controller.update(i < firings / 3 ? 0 : i < firings * 2 / 3 ? 1000 : 0);
+            if (throttle.tryRun(controller.getStackIntervalMultiplier()))
+                runs++;
+        }
+
+        // A third runs every time, a third about one in three times, and the last third every time again
+        assertEquals(firings / 3 + firings / 9 + firings / 3, runs, 20);
+    }
+
+    private static void assertRunRatio(double multiplier, double expected) {
+        PerformanceController.Throttle throttle = new PerformanceController.Throttle();
+        int firings = 3000, runs = 0;
+        for (int i = 0; i < firings; i++)
+            if (throttle.tryRun(multiplier))
+                runs++;
+        assertEquals(expected * firings, runs, 1, "Unexpected run ratio for a multiplier of " + multiplier);
+    }
+
+}
@@ -0,0 +1,219 @@
+package dev.rosewood.rosestacker.stack;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class RemovedEntityTrackerTest {
+
+    private static final long LONG_EPOCH = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    void containsOnlyAddedEntities() {
+        RemovedEntityTracker tracker = new RemovedEntityTracker(LONG_EPOCH);
+        UUID added = UUID.randomUUID();
+        assertFalse(tracker.contains(added));
+
+        tracker.add(added);
+        tracker.add(added);
+        assertTrue(tracker.contains(added));
+        assertFalse(tracker.contains(UUID.randomUUID()));
+        assertFalse(tracker.contains(new UUID(0, 0)));
+    }
+
+    @Test
+    void growsPastTheInitialCapacity() {
+        RemovedEntityTracker tracker = new RemovedEntityTracker(LONG_EPOCH);
+        List<UUID> added = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            UUID uuid = UUID.randomUUID();
+            added.add(uuid);
+            tracker.add(uuid);
+        }
+
+        for (UUID uuid : added)
+            assertTrue(tracker.contains(uuid), "Lost " + uuid + " while growing");
+        for (int i = 0; i < 10_000; i++)
+            assertFalse(tracker.contains(UUID.randomUUID()));
+    }
+
+    @Test
+    void handlesCollidingSlots() {
+        // UUIDs that only differ in their most significant bits land close together after hashing
+        RemovedEntityTracker tracker = new RemovedEntityTracker(LONG_EPOCH);
+        for (int i = 0; i < 1000; i++)
+            tracker.add(new UUID(i, 0));
+
+        for (int i = 0; i < 1000; i++)
+            assertTrue(tracker.contains(new UUID(i, 0)));
+        for (int i = 1000; i < 2000; i++)
+            assertFalse(tracker.contains(new UUID(i, 0)));
+    }
+
+    @Test
+    void entitiesExpireAfterTwoEpochs() throws InterruptedException {
+        long epoch = TimeUnit.MILLISECONDS.toNanos(20);
+        RemovedEntityTracker tracker = new RemovedEntityTracker(epoch);
+        UUID first = UUID.randomUUID();
+        tracker.add(first);
+
+        // One epoch later the entity moves to the previous table and is still remembered
+        sleepNanos(epoch);
+        tracker.expire();
+        assertTrue(tracker.contains(first));
+
+        UUID second = UUID.randomUUID();
+        tracker.add(second);
+
+        // Another epoch later the first entity is forgotten while the second is still remembered
+        sleepNanos(epoch);
+        tracker.expire();
+        assertFalse(tracker.contains(first));
+        assertTrue(tracker.contains(second));
+
+        sleepNanos(epoch);
+        tracker.expire();
+        assertFalse(tracker.contains(second));
+    }
+
+    @Test
+    void expireDoesNothingWithinAnEpoch() {
+        RemovedEntityTracker tracker = new RemovedEntityTracker(LONG_EPOCH);
+        UUID uuid = UUID.randomUUID();
+        tracker.add(uuid);
+        for (int i = 0; i < 10; i++)
+            tracker.expire();
+        assertTrue(tracker.contains(uuid));
+    }
+
+    /**
+     * Adds entities from one thread while another keeps checking ones that were already added, like stacking passes
+     * reading the tracker while removals are recorded, and checks that an added entity is never missed while growing
+     */
+    @Test
+    void concurrentReadersSeeAddedEntities() throws InterruptedException {
+        RemovedEntityTracker tracker = new RemovedEntityTracker(LONG_EPOCH);
+        int count = 50_000;
+        UUID[] uuids = new UUID[count];
+        for (int i = 0; i < count; i++)
+            uuids[i] = UUID.randomUUID();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread[] readers = new Thread[4];
+        int[] published = new int[1];
+        Object publishLock = new Object();
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        int known;
+                        synchronized (publishLock) {
+                            known = published[0];
+                        }
+                        for (int i = Math.max(0, known - 1000); i < known; i++)
+                            if (!tracker.contains(uuids[i]))
+                                throw new AssertionError("Missed " + uuids[i] + " at index " + i);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            readers[r].start();
+        }
+
+        for (int i = 0; i < count; i++) {
+            tracker.add(uuids[i]);
+            synchronized (publishLock) {
+                published[0] = i + 1;
+            }
+        }
+
+        done.set(true);
+        for (Thread reader : readers)
+            reader.join();
+
+        assertNull(failure.get());
+        for (UUID uuid : uuids)
+            assertTrue(tracker.contains(uuid));
+    }
+
+    /**
+     * Adds entities from one thread for many short epochs while other threads keep checking recent ones.
+     * An entity is only dropped by the second rollover after it was added, which can't happen until a full epoch
+     * after the add started, so readers only fail a check that finished within an epoch of the add.
+     */
+    @Test
+    void concurrentReadersSeeEntitiesAcrossRollovers() throws InterruptedException {
+        long epoch = TimeUnit.MILLISECONDS.toNanos(1);
+        RemovedEntityTracker tracker = new RemovedEntityTracker(epoch);
+        int capacity = 500_000;
+        Random random = new Random(42);
+        UUID[] uuids = new UUID[capacity];
+        long[] addTimes = new long[capacity];
+        for (int i = 0; i < capacity; i++)
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger published = new AtomicInteger();
+        AtomicInteger checked = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        int known = published.get();
+                        for (int i = Math.max(0, known - 200); i < known; i++) {
+                            boolean contained = tracker.contains(uuids[i]);
+                            if (!contained && System.nanoTime() - addTimes[i] < epoch)
+                                throw new AssertionError("Missed " + uuids[i] + " at index " + i + " within an epoch of adding it");
+                            if (contained)
+                                checked.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            readers[r].start();
+        }
+
+        // Keep adding for long enough that the tables roll over many times
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(250);
+        int added = 0;
+        while (added < capacity && System.nanoTime() < end) {
+            addTimes[added] = System.nanoTime();
+            tracker.add(uuids[added]);
+            published.set(++added);
+            if (added % 64 == 0)
+                Thread.yield();
+        }
+
+        done.set(true);
+        for (Thread reader : readers)
+            reader.join();
+
+        assertNull(failure.get());
+        assertTrue(checked.get() > 0);
+        assertTrue(tracker.contains(uuids[added - 1]));
+        assertFalse(tracker.contains(uuids[0]), "The first entity should have expired after many epochs");
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end)
+            Thread.sleep(1);
+    }
+
+}
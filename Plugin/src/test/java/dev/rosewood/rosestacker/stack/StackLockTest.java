@@ -0,0 +1,170 @@
+package dev.rosewood.rosestacker.stack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.rosewood.rosestacker.nms.storage.AbstractSimpleStackedEntityDataStorage;
+import dev.rosewood.rosestacker.nms.storage.EntityDataEntry;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bukkit.entity.LivingEntity;
+import org.junit.jupiter.api.Test;
+
+class StackLockTest {
+
+    @Test
+    void retiredStacksRejectChanges() {
+        StackLock lock = new StackLock();
+        assertTrue(lock.runLocked(() -> { }));
+        assertTrue(lock.runRetiring(() -> { }));
+        assertTrue(lock.isRetired());
+
+        assertFalse(lock.runLocked(() -> { throw new AssertionError("Ran on a retired stack"); }));
+        assertFalse(lock.runRetiring(() -> { throw new AssertionError("Retired twice"); }));
+        assertNull(lock.callLocked(() -> "value"));
+        assertFalse(new StackLock().runMerge(lock, () -> { throw new AssertionError("Merged a retired stack"); }));
+    }
+
+    @Test
+    void mergeRetiresOnlyTheOtherStack() {
+        StackLock increased = new StackLock();
+        StackLock removed = new StackLock();
+        assertTrue(increased.runMerge(removed, () -> { }));
+        assertFalse(increased.isRetired());
+        assertTrue(removed.isRetired());
+    }
+
+    @Test
+    void retireRequiresTheLock() {
+        StackLock lock = new StackLock();
+        assertThrows(IllegalStateException.class, lock::retire);
+        assertTrue(lock.runLocked(lock::retire));
+        assertTrue(lock.isRetired());
+    }
+
+    /**
+     * Runs merges, splits and kills on random entity stacks from many threads at once, going through the same
+     * StackedEntity paths as the stacking thread and the death listeners, and checks that no entity is ever duplicated
+     * or lost, that a retired stack never changes again, and that the lock ordering never deadlocks
+     */
+    @Test
+    void concurrentMergesSplitsAndKillsKeepTotals() throws InterruptedException {
+        int initialStacks = 200, sizePerStack = 10, threads = 8, operationsPerThread = 20_000;
+        List<StackedEntity> stacks = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < initialStacks; i++)
+            stacks.add(createStack(sizePerStack));
+
+        Set<LivingEntity> mergedEntities = ConcurrentHashMap.newKeySet();
+        Map<StackedEntity, Integer> killedSizes = new ConcurrentHashMap<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        StackedEntity stack = stacks.get(random.nextInt(stacks.size()));
+                        switch (random.nextInt(4)) {
+                            case 0, 1 -> {
+                                StackedEntity other = stacks.get(random.nextInt(stacks.size()));
+                                if (other != stack) {
+                                    LivingEntity merged = stack.mergeFrom(other);
+                                    if (merged != null && !mergedEntities.add(merged))
+                                        throw new AssertionError("Merged the same entity twice");
+                                }
+                            }
+                            case 2 -> {
+                                // The spawn between taking the entity off the stack and swapping it in runs without the lock
+                                StackedEntity.Split split = stack.popForSplit();
+                                if (split != null) {
+                                    LivingEntity spawned = createEntity();
+                                    Thread.yield();
+                                    LivingEntity unstacked = stack.swapEntity(split.entity(), spawned) ? split.entity() : spawned;
+                                    stacks.add(new StackedEntity(unstacked, new TestDataStorage(unstacked, 0), null));
+                                }
+                            }
+                            default -> {
+                                if (stack.retire() && killedSizes.put(stack, stack.getStackSize()) != null)
+                                    throw new AssertionError("Killed the same stack twice");
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS), "Stack operations deadlocked");
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        int alive = 0;
+        Set<LivingEntity> aliveEntities = new HashSet<>();
+        for (StackedEntity stack : stacks) {
+            Integer killedSize = killedSizes.get(stack);
+            if (killedSize != null)
+                assertEquals(killedSize, stack.getStackSize(), "A killed stack was changed after it was retired");
+
+            if (!stack.isRetired()) {
+                alive += stack.getStackSize();
+                assertTrue(aliveEntities.add(stack.getEntity()), "An entity is at the front of two stacks");
+                assertFalse(mergedEntities.contains(stack.getEntity()), "A merged entity is still at the front of a stack");
+                assertEquals(stack.getEntity(), stack.getDataStorage().getEntity());
+            }
+        }
+
+        int killed = killedSizes.values().stream().mapToInt(Integer::intValue).sum();
+        assertEquals(initialStacks * sizePerStack, alive + killed);
+    }
+
+    private static StackedEntity createStack(int size) {
+        LivingEntity entity = createEntity();
+        return new StackedEntity(entity, new TestDataStorage(entity, size - 1), null);
+    }
+
+    private static LivingEntity createEntity() {
+        return (LivingEntity) Proxy.newProxyInstance(LivingEntity.class.getClassLoader(), new Class<?>[] { LivingEntity.class }, (proxy, method, args) -> switch (method.getName()) {
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> "Entity@" + System.identityHashCode(proxy);
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    /**
+     * A simple data storage where every stored entity is a clone of the one at the front, like the simple storage type
+     */
+    private static class TestDataStorage extends AbstractSimpleStackedEntityDataStorage {
+
+        private TestDataStorage(LivingEntity entity, int size) {
+            super(entity);
+            this.size = size;
+        }
+
+        @Override
+        protected EntityDataEntry copy() {
+            return (location, addToWorld, entityType) -> createEntity();
+        }
+
+    }
+
+}
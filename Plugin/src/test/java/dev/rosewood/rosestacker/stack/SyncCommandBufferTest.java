@@ -0,0 +1,256 @@
+package dev.rosewood.rosestacker.stack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.rosewood.rosestacker.scheduler.StackerScheduler;
+import dev.rosewood.rosestacker.scheduler.StackerTask;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the command buffer against a scheduler with a global thread and several region threads, like a region
+ * threaded server, and checks that every command runs on the thread owning its entity
+ */
+class SyncCommandBufferTest {
+
+    private static final int REGIONS = 4;
+
+    private RegionScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        this.scheduler = new RegionScheduler(REGIONS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        this.scheduler.shutdown();
+    }
+
+    @Test
+    void commandsRunOnTheRegionOwningTheirEntity() throws InterruptedException {
+        this.runCommands(new SyncCommandBuffer(this.scheduler, 0), false);
+    }
+
+    @Test
+    void budgetedDrainsStillApplyEverything() throws InterruptedException {
+        // A budget of 1 nanosecond stops every drain after a single command
+        this.runCommands(new SyncCommandBuffer(this.scheduler, 1), false);
+    }
+
+    @Test
+    void removalsRunOnTheRegionOwningTheirEntity() throws InterruptedException {
+        this.runCommands(new SyncCommandBuffer(this.scheduler, 1), true);
+    }
+
+    @Test
+    void commandsOnTheOwningRegionRunImmediately() throws Exception {
+        SyncCommandBuffer buffer = new SyncCommandBuffer(this.scheduler, 0);
+        Entity entity = this.scheduler.createEntity(2);
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        Thread regionThread = this.scheduler.regions[2].submit(() -> {
+            buffer.submit(entity, () -> ranOn.set(Thread.currentThread()));
+            return Thread.currentThread();
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(regionThread, ranOn.get());
+        assertEquals(0, buffer.getPendingCommands());
+    }
+
+    @Test
+    void closeStopsSchedulingDrains() {
+        SyncCommandBuffer buffer = new SyncCommandBuffer(this.scheduler, 0);
+        buffer.close();
+        buffer.submit(this.scheduler.createEntity(0), () -> { });
+        buffer.flush();
+        assertEquals(0, this.scheduler.globalTasks.get());
+        assertEquals(1, buffer.getPendingCommands());
+    }
+
+    private void runCommands(SyncCommandBuffer buffer, boolean removals) throws InterruptedException {
+        int perRegion = 500;
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < REGIONS * perRegion; i++)
+            entities.add(this.scheduler.createEntity(i % REGIONS));
+
+        CountDownLatch applied = new CountDownLatch(entities.size() + 1);
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        // Commands are submitted from a thread that owns nothing, like an async stacking pass
+        Thread pass = new Thread(() -> {
+            for (Entity entity : entities) {
+                Runnable command = () -> {
+                    if (!this.scheduler.isOwnedByCurrentRegion(entity))
+                        failure.compareAndSet(null, "Command for region " + this.scheduler.regionOf(entity) + " ran on " + Thread.currentThread().getName());
+                    applied.countDown();
+                };
+
+                if (removals) {
+                    buffer.submitRemoval(entity, command);
+                } else {
+                    buffer.submit(entity, command);
+                }
+            }
+
+            buffer.submit(() -> {
+                if (!this.scheduler.isGlobalThread())
+                    failure.compareAndSet(null, "Global command ran on " + Thread.currentThread().getName());
+                applied.countDown();
+            });
+            buffer.flush();
+        });
+        pass.start();
+        pass.join();
+
+        assertTrue(applied.await(10, TimeUnit.SECONDS), "Not every command was applied");
+        assertNull(failure.get());
+        assertEquals(0, buffer.getPendingCommands());
+    }
+
+    /**
+     * A scheduler with one global thread and a fixed number of region threads, entities are assigned to a region up front
+     */
+    private static class RegionScheduler implements StackerScheduler {
+
+        private final ExecutorService global;
+        private final ExecutorService[] regions;
+        private final Thread[] regionThreads;
+        private final Map<Entity, Integer> owners;
+        private final AtomicInteger globalTasks;
+        private volatile Thread globalThread;
+
+        private RegionScheduler(int regions) {
+            this.global = Executors.newSingleThreadExecutor(runnable -> this.globalThread = new Thread(runnable, "global"));
+            this.regions = new ExecutorService[regions];
+            this.regionThreads = new Thread[regions];
+            for (int i = 0; i < regions; i++) {
+                int region = i;
+                this.regions[i] = Executors.newSingleThreadExecutor(runnable -> this.regionThreads[region] = new Thread(runnable, "region-" + region));
+            }
+            this.owners = new ConcurrentHashMap<>();
+            this.globalTasks = new AtomicInteger();
+        }
+
+        private Entity createEntity(int region) {
+            Entity entity = (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(), new Class<?>[] { Entity.class }, (proxy, method, args) -> switch (method.getName()) {
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                case "toString" -> "Entity in region " + region;
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+            this.owners.put(entity, region);
+            return entity;
+        }
+
+        private int regionOf(Entity entity) {
+            return this.owners.get(entity);
+        }
+
+        private void shutdown() throws InterruptedException {
+            this.global.shutdownNow();
+            for (ExecutorService region : this.regions)
+                region.shutdownNow();
+            this.global.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public StackerTask runGlobal(Runnable runnable) {
+            this.globalTasks.incrementAndGet();
+            this.global.execute(runnable);
+            return new Task();
+        }
+
+        @Override
+        public StackerTask runGlobalDelayed(Runnable runnable, long delay) {
+            return this.runGlobal(runnable);
+        }
+
+        @Override
+        public StackerTask runGlobalTimer(Runnable runnable, long delay, long period) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StackerTask runRegion(World world, int chunkX, int chunkZ, Runnable runnable) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StackerTask runRegionDelayed(World world, int chunkX, int chunkZ, Runnable runnable, long delay) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StackerTask runEntityDelayed(Entity entity, Runnable runnable, long delay) {
+            this.regions[this.regionOf(entity)].execute(runnable);
+            return new Task();
+        }
+
+        @Override
+        public StackerTask runAsync(Runnable runnable) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StackerTask runAsyncDelayed(Runnable runnable, long delay) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StackerTask runAsyncTimer(Runnable runnable, long delay, long period) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isGlobalThread() {
+            return Thread.currentThread() == this.globalThread;
+        }
+
+        @Override
+        public boolean isOwnedByCurrentRegion(Entity entity) {
+            return Thread.currentThread() == this.regionThreads[this.regionOf(entity)];
+        }
+
+        @Override
+        public boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancelAll() {
+
+        }
+
+        private static class Task implements StackerTask {
+
+            @Override
+            public void cancel() {
+
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+        }
+
+    }
+
+}
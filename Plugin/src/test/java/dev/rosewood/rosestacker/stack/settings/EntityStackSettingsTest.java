@@ -0,0 +1,157 @@
+package dev.rosewood.rosestacker.stack.settings;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import dev.rosewood.rosestacker.stack.EntityStackComparisonResult;
+import dev.rosewood.rosestacker.stack.settings.conditions.entity.StackConditions.ConfigProperties;
+import dev.rosewood.rosestacker.stack.settings.conditions.entity.StackConditions.StackCondition;
+import dev.rosewood.rosestacker.stack.settings.conditions.entity.StackConditions.StackValidationFunction;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import org.bukkit.entity.Cow;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Pig;
+import org.junit.jupiter.api.Test;
+
+class EntityStackSettingsTest {
+
+    private static final EntityStackComparisonResult[] RESULTS = EntityStackComparisonResult.values();
+    private static final String[] NAMES = { null, "Bessie", "Wilbur" };
+
+    @Test
+    void compiledConditionsMatchTheConditionLoop() {
+        Random random = new Random(42);
+        List<Entity> entities = new ArrayList<>();
+        for (String name : NAMES) {
+            entities.add(createEntity(Cow.class, EntityType.COW, name));
+            entities.add(createEntity(Pig.class, EntityType.PIG, name));
+        }
+
+        for (int i = 0; i < 500; i++) {
+            List<StackCondition<?>> conditions = new ArrayList<>();
+            Set<StackCondition<?>> disabled = new HashSet<>();
+
+            // Like the base entity condition, the first condition has no config so it's always enabled
+            conditions.add(new StackCondition<Entity>(null, (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> entity1.getType() != entity2.getType() ? EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES : EntityStackComparisonResult.CAN_STACK, null));
+
+            int count = random.nextInt(8);
+            for (int j = 0; j < count; j++) {
+                StackCondition<?> condition = randomCondition(random, "condition-" + j);
+                conditions.add(condition);
+                if (random.nextBoolean())
+                    disabled.add(condition);
+            }
+
+            List<StackCondition<?>> enabled = conditions.stream().filter(x -> !disabled.contains(x)).toList();
+            StackValidationFunction<Entity>[] compiled = EntityStackSettings.compileConditions(enabled);
+
+            for (Entity entity1 : entities) {
+                for (Entity entity2 : entities) {
+                    for (int flags = 0; flags < 4; flags++) {
+                        boolean comparingForUnstack = (flags & 1) != 0, ignorePositions = (flags & 2) != 0;
+                        EntityStackComparisonResult expected = evaluateLoop(conditions, disabled, entity1, entity2, comparingForUnstack, ignorePositions);
+                        EntityStackComparisonResult actual = EntityStackSettings.evaluateConditions(compiled, null, null, null, entity1, entity2, comparingForUnstack, ignorePositions);
+                        assertEquals(expected, actual, "Different result for conditions " + i + " comparing " + entity1 + " and " + entity2 + " with flags " + flags);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void firstFailingConditionWins() {
+        List<StackCondition<?>> conditions = List.of(
+                failingCondition(EntityStackComparisonResult.CAN_STACK),
+                failingCondition(EntityStackComparisonResult.LEASHED),
+                failingCondition(EntityStackComparisonResult.TAMED)
+        );
+
+        Entity entity = createEntity(Cow.class, EntityType.COW, null);
+        assertEquals(EntityStackComparisonResult.LEASHED,
+                EntityStackSettings.evaluateConditions(EntityStackSettings.compileConditions(conditions), null, null, null, entity, entity, false, false));
+    }
+
+    @Test
+    void noConditionsCanStack() {
+        Entity entity = createEntity(Cow.class, EntityType.COW, null);
+        assertEquals(EntityStackComparisonResult.CAN_STACK,
+                EntityStackSettings.evaluateConditions(EntityStackSettings.compileConditions(List.of()), null, null, null, entity, entity, false, false));
+    }
+
+    @Test
+    void differentEntityClassesDontStack() {
+        List<StackCondition<?>> conditions = List.of(failingCondition(EntityStackComparisonResult.CAN_STACK));
+        assertEquals(EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES, EntityStackSettings.evaluateConditions(EntityStackSettings.compileConditions(conditions),
+                null, null, null, createEntity(Cow.class, EntityType.COW, null), createEntity(Pig.class, EntityType.PIG, null), false, false));
+    }
+
+    /**
+     * The evaluation before the conditions were compiled, walking every eligible condition and skipping disabled ones
+     */
+    private static EntityStackComparisonResult evaluateLoop(List<StackCondition<?>> conditions, Set<StackCondition<?>> disabled,
+                                                            Entity entity1, Entity entity2, boolean comparingForUnstack, boolean ignorePositions) {
+        for (StackCondition<?> condition : conditions) {
+            EntityStackComparisonResult result = apply(condition, !disabled.contains(condition), entity1, entity2, comparingForUnstack, ignorePositions);
+            if (result != EntityStackComparisonResult.CAN_STACK)
+                return result;
+        }
+
+        return EntityStackComparisonResult.CAN_STACK;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> EntityStackComparisonResult apply(StackCondition<T> condition, boolean enabled, Entity entity1, Entity entity2,
+                                                         boolean comparingForUnstack, boolean ignorePositions) {
+        if (!enabled)
+            return EntityStackComparisonResult.CAN_STACK;
+
+        if (entity1.getClass() != entity2.getClass())
+            return EntityStackComparisonResult.DIFFERENT_ENTITY_TYPES;
+
+        return condition.function().apply(null, null, null, (T) entity1, (T) entity2, comparingForUnstack, ignorePositions);
+    }
+
+    private static StackCondition<Entity> randomCondition(Random random, String key) {
+        EntityStackComparisonResult reason = RESULTS[1 + random.nextInt(RESULTS.length - 1)];
+        ConfigProperties configProperties = new ConfigProperties("dont-stack-if-" + key, random.nextBoolean());
+        StackValidationFunction<Entity> function = switch (random.nextInt(5)) {
+            case 0 -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> !Objects.equals(entity1.getCustomName(), entity2.getCustomName()) ? reason : EntityStackComparisonResult.CAN_STACK;
+            case 1 -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> entity1.getCustomName() != null || entity2.getCustomName() != null ? reason : EntityStackComparisonResult.CAN_STACK;
+            case 2 -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> comparingForUnstack ? reason : EntityStackComparisonResult.CAN_STACK;
+            case 3 -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> ignorePositions ? EntityStackComparisonResult.CAN_STACK : reason;
+            default -> (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions)
+                    -> EntityStackComparisonResult.CAN_STACK;
+        };
+        return new StackCondition<>(configProperties, function, null);
+    }
+
+    private static StackCondition<Entity> failingCondition(EntityStackComparisonResult result) {
+        return new StackCondition<>(null, (stackSettings, stack1, stack2, entity1, entity2, comparingForUnstack, ignorePositions) -> result, null);
+    }
+
+    /**
+     * Creates an entity that only answers what the conditions read, with identity equality like the server's entities
+     */
+    private static Entity createEntity(Class<? extends Entity> type, EntityType entityType, String customName) {
+        return (Entity) Proxy.newProxyInstance(EntityStackSettingsTest.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> switch (method.getName()) {
+            case "getType" -> entityType;
+            case "getCustomName" -> customName;
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> entityType + "[" + customName + "]";
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+}